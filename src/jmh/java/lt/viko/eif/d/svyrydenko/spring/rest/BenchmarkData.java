@@ -0,0 +1,76 @@
+package lt.viko.eif.d.svyrydenko.spring.rest;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Patient;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.AppointmentRepository;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.DoctorRepository;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.PatientRepository;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Shared fixtures of the benchmarks: generated appointments and an application context on a private H2 database.
+ */
+public final class BenchmarkData {
+
+    private static final Instant START = LocalDateTime.of(2030, 1, 1, 8, 0).toInstant(ZoneOffset.UTC);
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Generates appointments, each with its own patient and doctor, half an hour apart.
+     * @param count The number of appointments.
+     * @return The appointments, not saved.
+     */
+    public static List<Appointment> appointments(int count) {
+        List<Appointment> appointments = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Patient patient = new Patient("Patient" + i, "Surname" + i, 20 + i % 60, "+3706" + (1000000 + i),
+                    "patient" + i + "@mail.lt");
+            Doctor doctor = new Doctor("Doctor" + i, "Surname" + i, "+3705" + (1000000 + i), "Cardiology");
+            appointments.add(new Appointment(i % 2 == 0 ? "Routine Check" : "Consultation",
+                    Date.from(START.plus(Duration.ofMinutes(30L * i))), patient, doctor));
+        }
+        return appointments;
+    }
+
+    /**
+     * Generates appointments and saves them, their patients and doctors first.
+     * @param context The application the appointments are saved to.
+     * @param count The number of appointments.
+     * @return The saved appointments.
+     */
+    public static List<Appointment> save(ConfigurableApplicationContext context, int count) {
+        List<Appointment> appointments = appointments(count);
+        context.getBean(PatientRepository.class).saveAll(appointments.stream().map(Appointment::getPatient).toList());
+        context.getBean(DoctorRepository.class).saveAll(appointments.stream().map(Appointment::getDoctor).toList());
+        return context.getBean(AppointmentRepository.class).saveAll(appointments);
+    }
+
+    /**
+     * Starts the application on a random port and an in-memory database of its own.
+     * The controllers need the web configuration, so the application cannot be started without a web server.
+     * @param database The name of the in-memory database.
+     * @param properties Further properties of the application, as {@code name=value}.
+     * @return The running application context.
+     */
+    public static ConfigurableApplicationContext start(String database, String... properties) {
+        return new SpringApplicationBuilder(SpringRestApplication.class)
+                .properties("server.port=0",
+                        "spring.datasource.url=jdbc:h2:mem:" + database + ";DB_CLOSE_DELAY=-1",
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=WARN")
+                .properties(properties)
+                .run();
+    }
+}
@@ -0,0 +1,103 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lt.viko.eif.d.svyrydenko.spring.rest.BenchmarkData;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.mediatype.MessageResolver;
+import org.springframework.hateoas.mediatype.hal.CurieProvider;
+import org.springframework.hateoas.mediatype.hal.Jackson2HalModule;
+import org.springframework.hateoas.server.core.DefaultLinkRelationProvider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the HAL serialization of an appointment list, once as a {@code CollectionModel} of {@code EntityModel}s
+ * of the entities, serialized by the HAL module, and once as the {@link HalPage} of responses built by
+ * {@link AppointmentController#all}, written by its own serializer.
+ * The score is the time to write the whole collection; the collection is built once per trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class HalSerializationBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int rows;
+
+    private ObjectMapper halMapper;
+    private CollectionModel<EntityModel<Appointment>> model;
+    private HalPage<AppointmentResponse> page;
+
+    @Setup
+    public void setUp() {
+        halMapper = new ObjectMapper();
+        halMapper.registerModule(new Jackson2HalModule());
+        halMapper.setHandlerInstantiator(new Jackson2HalModule.HalHandlerInstantiator(
+                new DefaultLinkRelationProvider(), CurieProvider.NONE, MessageResolver.DEFAULTS_ONLY));
+
+        LinkFactory links = new LinkFactory();
+        List<Appointment> appointments = BenchmarkData.appointments(rows);
+        for (int i = 0; i < appointments.size(); i++) {
+            appointments.get(i).setId(i + 1);
+        }
+        model = CollectionModel.of(appointments.stream()
+                .map(appointment -> EntityModel.of(appointment,
+                        links.appointment(appointment.getId()), links.appointments()))
+                .toList(), links.appointments().withSelfRel());
+        page = new HalPage<>("appointmentList", appointments.stream().map(AppointmentResponse::of).toList(),
+                HalRows.appointments(links.appointmentHrefs(), links.appointments()),
+                links.appointments().withSelfRel());
+    }
+
+    @Benchmark
+    public long serialize() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        halMapper.writeValue(out, model);
+        return out.count;
+    }
+
+    @Benchmark
+    public long serializePage() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        halMapper.writeValue(out, page);
+        return out.count;
+    }
+
+    /**
+     * Discards everything written to it, counting the bytes.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
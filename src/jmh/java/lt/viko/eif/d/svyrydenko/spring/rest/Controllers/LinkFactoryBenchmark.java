@@ -0,0 +1,77 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.hateoas.Link;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+
+/**
+ * Compares building the two links of a list row with {@code WebMvcLinkBuilder} and with {@link LinkFactory}.
+ * Each invocation builds the links of one page of rows within a single request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LinkFactoryBenchmark {
+
+    private static final int ROWS = 100;
+
+    private LinkFactory links;
+
+    @Setup
+    public void setUp() {
+        links = new LinkFactory();
+    }
+
+    @Setup(Level.Invocation)
+    public void bindRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/appointments");
+        request.setServerName("clinic.example");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @TearDown(Level.Invocation)
+    public void unbindRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Benchmark
+    public void webMvcLinkBuilder(Blackhole blackhole) {
+        for (int id = 1; id <= ROWS; id++) {
+            Link self = linkTo(methodOn(AppointmentController.class).one(id, null)).withSelfRel();
+            Link collection = linkTo(methodOn(AppointmentController.class)
+                    .all(null, null, null, null, null, null, null)).withRel("appointments").expand();
+            blackhole.consume(self);
+            blackhole.consume(collection);
+        }
+    }
+
+    @Benchmark
+    public void linkFactory(Blackhole blackhole) {
+        for (int id = 1; id <= ROWS; id++) {
+            blackhole.consume(links.appointment(id));
+            blackhole.consume(links.appointments());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManagerFactory;
+import lt.viko.eif.d.svyrydenko.spring.rest.BenchmarkData;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.DoctorResponse;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Changes the phone number of a doctor, as a mobile client would, either by sending the whole doctor with
+ * {@link DoctorController#replaceDoctor} or only the phone number with {@link DoctorController#patchDoctor}.
+ * The body is read from its bytes as Spring MVC would, so the time includes parsing it.
+ * Besides the time, the bytes sent per change and the bytes of the UPDATE statements written per change are printed
+ * at the end of each trial, together with the size of the full-row UPDATE of the doctor table for comparison.
+ * The statements are seen through a {@link StatementInspector}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PatchDoctorBenchmark {
+
+    private static final int ROWS = 1000;
+
+    @Param({"PUT", "PATCH"})
+    public String method;
+
+    private ConfigurableApplicationContext context;
+    private DoctorController controller;
+    private ObjectMapper objectMapper;
+    private List<Doctor> doctors;
+    private long changes;
+    private long requestBytes;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkData.start("patch-" + method.toLowerCase(),
+                "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+                        + UpdateStatements.class.getName());
+        controller = context.getBean(DoctorController.class);
+        objectMapper = context.getBean(ObjectMapper.class);
+        doctors = BenchmarkData.save(context, ROWS).stream().map(Appointment::getDoctor).toList();
+    }
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        changes = 0;
+        requestBytes = 0;
+        UpdateStatements.BYTES.set(0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        AbstractEntityPersister persister = (AbstractEntityPersister) context.getBean(EntityManagerFactory.class)
+                .unwrap(SessionFactoryImplementor.class)
+                .getMappingMetamodel()
+                .getEntityDescriptor(Doctor.class);
+        System.out.printf("%n%s: %.1f request bytes and %.1f UPDATE bytes per change, full-row UPDATE %d bytes%n",
+                method, (double) requestBytes / changes, (double) UpdateStatements.BYTES.get() / changes,
+                persister.getSQLUpdateStrings()[0].length());
+        context.close();
+    }
+
+    @Benchmark
+    public DoctorResponse changePhoneNumber() throws IOException {
+        int i = next++;
+        Doctor doctor = doctors.get(i % ROWS);
+        String phoneNumber = "+3706" + (1000000 + i % 9000000);
+        byte[] body;
+        DoctorResponse saved;
+        ServletWebRequest request = new ServletWebRequest(
+                new MockHttpServletRequest(method, "/doctors/" + doctor.getId()), new MockHttpServletResponse());
+        if (method.equals("PUT")) {
+            Doctor changed = new Doctor(doctor.getFirstName(), doctor.getSurname(), phoneNumber, doctor.getSpecialty());
+            body = objectMapper.writeValueAsBytes(changed);
+            saved = controller.replaceDoctor(objectMapper.readValue(body, Doctor.class), doctor.getId(), request);
+        } else {
+            body = objectMapper.writeValueAsBytes(objectMapper.createObjectNode().put("phoneNumber", phoneNumber));
+            saved = controller.patchDoctor(objectMapper.readValue(body, JsonNode.class), doctor.getId(), request);
+        }
+        changes++;
+        requestBytes += body.length;
+        return saved;
+    }
+
+    /**
+     * Adds up the length of the UPDATE statements of the doctor table. Hibernate creates it from its class name.
+     */
+    public static final class UpdateStatements implements StatementInspector {
+
+        static final AtomicLong BYTES = new AtomicLong();
+
+        @Override
+        public String inspect(String sql) {
+            if (sql.startsWith("update doctor ")) {
+                BYTES.addAndGet(sql.length());
+            }
+            return sql;
+        }
+    }
+}
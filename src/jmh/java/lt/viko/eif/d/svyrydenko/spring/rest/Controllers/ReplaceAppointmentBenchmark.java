@@ -0,0 +1,68 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.BenchmarkData;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the read-modify-write path of {@link AppointmentController#replaceAppointment}:
+ * loading the appointment, checking the doctor's schedule and writing it, referring to its patient and doctor by id.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReplaceAppointmentBenchmark {
+
+    private static final int ROWS = 1000;
+
+    private ConfigurableApplicationContext context;
+    private AppointmentController controller;
+    private List<Appointment> appointments;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkData.start("replace");
+        controller = context.getBean(AppointmentController.class);
+        appointments = BenchmarkData.save(context, ROWS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public AppointmentResponse replaceAppointment() {
+        Appointment current = appointments.get(next++ % ROWS);
+        Appointment replacement = new Appointment(current.getType(), new Date(current.getDate().getTime() + 60_000),
+                current.getPatient(), current.getDoctor());
+        ServletWebRequest request = new ServletWebRequest(
+                new MockHttpServletRequest("PUT", "/appointments/" + current.getId()), new MockHttpServletResponse());
+        AppointmentResponse saved = controller.replaceAppointment(replacement, current.getId(), request);
+        current.setDate(saved.date());
+        return saved;
+    }
+}
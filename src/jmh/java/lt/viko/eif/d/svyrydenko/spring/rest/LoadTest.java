@@ -0,0 +1,162 @@
+package lt.viko.eif.d.svyrydenko.spring.rest;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.CommandLinePropertySource;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.MutablePropertySources;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Starts the application on a random port and loads the list endpoint of each controller with a fixed number
+ * of concurrent clients, printing the throughput and the latency percentiles of every endpoint.
+ * Request coalescing and the response cache are disabled, as they would serve most requests without a query.
+ * Program arguments are passed on to the application, so the two request execution modes are compared by
+ * running it once as is and once with {@code --app.virtual-threads.enabled=true} on a Java 21 build:
+ * <pre>
+ * mvn -Pbenchmark,java21 test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test \
+ *     -Dexec.args="-Dclients=400 -classpath %classpath lt.viko.eif.d.svyrydenko.spring.rest.LoadTest \
+ *     --app.virtual-threads.enabled=true"
+ * </pre>
+ * The system properties {@code clients}, {@code seconds} and {@code rows} set the number of concurrent clients,
+ * the measured seconds per endpoint and the number of seeded appointments.
+ */
+public final class LoadTest {
+
+    private static final List<String> PATHS = List.of("/appointments", "/doctors", "/patients");
+    private static final Duration WARMUP = Duration.ofSeconds(5);
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int clients = Integer.getInteger("clients", 400);
+        Duration duration = Duration.ofSeconds(Long.getLong("seconds", 20));
+        int rows = Integer.getInteger("rows", 1000);
+
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(SpringRestApplication.class)
+                .properties("spring.datasource.url=jdbc:h2:mem:load;DB_CLOSE_DELAY=-1",
+                        "spring.main.banner-mode=off",
+                        "logging.level.root=WARN")
+                .initializers(LoadTest::overrideConfiguration)
+                .run(args)) {
+            BenchmarkData.save(context, rows);
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            boolean virtual = context.getEnvironment().getProperty("app.virtual-threads.enabled", Boolean.class, false);
+
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(5))
+                    .build();
+            ExecutorService executor = Executors.newFixedThreadPool(clients);
+            try {
+                System.out.printf("%s threads, %d clients, %d s per endpoint%n",
+                        virtual ? "Virtual" : "Platform", clients, duration.toSeconds());
+                System.out.printf("%-14s %10s %8s %10s %10s %10s%n", "endpoint", "req/s", "errors", "p50 ms", "p99 ms", "max ms");
+                for (String path : PATHS) {
+                    URI uri = URI.create("http://localhost:" + port + path);
+                    run(executor, client, uri, clients, WARMUP);
+                    Result result = run(executor, client, uri, clients, duration);
+                    System.out.printf("%-14s %10.1f %8d %10.2f %10.2f %10.2f%n", path,
+                            result.latencies.length / (double) duration.toSeconds(), result.errors,
+                            millis(result.percentile(0.50)), millis(result.percentile(0.99)),
+                            millis(result.percentile(1.0)));
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Sends requests to the given URI from every client, back to back, until the duration is over.
+     */
+    private static Result run(ExecutorService executor, HttpClient client, URI uri, int clients, Duration duration)
+            throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(30)).GET().build();
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Future<Result>> futures = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            futures.add(executor.submit(() -> {
+                long[] latencies = new long[1024];
+                int count = 0;
+                int errors = 0;
+                while (System.nanoTime() < deadline) {
+                    long start = System.nanoTime();
+                    int status;
+                    try {
+                        status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                    } catch (Exception e) {
+                        status = -1;
+                    }
+                    if (status != 200) {
+                        errors++;
+                        continue;
+                    }
+                    if (count == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    }
+                    latencies[count++] = System.nanoTime() - start;
+                }
+                return new Result(Arrays.copyOf(latencies, count), errors);
+            }));
+        }
+        List<long[]> latencies = new ArrayList<>(clients);
+        int errors = 0;
+        for (Future<Result> future : futures) {
+            Result result = future.get();
+            latencies.add(result.latencies);
+            errors += result.errors;
+        }
+        long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        return new Result(all, errors);
+    }
+
+    /**
+     * Overrides the configuration files of the application, though not the program arguments: it listens on a random
+     * port, and request coalescing and the response cache are disabled, so every request reaches the database.
+     */
+    private static void overrideConfiguration(ConfigurableApplicationContext context) {
+        MutablePropertySources sources = context.getEnvironment().getPropertySources();
+        MapPropertySource overrides = new MapPropertySource("loadTest", Map.of(
+                "server.port", "0",
+                "app.coalescing.enabled", "false",
+                "app.response-cache.enabled", "false"));
+        if (sources.contains(CommandLinePropertySource.COMMAND_LINE_PROPERTY_SOURCE_NAME)) {
+            sources.addAfter(CommandLinePropertySource.COMMAND_LINE_PROPERTY_SOURCE_NAME, overrides);
+        } else {
+            sources.addFirst(overrides);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * The latencies of the successful requests, sorted once merged, and the number of failed requests.
+     */
+    private record Result(long[] latencies, int errors) {
+
+        long percentile(double fraction) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(fraction * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(index, latencies.length - 1))];
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Repository;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.BenchmarkData;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading the appointment table with {@code findAll()} and with keyset pages of 100 rows,
+ * against an H2 database seeded with the given number of appointments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class RepositoryReadBenchmark {
+
+    private static final Pageable PAGE = PageRequest.of(0, 100);
+
+    @Param({"1000", "10000"})
+    public int rows;
+
+    private ConfigurableApplicationContext context;
+    private AppointmentRepository repository;
+
+    @Setup
+    public void setUp() {
+        context = BenchmarkData.start("reads" + rows);
+        repository = context.getBean(AppointmentRepository.class);
+        BenchmarkData.save(context, rows);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Appointment> findAll() {
+        return repository.findAll();
+    }
+
+    @Benchmark
+    public List<Appointment> firstPage() {
+        return repository.findByIdGreaterThanOrderByIdAsc(0, PAGE);
+    }
+
+    @Benchmark
+    public int allPages() {
+        int read = 0;
+        int cursor = 0;
+        List<Appointment> page;
+        do {
+            page = repository.findByIdGreaterThanOrderByIdAsc(cursor, PAGE);
+            if (!page.isEmpty()) {
+                cursor = page.get(page.size() - 1).getId();
+                read += page.size();
+            }
+        } while (page.size() == PAGE.getPageSize());
+        return read;
+    }
+}
@@ -0,0 +1,169 @@
+package lt.viko.eif.d.svyrydenko.spring.rest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Starts the packaged application in a new JVM a number of times in each startup mode and prints how long it took
+ * until the first request was answered and how much memory the process had resident at that moment.
+ * The modes are the executable jar, the plain jar of the fast-startup build, the same with the Spring AOT
+ * initialization and the same with the CDS archive as well. The jars are built first with the fast-startup profile:
+ * <pre>
+ * mvn -Pfast-startup clean package
+ * mvn -Pbenchmark test-compile exec:exec -Dexec.executable=java -Dexec.classpathScope=test \
+ *     -Dexec.args="-Druns=10 -classpath %classpath lt.viko.eif.d.svyrydenko.spring.rest.StartupBenchmark"
+ * </pre>
+ * The system property {@code runs} sets the number of starts per mode. The resident memory is read from
+ * /proc, so it is only reported on Linux.
+ */
+public final class StartupBenchmark {
+
+    private static final Path BUILD = Path.of("target", "fast-startup");
+    private static final Path FAST_STARTUP = BUILD.resolve("app");
+    private static final String FIRST_REQUEST = "/doctors";
+    private static final Duration TIMEOUT = Duration.ofMinutes(1);
+
+    private StartupBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = Integer.getInteger("runs", 5);
+        String executableJar = jar(BUILD, ".jar").toAbsolutePath().toString();
+        String plainJar = jar(FAST_STARTUP, "-fast-startup.jar").getFileName().toString();
+        List<Mode> modes = List.of(
+                new Mode("executable jar", BUILD, List.of("-jar", executableJar)),
+                new Mode("plain jar", FAST_STARTUP, List.of("-jar", plainJar)),
+                new Mode("AOT", FAST_STARTUP, List.of("-Dspring.aot.enabled=true", "-jar", plainJar)),
+                new Mode("AOT + CDS", FAST_STARTUP, List.of("-XX:SharedArchiveFile=application.jsa",
+                        "-Dspring.aot.enabled=true", "-jar", plainJar)));
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(1))
+                .build();
+        System.out.printf("%d starts per mode, time until GET %s is answered%n", runs, FIRST_REQUEST);
+        System.out.printf("%-16s %10s %10s %10s %12s%n", "mode", "p50 ms", "min ms", "max ms", "p50 RSS MB");
+        for (Mode mode : modes) {
+            long[] times = new long[runs];
+            long[] rss = new long[runs];
+            for (int i = 0; i < runs; i++) {
+                Sample sample = start(mode, client);
+                times[i] = sample.nanos;
+                rss[i] = sample.rssKilobytes;
+            }
+            Arrays.sort(times);
+            Arrays.sort(rss);
+            System.out.printf("%-16s %10.1f %10.1f %10.1f %12s%n", mode.name, millis(times[runs / 2]),
+                    millis(times[0]), millis(times[runs - 1]),
+                    rss[runs / 2] < 0 ? "n/a" : String.format("%.1f", rss[runs / 2] / 1024.0));
+        }
+    }
+
+    /**
+     * Starts the application once, waits for its first answered request and stops it.
+     */
+    private static Sample start(Mode mode, HttpClient client) throws Exception {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(mode.arguments);
+        command.add("--server.port=" + port);
+        command.add("--spring.main.banner-mode=off");
+        command.add("--logging.level.root=WARN");
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + FIRST_REQUEST))
+                .timeout(Duration.ofSeconds(5))
+                .GET()
+                .build();
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command)
+                .directory(mode.directory.toFile())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        try {
+            while (true) {
+                if (!process.isAlive()) {
+                    throw new IllegalStateException(mode.name + " exited with " + process.exitValue());
+                }
+                if (System.nanoTime() - start > TIMEOUT.toNanos()) {
+                    throw new IllegalStateException(mode.name + " did not answer within " + TIMEOUT);
+                }
+                try {
+                    if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                        break;
+                    }
+                } catch (IOException e) {
+                    // not listening yet
+                }
+                Thread.sleep(5);
+            }
+            long elapsed = System.nanoTime() - start;
+            return new Sample(elapsed, rssKilobytes(process.pid()));
+        } finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+
+    /**
+     * Finds the jar with the given suffix in a directory.
+     */
+    private static Path jar(Path directory, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(suffix))
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalStateException(
+                            "No *" + suffix + " in " + directory + ", build it with mvn -Pfast-startup clean package"));
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Reads the resident memory of a process from /proc.
+     * @return The resident memory in kilobytes, or -1 if it cannot be read.
+     */
+    private static long rssKilobytes(long pid) {
+        try (Stream<String> lines = Files.lines(Path.of("/proc", Long.toString(pid), "status"))) {
+            return lines.filter(line -> line.startsWith("VmRSS:"))
+                    .map(line -> line.replaceAll("\\D", ""))
+                    .mapToLong(Long::parseLong)
+                    .findFirst()
+                    .orElse(-1);
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * A way of starting the application: the JVM arguments and the directory it is started from.
+     */
+    private record Mode(String name, Path directory, List<String> arguments) {
+    }
+
+    /**
+     * The time until the first request was answered and the resident memory at that moment.
+     */
+    private record Sample(long nanos, long rssKilobytes) {
+    }
+}
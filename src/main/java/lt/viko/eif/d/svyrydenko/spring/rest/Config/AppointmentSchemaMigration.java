@@ -0,0 +1,52 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Migrates a database written when an appointment had its own patient and doctor to appointments sharing them.
+ * The patient and doctor of an appointment used to be one-to-one associations, which gave the patient_id and
+ * doctor_id columns of the appointment table unique constraints. Hibernate updates the schema at startup but never
+ * drops a constraint, so this drops those two once the schema is up to date. The rows themselves are kept as they
+ * are: every existing appointment still refers to the same patient and doctor.
+ * On a database created since, there is nothing to drop and this does nothing.
+ */
+@Component
+public class AppointmentSchemaMigration implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(AppointmentSchemaMigration.class);
+
+    private static final String ONE_TO_ONE_CONSTRAINTS = "select tc.constraint_name "
+            + "from information_schema.table_constraints tc "
+            + "join information_schema.key_column_usage kcu on kcu.constraint_schema = tc.constraint_schema "
+            + "and kcu.constraint_name = tc.constraint_name "
+            + "where upper(tc.table_name) = 'APPOINTMENT' and tc.constraint_type = 'UNIQUE' "
+            + "and upper(kcu.column_name) in ('PATIENT_ID', 'DOCTOR_ID')";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Constructor for the AppointmentSchemaMigration.
+     * @param jdbcTemplate The template the constraints are looked up and dropped with.
+     */
+    public AppointmentSchemaMigration(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Drops the unique constraints on the patient and doctor of an appointment, if there are any.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        List<String> constraints = jdbcTemplate.queryForList(ONE_TO_ONE_CONSTRAINTS, String.class);
+        for (String constraint : constraints) {
+            jdbcTemplate.execute("alter table appointment drop constraint " + constraint);
+            log.info("Dropped the one-to-one constraint {} of the appointment table", constraint);
+        }
+    }
+}
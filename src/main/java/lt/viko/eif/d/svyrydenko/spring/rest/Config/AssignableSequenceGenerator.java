@@ -0,0 +1,48 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+
+import java.util.function.Supplier;
+
+/**
+ * Generates ids from a pooled sequence as {@code @SequenceGenerator} does, but lets an entity keep the id it already
+ * has while {@link #keepingIds} runs. When the application runs sharded, a patient or an appointment is given its id
+ * on the home shard and then written to its own shard with that id, and reference data and moved patients are copied
+ * to other shards with the ids they have.
+ * The generator is named by {@code @GenericGenerator}, with the {@code sequence_name} and {@code increment_size}
+ * parameters.
+ */
+public class AssignableSequenceGenerator extends SequenceStyleGenerator {
+
+    private static final ThreadLocal<Boolean> KEEPING = new ThreadLocal<>();
+
+    /**
+     * Does some work in which new entities keep the ids they have. An entity without an id is still given a new one.
+     * @param work The work, e.g. persisting or merging entities.
+     * @return The result of the work.
+     * @param <T> The type of the result.
+     */
+    public static <T> T keepingIds(Supplier<T> work) {
+        if (KEEPING.get() != null) {
+            return work.get();
+        }
+        KEEPING.set(Boolean.TRUE);
+        try {
+            return work.get();
+        } finally {
+            KEEPING.remove();
+        }
+    }
+
+    @Override
+    public Object generate(SharedSessionContractImplementor session, Object object) {
+        if (KEEPING.get() != null) {
+            Object id = session.getFactory().getPersistenceUnitUtil().getIdentifier(object);
+            if (id instanceof Number number && number.longValue() != 0) {
+                return id;
+            }
+        }
+        return super.generate(session, object);
+    }
+}
@@ -0,0 +1,185 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Configures the caches in front of the single-entity lookups of the repositories.
+ * The caches are bounded in size and age as given by {@code app.cache.spec} and record hit, miss and eviction
+ * counts. Puts and evictions made inside a transaction are only applied once the transaction commits,
+ * so a rolled back write never evicts.
+ * A read that missed a cache only puts what it read if the entry has not been evicted since the miss, so a read
+ * that loaded a row before a concurrent write committed does not put the outdated row back after the write evicted it.
+ * The caches are not strictly consistent though: a read may still be served the entry a committing write is about
+ * to evict. Nothing read from the read replica is put into a cache, as it may already be outdated.
+ */
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    /**
+     * The cache of patients by id.
+     */
+    public static final String PATIENTS = "patients";
+
+    /**
+     * The cache of doctors by id.
+     */
+    public static final String DOCTORS = "doctors";
+
+    /**
+     * The cache of appointments by id, including their patient and doctor.
+     */
+    public static final String APPOINTMENTS = "appointments";
+
+    /**
+     * Creates the transaction-aware Caffeine cache manager.
+     * @param spec The Caffeine specification of every cache, e.g. {@code maximumSize=10000,expireAfterWrite=10m}.
+     * @return The cache manager.
+     */
+    @Bean
+    CacheManager cacheManager(@Value("${app.cache.spec:maximumSize=10000,expireAfterWrite=10m}") String spec) {
+        CaffeineCacheManager caffeine = new CaffeineCacheManager() {
+            @Override
+            protected Cache adaptCaffeineCache(String name, com.github.benmanes.caffeine.cache.Cache<Object, Object> cache) {
+                return new PrimaryReadCache(name, cache, isAllowNullValues());
+            }
+        };
+        caffeine.setCacheSpecification(spec + ",recordStats");
+        caffeine.setAllowNullValues(false);
+        caffeine.setCacheNames(List.of(PATIENTS, DOCTORS, APPOINTMENTS));
+        return new TransactionAwareCacheManagerProxy(caffeine);
+    }
+
+    /**
+     * A Caffeine cache ignoring the puts made within a transaction routed to the read replica, and the puts of entries
+     * evicted since the read that missed them.
+     * The puts of a transaction are only made once it commits, which is still before its route is cleared.
+     * Every eviction is stamped and the stamp is kept for {@link #FENCE_LIFETIME}; a put is only made if the entry
+     * has not been evicted since the thread making it last missed the entry, and if that miss is recent enough for
+     * an eviction after it to still be known.
+     */
+    private static final class PrimaryReadCache extends CaffeineCache {
+
+        /**
+         * How long an eviction is remembered, and so the longest a read may take and still put what it read.
+         */
+        private static final Duration FENCE_LIFETIME = Duration.ofMinutes(1);
+
+        /**
+         * The most misses remembered per thread; older ones are forgotten, which only costs a put.
+         */
+        private static final int MAX_MISSES = 1024;
+
+        private final AtomicLong clock = new AtomicLong();
+        private final com.github.benmanes.caffeine.cache.Cache<Object, Long> evictions =
+                com.github.benmanes.caffeine.cache.Caffeine.newBuilder().expireAfterWrite(FENCE_LIFETIME).build();
+        private final ThreadLocal<Map<Object, Miss>> misses = ThreadLocal.withInitial(HashMap::new);
+        private volatile long cleared;
+
+        PrimaryReadCache(String name, com.github.benmanes.caffeine.cache.Cache<Object, Object> cache,
+                         boolean allowNullValues) {
+            super(name, cache, allowNullValues);
+        }
+
+        @Override
+        protected Object lookup(Object key) {
+            Object value = super.lookup(key);
+            if (value == null) {
+                Map<Object, Miss> missed = misses.get();
+                if (missed.size() >= MAX_MISSES) {
+                    missed.clear();
+                }
+                missed.put(key, new Miss(clock.get(), System.nanoTime()));
+            }
+            return value;
+        }
+
+        @Override
+        public void put(Object key, Object value) {
+            Miss miss = misses.get().remove(key);
+            if (ReplicaRoutingDataSource.isReadingReplica() || miss == null) {
+                return;
+            }
+            getNativeCache().asMap().compute(key, (k, present) -> isFenced(k, miss) ? present : toStoreValue(value));
+        }
+
+        @Override
+        public ValueWrapper putIfAbsent(Object key, Object value) {
+            Miss miss = misses.get().remove(key);
+            if (ReplicaRoutingDataSource.isReadingReplica() || miss == null) {
+                return get(key);
+            }
+            Object[] present = new Object[1];
+            getNativeCache().asMap().compute(key, (k, current) -> {
+                present[0] = current;
+                return current != null || isFenced(k, miss) ? current : toStoreValue(value);
+            });
+            return toValueWrapper(present[0]);
+        }
+
+        @Override
+        public void evict(Object key) {
+            getNativeCache().asMap().compute(key, (k, present) -> {
+                evictions.put(k, clock.incrementAndGet());
+                return null;
+            });
+        }
+
+        @Override
+        public boolean evictIfPresent(Object key) {
+            boolean[] present = new boolean[1];
+            getNativeCache().asMap().compute(key, (k, value) -> {
+                evictions.put(k, clock.incrementAndGet());
+                present[0] = value != null;
+                return null;
+            });
+            return present[0];
+        }
+
+        @Override
+        public void clear() {
+            cleared = clock.incrementAndGet();
+            super.clear();
+        }
+
+        @Override
+        public boolean invalidate() {
+            cleared = clock.incrementAndGet();
+            return super.invalidate();
+        }
+
+        /**
+         * Tells whether the entry may have been evicted since it was missed.
+         * @param key The key of the entry.
+         * @param miss The last miss of the entry by the thread putting it.
+         * @return Whether the entry must not be put.
+         */
+        private boolean isFenced(Object key, Miss miss) {
+            Long evicted = evictions.getIfPresent(key);
+            return cleared > miss.stamp() || evicted != null && evicted > miss.stamp()
+                    || System.nanoTime() - miss.nanos() > FENCE_LIFETIME.toNanos();
+        }
+
+        /**
+         * A miss of an entry.
+         * @param stamp The stamp of the last eviction before the miss.
+         * @param nanos The time of the miss, as given by {@link System#nanoTime()}.
+         */
+        private record Miss(long stamp, long nanos) {
+        }
+    }
+}
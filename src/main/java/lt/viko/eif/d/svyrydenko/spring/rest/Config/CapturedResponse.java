@@ -0,0 +1,63 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A copy of a complete response, written as is to every request that shares it.
+ * @param status the status code
+ * @param contentType the content type, or null if there is none
+ * @param headers the headers other than the content type and length
+ * @param body the bytes of the body
+ */
+record CapturedResponse(int status, String contentType, MultiValueMap<String, String> headers, byte[] body) {
+
+    /**
+     * Copies a response whose body has been buffered.
+     * @param response the response, after the request has been handled
+     * @return the copy
+     */
+    static CapturedResponse of(ContentCachingResponseWrapper response) {
+        MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
+        for (String name : response.getHeaderNames()) {
+            if (!HttpHeaders.CONTENT_TYPE.equalsIgnoreCase(name)
+                    && !HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name)) {
+                headers.put(name, List.copyOf(response.getHeaders(name)));
+            }
+        }
+        return new CapturedResponse(response.getStatus(), response.getContentType(), headers,
+                response.getContentAsByteArray());
+    }
+
+    /**
+     * Writes the status, the headers and the body.
+     * @param response the response to write to
+     */
+    void writeTo(HttpServletResponse response) throws IOException {
+        writeHeadersTo(response);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    /**
+     * Writes the status and the headers, leaving the body to the caller.
+     * Headers already set on the response are replaced, so a response can be written over itself.
+     * @param response the response to write to
+     */
+    void writeHeadersTo(HttpServletResponse response) {
+        response.setStatus(status);
+        if (contentType != null) {
+            response.setContentType(contentType);
+        }
+        headers.forEach((name, values) -> {
+            response.setHeader(name, values.get(0));
+            values.subList(1, values.size()).forEach(value -> response.addHeader(name, value));
+        });
+    }
+}
@@ -0,0 +1,143 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the number of requests served at once to the size of the connection pool.
+ * With open-in-view every request holds a JDBC connection from its first query until it completes,
+ * so there is no point in running more requests than there are connections. On virtual threads nothing else
+ * bounds the number of requests in flight, and without this filter they would all queue inside the pool
+ * and fail with its connection timeout instead.
+ * A request that cannot get a permit within the configured timeout is answered with 503 Service Unavailable.
+ * Asynchronous requests, such as the NDJSON streams, keep their permit until the response is complete.
+ * Event stream subscriptions and long polls for changes are not limited: they stay open for a long time without
+ * touching the database while they wait. They are recognized by their path, {@code app.virtual-threads.unlimited-paths},
+ * whatever the request accepts.
+ * Neither are the actuator endpoints, so metrics can still be scraped while the pool is saturated.
+ */
+@Component
+@ConditionalOnProperty(name = "app.virtual-threads.enabled", havingValue = "true")
+public class ConnectionPermitFilter extends OncePerRequestFilter {
+
+    private final Semaphore permits;
+    private final long timeout;
+    private final String actuatorPath;
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+    private final String[] unlimitedPaths;
+
+    /**
+     * Constructor for the ConnectionPermitFilter.
+     * @param poolSize The maximum size of the connection pool, which is the number of permits.
+     * @param timeout How long a request waits for a permit before it is rejected.
+     * @param actuatorPath The base path of the actuator endpoints.
+     * @param unlimitedPaths The path patterns of the event streams and long polls, which are not limited.
+     */
+    public ConnectionPermitFilter(@Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+                                  @Value("${app.virtual-threads.permit-timeout:2s}") Duration timeout,
+                                  @Value("${management.endpoints.web.base-path:/actuator}") String actuatorPath,
+                                  @Value("${app.virtual-threads.unlimited-paths:/appointments/stream,/changes}")
+                                  String[] unlimitedPaths) {
+        this.permits = new Semaphore(poolSize, true);
+        this.timeout = timeout.toNanos();
+        this.actuatorPath = actuatorPath;
+        this.unlimitedPaths = unlimitedPaths;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String path = UrlPathHelper.defaultInstance.getPathWithinApplication(request);
+        if (path.startsWith(actuatorPath)) {
+            return true;
+        }
+        for (String pattern : unlimitedPaths) {
+            if (pathMatcher.match(pattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        if (!acquire()) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Too many concurrent requests");
+            return;
+        }
+        boolean releaseOnComplete = false;
+        try {
+            chain.doFilter(request, response);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new ReleasingListener());
+                releaseOnComplete = true;
+            }
+        } finally {
+            if (!releaseOnComplete) {
+                permits.release();
+            }
+        }
+    }
+
+    private boolean acquire() {
+        try {
+            return permits.tryAcquire(timeout, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Releases the permit of an asynchronous request once, however the request ends.
+     */
+    private class ReleasingListener implements AsyncListener {
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+    }
+}
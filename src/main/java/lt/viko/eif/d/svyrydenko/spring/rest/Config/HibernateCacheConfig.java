@@ -0,0 +1,79 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Patient;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cache.spi.RegionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+/**
+ * Configures the Hibernate second-level cache, a local Caffeine JCache holding the doctors and patients
+ * and the results of the cacheable queries.
+ * Doctors are read with nearly every appointment but rarely change, so once they are cached an appointment
+ * is read without touching the doctor table. Every region is bounded in size and age as given by
+ * {@code app.hibernate-cache.maximum-size} and {@code app.hibernate-cache.expire-after-write}, except the
+ * update timestamps, which must outlive every cached query result to keep the query cache consistent.
+ */
+@Configuration
+public class HibernateCacheConfig {
+
+    /**
+     * The region holding the results of the cacheable queries.
+     */
+    public static final String QUERY_RESULTS = RegionFactory.DEFAULT_QUERY_RESULTS_REGION_UNQUALIFIED_NAME;
+
+    /**
+     * The region holding the time every table was last written, against which cached query results are checked.
+     */
+    public static final String UPDATE_TIMESTAMPS = RegionFactory.DEFAULT_UPDATE_TIMESTAMPS_REGION_UNQUALIFIED_NAME;
+
+    /**
+     * Creates the JCache cache manager with a region for each cached entity and for the query results.
+     * Every application context gets a cache manager of its own, so contexts sharing a JVM never share entries.
+     * @param maximumSize The maximum number of entries in each region.
+     * @param expireAfterWrite How long an entry stays in its region after it was written.
+     * @return The cache manager.
+     */
+    @Bean(destroyMethod = "close")
+    CacheManager hibernateCacheManager(@Value("${app.hibernate-cache.maximum-size:10000}") long maximumSize,
+                                       @Value("${app.hibernate-cache.expire-after-write:1h}") Duration expireAfterWrite) {
+        CachingProvider provider = Caching.getCachingProvider(CaffeineCachingProvider.class.getName());
+        CacheManager cacheManager = provider.getCacheManager(URI.create("hibernate:" + UUID.randomUUID()),
+                getClass().getClassLoader());
+        for (String region : List.of(Doctor.class.getName(), Patient.class.getName(), QUERY_RESULTS)) {
+            CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+            configuration.setMaximumSize(OptionalLong.of(maximumSize));
+            configuration.setExpireAfterWrite(OptionalLong.of(expireAfterWrite.toNanos()));
+            configuration.setStatisticsEnabled(true);
+            cacheManager.createCache(region, configuration);
+        }
+        CaffeineConfiguration<Object, Object> timestamps = new CaffeineConfiguration<>();
+        timestamps.setStatisticsEnabled(true);
+        cacheManager.createCache(UPDATE_TIMESTAMPS, timestamps);
+        return cacheManager;
+    }
+
+    /**
+     * Hands the cache manager to Hibernate, so the regions are taken from it instead of being created with defaults.
+     * @param hibernateCacheManager The cache manager holding the regions.
+     * @return The customizer of the Hibernate properties.
+     */
+    @Bean
+    HibernatePropertiesCustomizer hibernateCacheProperties(CacheManager hibernateCacheManager) {
+        return properties -> properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+    }
+}
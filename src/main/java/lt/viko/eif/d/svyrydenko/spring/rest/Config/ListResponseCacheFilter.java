@@ -0,0 +1,196 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.ChangeEvent;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.EntityChanged;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.UrlPathHelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the latest serialized pages of the doctor and patient lists, so they are neither read nor serialized again
+ * until a doctor or patient is written.
+ * Each page is kept as the bytes of its body together with their gzip compression, made once when the page is
+ * stored, and written to every later request as is. Clients accepting gzip get the compressed bytes.
+ * Every page is stamped with the number of committed writes to its entity type at the time it was read; a page whose
+ * stamp is behind is read again, so a page is never served once a write to its type was committed.
+ * The stamp is also the weak entity tag of the page, so clients can revalidate with If-None-Match.
+ * A page read from the read replica may lack writes committed before its stamp, so it is not stored.
+ * Pages are keyed by their URL with the query and the representation they accept, like the
+ * {@link RequestCoalescingFilter}, which runs after this filter and so only sees the requests missing the cache.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 2)
+@ConditionalOnProperty(name = "app.response-cache.enabled", havingValue = "true", matchIfMissing = true)
+public class ListResponseCacheFilter extends OncePerRequestFilter {
+
+    private static final Map<String, ChangeEvent.EntityType> PATHS = Map.of(
+            "/doctors", ChangeEvent.EntityType.DOCTOR,
+            "/patients", ChangeEvent.EntityType.PATIENT);
+
+    private final Map<ChangeEvent.EntityType, AtomicLong> committedWrites = new EnumMap<>(ChangeEvent.EntityType.class);
+    private final Cache<String, CachedPage> pages;
+    private final int compressionThreshold;
+
+    /**
+     * Distinguishes the entity tags of this run of the application from those of earlier runs,
+     * as the write counts start from zero again.
+     */
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    /**
+     * Constructor for the ListResponseCacheFilter.
+     * @param maximumSize The maximum number of pages kept.
+     * @param compressionThreshold The smallest body that is compressed.
+     */
+    public ListResponseCacheFilter(@Value("${app.response-cache.maximum-size:256}") long maximumSize,
+                                   @Value("${server.compression.min-response-size:2KB}") DataSize compressionThreshold) {
+        for (ChangeEvent.EntityType type : PATHS.values()) {
+            committedWrites.put(type, new AtomicLong());
+        }
+        this.pages = Caffeine.newBuilder().maximumSize(maximumSize).build();
+        this.compressionThreshold = (int) compressionThreshold.toBytes();
+    }
+
+    /**
+     * Counts a committed write to a doctor or patient, so the pages read before it are no longer served.
+     * @param changed The committed change.
+     */
+    @TransactionalEventListener
+    void onChange(EntityChanged changed) {
+        AtomicLong writes = committedWrites.get(changed.change().getEntityType());
+        if (writes != null) {
+            writes.incrementAndGet();
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!HttpMethod.GET.matches(request.getMethod())) {
+            return true;
+        }
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        if (accept != null && (accept.contains("ndjson") || accept.contains("event-stream"))) {
+            return true;
+        }
+        return !PATHS.containsKey(UrlPathHelper.defaultInstance.getPathWithinApplication(request));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        ChangeEvent.EntityType type = PATHS.get(UrlPathHelper.defaultInstance.getPathWithinApplication(request));
+        long stamp = committedWrites.get(type).get();
+        String key = key(request);
+        CachedPage page = pages.getIfPresent(key);
+        if (page == null || page.stamp() < stamp) {
+            ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+            chain.doFilter(request, wrapper);
+            if (request.isAsyncStarted() || wrapper.getStatus() != HttpStatus.OK.value()
+                    || request.getAttribute(ReadConsistency.READ_FROM_REPLICA_ATTRIBUTE) != null) {
+                wrapper.copyBodyToResponse();
+                return;
+            }
+            page = store(key, stamp, CapturedResponse.of(wrapper));
+        }
+        write(page, request, response);
+    }
+
+    private CachedPage store(String key, long stamp, CapturedResponse captured) throws IOException {
+        byte[] gzipped = null;
+        if (captured.body().length >= compressionThreshold) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(captured.body().length / 4);
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(captured.body());
+            }
+            gzipped = compressed.toByteArray();
+        }
+        CachedPage page = new CachedPage(stamp, "W/\"" + epoch + "." + stamp + "\"", captured, gzipped);
+        return pages.asMap().merge(key, page, (stored, read) -> stored.stamp() > read.stamp() ? stored : read);
+    }
+
+    private static void write(CachedPage page, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        page.response().writeHeadersTo(response);
+        response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT + ", " + HttpHeaders.ACCEPT_ENCODING);
+        if (new ServletWebRequest(request, response).checkNotModified(page.eTag())) {
+            return;
+        }
+        byte[] body = page.response().body();
+        if (page.gzipped() != null && acceptsGzip(request)) {
+            response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            body = page.gzipped();
+        }
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    private static String key(HttpServletRequest request) {
+        StringBuilder key = new StringBuilder().append(request.getRequestURL());
+        if (request.getQueryString() != null) {
+            key.append('?').append(request.getQueryString());
+        }
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        if (accept != null) {
+            key.append('\n').append(accept);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Tells whether the Accept-Encoding header of a request allows gzip, i.e. names gzip or * without q=0.
+     */
+    private static boolean acceptsGzip(HttpServletRequest request) {
+        String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (!name.equalsIgnoreCase("gzip") && !name.equals("*")) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                if (parts[i].replace(" ", "").matches("q=0(\\.0*)?")) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * A stored page of a list.
+     * @param stamp the number of committed writes to the listed type when the page was read
+     * @param eTag the weak entity tag of the page
+     * @param response the response as written by the controller, with the uncompressed body
+     * @param gzipped the body compressed with gzip, or null if it is too small to be worth compressing
+     */
+    private record CachedPage(long stamp, String eTag, CapturedResponse response, byte[] gzipped) {
+    }
+}
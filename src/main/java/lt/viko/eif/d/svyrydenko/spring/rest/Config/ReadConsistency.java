@@ -0,0 +1,79 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import java.time.Duration;
+
+/**
+ * How fresh the data a read request is answered with must be, as given by its {@code Read-Consistency} header.
+ * The header holds comma separated directives:
+ * <ul>
+ *     <li>{@code primary}: the request is answered from the primary database.</li>
+ *     <li>{@code max-staleness=<seconds>}: the read replica may be used if it is at most this far behind.</li>
+ *     <li>{@code min-seq=<n>}: the read replica may only be used once it has every change up to this
+ *     change log sequence number. Every write returns the sequence number of its change in the
+ *     {@code Change-Seq} header, so a client reads its own writes by sending it back.</li>
+ * </ul>
+ * A request without the header may read from a replica at most {@code app.read-replica.max-staleness} behind.
+ * @param primary whether the request must be answered from the primary database
+ * @param maxStaleness how far behind the primary the replica may be
+ * @param minSeq the change log sequence number up to which the replica must have every change
+ */
+public record ReadConsistency(boolean primary, Duration maxStaleness, long minSeq) {
+
+    /**
+     * The request header a client gives the consistency of its read in.
+     */
+    public static final String HEADER = "Read-Consistency";
+
+    /**
+     * The response header a write returns the change log sequence number of its change in.
+     */
+    public static final String CHANGE_SEQ_HEADER = "Change-Seq";
+
+    /**
+     * The label of the read-only transactions that may be routed to the read replica.
+     */
+    public static final String REPLICA_LABEL = "replica";
+
+    /**
+     * The request attribute holding the consistency of the current request.
+     */
+    static final String ATTRIBUTE = ReadConsistency.class.getName();
+
+    /**
+     * The request attribute set once the current request has read from the replica.
+     */
+    static final String READ_FROM_REPLICA_ATTRIBUTE = ReadConsistency.class.getName() + ".READ_FROM_REPLICA";
+
+    /**
+     * Parses the value of a {@code Read-Consistency} header.
+     * @param header The value of the header, or null if the request has none.
+     * @param defaultMaxStaleness How far behind the replica may be if the header does not say.
+     * @return The consistency.
+     * @throws IllegalArgumentException if the header is malformed.
+     */
+    static ReadConsistency parse(String header, Duration defaultMaxStaleness) {
+        boolean primary = false;
+        Duration maxStaleness = defaultMaxStaleness;
+        long minSeq = 0;
+        if (header != null) {
+            for (String directive : header.split(",")) {
+                String[] parts = directive.trim().split("=", 2);
+                String name = parts[0].trim().toLowerCase();
+                try {
+                    if (name.equals("primary") && parts.length == 1) {
+                        primary = true;
+                    } else if (name.equals("max-staleness") && parts.length == 2) {
+                        maxStaleness = Duration.ofSeconds(Long.parseUnsignedLong(parts[1].trim()));
+                    } else if (name.equals("min-seq") && parts.length == 2) {
+                        minSeq = Long.parseUnsignedLong(parts[1].trim());
+                    } else {
+                        throw new IllegalArgumentException("Unknown " + HEADER + " directive: " + directive.trim());
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Malformed " + HEADER + " directive: " + directive.trim(), e);
+                }
+            }
+        }
+        return new ReadConsistency(primary, maxStaleness, minSeq);
+    }
+}
@@ -0,0 +1,78 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.EntityChanged;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Reads the {@link ReadConsistency} of every GET and HEAD request from its {@code Read-Consistency} header, so its
+ * transactions can be routed to the read replica, and answers a malformed header with 400 Bad Request.
+ * Other requests are never routed to the replica, so everything a write reads is current.
+ * Every change recorded while serving a request is returned in its {@code Change-Seq} header, for the client to
+ * read its own write with {@code min-seq}. Changes committed by the group committer are recorded on its thread
+ * and so not returned.
+ * The filter runs before the {@link ListResponseCacheFilter}.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 3)
+@ConditionalOnProperty(name = "app.read-replica.enabled", havingValue = "true")
+public class ReadConsistencyFilter extends OncePerRequestFilter {
+
+    private final Duration maxStaleness;
+
+    /**
+     * Constructor for the ReadConsistencyFilter.
+     * @param maxStaleness How far behind the replica may be for a request that does not say.
+     */
+    public ReadConsistencyFilter(@Value("${app.read-replica.max-staleness:5s}") Duration maxStaleness) {
+        this.maxStaleness = maxStaleness;
+    }
+
+    /**
+     * Returns the sequence number of a change in the response of the request that made it.
+     * @param changed The recorded change.
+     */
+    @EventListener
+    void onChange(EntityChanged changed) {
+        if (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes
+                && attributes.getResponse() != null) {
+            attributes.getResponse().setHeader(ReadConsistency.CHANGE_SEQ_HEADER,
+                    Long.toString(changed.change().getSeq()));
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !HttpMethod.GET.matches(request.getMethod()) && !HttpMethod.HEAD.matches(request.getMethod());
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        ReadConsistency consistency;
+        try {
+            consistency = ReadConsistency.parse(request.getHeader(ReadConsistency.HEADER), maxStaleness);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpStatus.BAD_REQUEST.value(), e.getMessage());
+            return;
+        }
+        request.setAttribute(ReadConsistency.ATTRIBUTE, consistency);
+        chain.doFilter(request, response);
+    }
+}
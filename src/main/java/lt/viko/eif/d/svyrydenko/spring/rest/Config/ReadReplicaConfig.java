@@ -0,0 +1,96 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.orm.jpa.JpaTransactionManager;
+
+import javax.sql.DataSource;
+
+/**
+ * Configures a read replica next to the primary database, enabled with {@code app.read-replica.enabled}.
+ * The primary is configured as usual under {@code spring.datasource}, the replica under
+ * {@code app.read-replica.datasource} with the Hikari properties, e.g. {@code jdbc-url} and
+ * {@code maximum-pool-size}. How the replica is fed, by replication or a copy job, is up to the database.
+ * The application uses a {@link ReplicaRoutingDataSource} over both pools. Only the read-only transactions of the
+ * controllers labelled {@link ReadConsistency#REPLICA_LABEL} are routed to the replica, and only within a GET or HEAD
+ * request whose {@link ReadConsistency} the replica satisfies; everything else is read from and written to the
+ * primary.
+ * Hibernate normally holds the connection of an entity manager until it is closed, which with open-in-view is the
+ * end of the request, so a request would stay on whichever database its first transaction used. With the replica
+ * enabled the connection is released at the end of every transaction instead.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.read-replica.enabled", havingValue = "true")
+public class ReadReplicaConfig {
+
+    /**
+     * Creates the pool of the primary database.
+     * @param properties The properties of the primary database, from {@code spring.datasource}.
+     * @return The pool.
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    /**
+     * Creates the pool of the read replica. Its connections are read-only.
+     * @return The pool.
+     */
+    @Bean
+    @ConfigurationProperties("app.read-replica.datasource")
+    HikariDataSource replicaDataSource() {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    /**
+     * Creates the data source the application uses, routing between the primary and the replica.
+     * @param primary The pool of the primary database.
+     * @param replica The pool of the read replica.
+     * @return The data source.
+     */
+    @Bean
+    @Primary
+    ReplicaRoutingDataSource dataSource(@Qualifier("primaryDataSource") DataSource primary,
+                                        @Qualifier("replicaDataSource") DataSource replica) {
+        return new ReplicaRoutingDataSource(primary, replica);
+    }
+
+    /**
+     * Creates the transaction manager choosing the database of every transaction.
+     * @param status The status the freshness of the replica is taken from.
+     * @param customizers The customizers of the transaction managers.
+     * @return The transaction manager.
+     */
+    @Bean
+    JpaTransactionManager transactionManager(ReplicaStatus status,
+                                             ObjectProvider<TransactionManagerCustomizers> customizers) {
+        JpaTransactionManager transactionManager = new ReplicaRoutingTransactionManager(status);
+        customizers.ifAvailable(transactionManagerCustomizers -> transactionManagerCustomizers.customize(transactionManager));
+        return transactionManager;
+    }
+
+    /**
+     * Makes Hibernate release the connection of an entity manager at the end of every transaction.
+     * @return The customizer.
+     */
+    @Bean
+    HibernatePropertiesCustomizer connectionPerTransaction() {
+        return properties -> properties.put(AvailableSettings.CONNECTION_HANDLING,
+                PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+    }
+}
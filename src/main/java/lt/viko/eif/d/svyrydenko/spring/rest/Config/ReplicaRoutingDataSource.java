@@ -0,0 +1,51 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Hands out connections to the read replica within the transactions routed to it, and to the primary database
+ * everywhere else. The route of a transaction is chosen when it begins, by the
+ * {@link ReplicaRoutingTransactionManager}, before it takes its connection.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final ThreadLocal<Boolean> REPLICA = new ThreadLocal<>();
+
+    /**
+     * Constructor for the ReplicaRoutingDataSource.
+     * @param primary The primary database.
+     * @param replica The read replica.
+     */
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica) {
+        setTargetDataSources(Map.of(false, primary, true, replica));
+        setDefaultTargetDataSource(primary);
+        afterPropertiesSet();
+    }
+
+    /**
+     * Tells whether the transaction of the current thread reads from the replica.
+     * @return Whether the current transaction is routed to the replica.
+     */
+    public static boolean isReadingReplica() {
+        return REPLICA.get() != null;
+    }
+
+    /**
+     * Routes the connections taken by the current thread to the replica or back to the primary.
+     */
+    static void route(boolean replica) {
+        if (replica) {
+            REPLICA.set(Boolean.TRUE);
+        } else {
+            REPLICA.remove();
+        }
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return isReadingReplica();
+    }
+}
@@ -0,0 +1,73 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import jakarta.persistence.EntityManager;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.interceptor.TransactionAttribute;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+
+/**
+ * Routes the read-only transactions labelled {@link ReadConsistency#REPLICA_LABEL} to the read replica when the
+ * request they are made in allows it and the replica is fresh enough for it. All other transactions, including
+ * those outside a request, go to the primary database.
+ * A transaction routed to the replica reads from the second-level cache but does not put into it, as what it reads
+ * may already be outdated and would otherwise be served to readers of the primary. The request is marked as having
+ * read from the replica, so what it returns is not cached either.
+ */
+public class ReplicaRoutingTransactionManager extends JpaTransactionManager {
+
+    private final ReplicaStatus status;
+
+    /**
+     * Constructor for the ReplicaRoutingTransactionManager.
+     * @param status The status the freshness of the replica is taken from.
+     */
+    public ReplicaRoutingTransactionManager(ReplicaStatus status) {
+        this.status = status;
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        RequestAttributes request = RequestContextHolder.getRequestAttributes();
+        boolean replica = definition.isReadOnly()
+                && definition instanceof TransactionAttribute attribute
+                && attribute.getLabels().contains(ReadConsistency.REPLICA_LABEL)
+                && request != null
+                && request.getAttribute(ReadConsistency.ATTRIBUTE, RequestAttributes.SCOPE_REQUEST)
+                        instanceof ReadConsistency consistency
+                && status.satisfies(consistency);
+        ReplicaRoutingDataSource.route(replica);
+        try {
+            super.doBegin(transaction, definition);
+        } catch (RuntimeException | Error e) {
+            ReplicaRoutingDataSource.route(false);
+            throw e;
+        }
+        if (replica) {
+            session().setCacheMode(CacheMode.GET);
+            request.setAttribute(ReadConsistency.READ_FROM_REPLICA_ATTRIBUTE, Boolean.TRUE,
+                    RequestAttributes.SCOPE_REQUEST);
+        }
+    }
+
+    @Override
+    protected void doCleanupAfterCompletion(Object transaction) {
+        if (ReplicaRoutingDataSource.isReadingReplica()) {
+            ReplicaRoutingDataSource.route(false);
+            session().setCacheMode(CacheMode.NORMAL);
+        }
+        super.doCleanupAfterCompletion(transaction);
+    }
+
+    private Session session() {
+        EntityManagerHolder holder = (EntityManagerHolder) TransactionSynchronizationManager
+                .getResource(obtainEntityManagerFactory());
+        EntityManager entityManager = holder.getEntityManager();
+        return entityManager.unwrap(Session.class);
+    }
+}
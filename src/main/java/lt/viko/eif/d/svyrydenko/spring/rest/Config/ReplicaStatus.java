@@ -0,0 +1,101 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.ChangeLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Keeps track of how far the read replica is behind the primary database.
+ * A heartbeat row on the primary is written at every check with the current time and the change log watermark,
+ * and read back from the replica at the next one. However the replica is fed, a replica holding a heartbeat holds
+ * every transaction committed before it, so it is at most as stale as the heartbeat it holds and has every change
+ * up to its watermark. A replica that cannot be read, or does not hold a heartbeat yet, is not used.
+ * The checks run every {@code app.read-replica.check-interval}, which bounds how fresh the replica can appear.
+ */
+@Component
+@ConditionalOnProperty(name = "app.read-replica.enabled", havingValue = "true")
+public class ReplicaStatus {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaStatus.class);
+
+    private final ChangeLog changeLog;
+    private final JdbcTemplate primary;
+    private final JdbcTemplate replica;
+    private final Clock clock = Clock.systemUTC();
+
+    /**
+     * The heartbeat last read from the replica, or null if the replica cannot be used.
+     */
+    private volatile Heartbeat applied;
+
+    /**
+     * Constructor for the ReplicaStatus.
+     * @param changeLog The change log whose watermark the heartbeats carry.
+     * @param primary The primary database the heartbeats are written to.
+     * @param replica The read replica the heartbeats are read from.
+     */
+    public ReplicaStatus(ChangeLog changeLog, @Qualifier("primaryDataSource") DataSource primary,
+                         @Qualifier("replicaDataSource") DataSource replica) {
+        this.changeLog = changeLog;
+        this.primary = new JdbcTemplate(primary);
+        this.replica = new JdbcTemplate(replica);
+        this.primary.execute("create table if not exists replica_heartbeat "
+                + "(id int primary key, watermark bigint not null, written_at timestamp(9) not null)");
+    }
+
+    /**
+     * Reads the heartbeat the replica has reached and writes the next one to the primary.
+     */
+    @Scheduled(fixedDelayString = "${app.read-replica.check-interval:PT1S}")
+    public synchronized void check() {
+        try {
+            List<Heartbeat> heartbeats = replica.query("select watermark, written_at from replica_heartbeat where id = 1",
+                    (row, i) -> new Heartbeat(row.getLong(1), row.getTimestamp(2).toInstant()));
+            applied = heartbeats.isEmpty() ? null : heartbeats.get(0);
+        } catch (DataAccessException e) {
+            if (applied != null) {
+                log.warn("The read replica cannot be read, reading from the primary until it can", e);
+            }
+            applied = null;
+        }
+        long watermark = changeLog.watermark();
+        Timestamp now = Timestamp.from(clock.instant());
+        if (primary.update("update replica_heartbeat set watermark = ?, written_at = ? where id = 1",
+                watermark, now) == 0) {
+            primary.update("insert into replica_heartbeat (id, watermark, written_at) values (1, ?, ?)",
+                    watermark, now);
+        }
+    }
+
+    /**
+     * Tells whether the replica is fresh enough for a read.
+     * @param consistency The consistency the read asks for.
+     * @return Whether the read may be answered from the replica.
+     */
+    public boolean satisfies(ReadConsistency consistency) {
+        Heartbeat heartbeat = applied;
+        return heartbeat != null && !consistency.primary()
+                && heartbeat.watermark() >= consistency.minSeq()
+                && !heartbeat.writtenAt().isBefore(clock.instant().minus(consistency.maxStaleness()));
+    }
+
+    /**
+     * A heartbeat written to the primary.
+     * @param watermark the change log watermark when it was written
+     * @param writtenAt when it was written
+     */
+    private record Heartbeat(long watermark, Instant writtenAt) {
+    }
+}
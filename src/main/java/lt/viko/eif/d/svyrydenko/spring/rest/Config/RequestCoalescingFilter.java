@@ -0,0 +1,150 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.EntityChanged;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+import org.springframework.web.util.UrlPathHelper;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent identical GET requests, so that they share a single computation of the response.
+ * The first request for a key runs through the controllers as usual and its response is captured; the requests
+ * for the same key that arrive while it is in flight wait for it and are answered with a copy of the same status,
+ * headers and bytes. Nothing is kept once the first request completes, so this is not a cache.
+ * Requests are keyed by their URL with the query, the representation they accept, their conditional headers and
+ * the consistency they read at, and by the number of writes committed so far. A request arriving after a write
+ * was committed therefore never joins a computation started before it.
+ * Only the paths in {@code app.coalescing.paths} are coalesced, and never the NDJSON or event streams.
+ * A response that is an error is not shared; the waiting requests then run through the controllers themselves.
+ * The filter runs before the {@link ConnectionPermitFilter}, so waiting requests do not hold a permit.
+ */
+@Component
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+@ConditionalOnProperty(name = "app.coalescing.enabled", havingValue = "true", matchIfMissing = true)
+public class RequestCoalescingFilter extends OncePerRequestFilter {
+
+    private static final List<String> KEY_HEADERS = List.of(HttpHeaders.ACCEPT, HttpHeaders.IF_NONE_MATCH,
+            HttpHeaders.IF_MODIFIED_SINCE, ReadConsistency.HEADER);
+
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+    private final String[] paths;
+    private final ConcurrentMap<String, CompletableFuture<CapturedResponse>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong committedWrites = new AtomicLong();
+
+    /**
+     * Constructor for the RequestCoalescingFilter.
+     * @param paths The path patterns of the requests that are coalesced.
+     */
+    public RequestCoalescingFilter(@Value("${app.coalescing.paths:/doctors,/doctors/{id:\\d+},/patients,"
+            + "/patients/{id:\\d+},/appointments,/appointments/{id:\\d+}}") String[] paths) {
+        this.paths = paths;
+    }
+
+    /**
+     * Counts a committed write, so that the requests arriving from now on start a new computation.
+     * @param changed The committed change.
+     */
+    @TransactionalEventListener
+    void onChange(EntityChanged changed) {
+        committedWrites.incrementAndGet();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!HttpMethod.GET.matches(request.getMethod())) {
+            return true;
+        }
+        String accept = request.getHeader(HttpHeaders.ACCEPT);
+        if (accept != null && (accept.contains("ndjson") || accept.contains("event-stream"))) {
+            return true;
+        }
+        String path = UrlPathHelper.defaultInstance.getPathWithinApplication(request);
+        for (String pattern : paths) {
+            if (pathMatcher.match(pattern, path)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String key = key(request);
+        CompletableFuture<CapturedResponse> flight = new CompletableFuture<>();
+        CompletableFuture<CapturedResponse> leader = inFlight.putIfAbsent(key, flight);
+        if (leader != null) {
+            CapturedResponse shared = await(leader);
+            if (shared != null) {
+                shared.writeTo(response);
+            } else {
+                chain.doFilter(request, response);
+            }
+            return;
+        }
+        CapturedResponse captured = null;
+        try {
+            ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+            chain.doFilter(request, wrapper);
+            if (!request.isAsyncStarted() && wrapper.getStatus() < 400) {
+                captured = CapturedResponse.of(wrapper);
+            }
+            wrapper.copyBodyToResponse();
+        } finally {
+            inFlight.remove(key, flight);
+            flight.complete(captured);
+        }
+    }
+
+    private String key(HttpServletRequest request) {
+        StringBuilder key = new StringBuilder().append(committedWrites.get()).append(' ')
+                .append(request.getRequestURL());
+        if (request.getQueryString() != null) {
+            key.append('?').append(request.getQueryString());
+        }
+        for (String header : KEY_HEADERS) {
+            key.append('\n');
+            String value = request.getHeader(header);
+            if (value != null) {
+                key.append(value);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Waits for the response of the request in flight.
+     * @return The shared response, or null if it cannot be shared.
+     */
+    private static CapturedResponse await(CompletableFuture<CapturedResponse> flight) {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Enables the scheduled maintenance jobs, such as trimming the change log.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
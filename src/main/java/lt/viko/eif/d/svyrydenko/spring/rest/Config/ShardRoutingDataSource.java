@@ -0,0 +1,98 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hands out connections to the shard the current thread is routed to, and to the home shard when it is not routed.
+ * The route is set by {@link lt.viko.eif.d.svyrydenko.spring.rest.Services.Shards} before a transaction on a shard
+ * begins and takes its connection, and restored once it has ended.
+ */
+public class ShardRoutingDataSource extends AbstractRoutingDataSource {
+
+    /**
+     * The name of the home shard, the database configured under {@code spring.datasource}.
+     */
+    public static final String HOME = "home";
+
+    private static final ThreadLocal<String> SHARD = new ThreadLocal<>();
+
+    private final Map<String, DataSource> shards;
+
+    /**
+     * Constructor for the ShardRoutingDataSource.
+     * @param home The home shard.
+     * @param others The other shards by name.
+     */
+    public ShardRoutingDataSource(DataSource home, Map<String, ? extends DataSource> others) {
+        Map<String, DataSource> shards = new LinkedHashMap<>();
+        shards.put(HOME, home);
+        others.forEach((name, shard) -> {
+            if (shards.putIfAbsent(name, shard) != null) {
+                throw new IllegalArgumentException("A shard cannot be named " + name);
+            }
+        });
+        this.shards = Collections.unmodifiableMap(shards);
+        setTargetDataSources(new HashMap<>(shards));
+        setDefaultTargetDataSource(home);
+        afterPropertiesSet();
+    }
+
+    /**
+     * Returns the names of all the configured shards, whether or not patients are placed on them.
+     * @return The names, the home shard first.
+     */
+    public Set<String> shards() {
+        return shards.keySet();
+    }
+
+    /**
+     * Returns the shard the current thread is routed to.
+     * @return The name of the shard.
+     */
+    public static String current() {
+        String shard = SHARD.get();
+        return shard != null ? shard : HOME;
+    }
+
+    /**
+     * Routes the connections taken by the current thread to a shard.
+     * @param shard The name of the shard.
+     * @return The shard the thread was routed to before, to be restored afterwards.
+     */
+    public static String route(String shard) {
+        String previous = current();
+        if (HOME.equals(shard)) {
+            SHARD.remove();
+        } else {
+            SHARD.set(shard);
+        }
+        return previous;
+    }
+
+    /**
+     * Closes the pools of the other shards. The home shard is closed as a bean of its own.
+     */
+    public void close() {
+        shards.forEach((name, shard) -> {
+            if (!HOME.equals(name) && shard instanceof AutoCloseable closeable) {
+                try {
+                    closeable.close();
+                } catch (Exception e) {
+                    logger.warn("Could not close shard " + name, e);
+                }
+            }
+        });
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return current();
+    }
+}
@@ -0,0 +1,149 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.ShardRouter;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.Shards;
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.tool.schema.spi.SchemaManagementToolCoordinator;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configures the sharded mode, enabled with {@code app.sharding.enabled}, in which the patients and their
+ * appointments are spread over several databases, the shards, as placed by
+ * {@link lt.viko.eif.d.svyrydenko.spring.rest.Services.Shards}.
+ * The home shard is configured as usual under {@code spring.datasource}; every other shard under
+ * {@code app.sharding.shards.<name>} with the Hikari properties, e.g. {@code jdbc-url} and {@code maximum-pool-size}.
+ * The application uses a {@link ShardRoutingDataSource} over all of them. Hibernate updates the schema of every shard
+ * at startup, as it does the schema of the home shard, and releases the connection of an entity manager at the end of
+ * every transaction, so the transactions of a request can run on different shards. The repositories of patients,
+ * appointments and doctors are routed to the shards by a {@link ShardRouter}; nothing else is aware of them.
+ * The sharded mode replaces the data source and cannot be combined with a read replica.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.sharding.enabled", havingValue = "true")
+public class ShardingConfig {
+
+    /**
+     * Creates the pool of the home shard.
+     * @param properties The properties of the home shard, from {@code spring.datasource}.
+     * @return The pool.
+     */
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    HikariDataSource homeDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    /**
+     * Creates the data source the application uses, routing to the shard of the current transaction.
+     * @param home The pool of the home shard.
+     * @param environment The environment the other shards are configured in.
+     * @return The data source.
+     */
+    @Bean
+    @Primary
+    ShardRoutingDataSource dataSource(@Qualifier("homeDataSource") DataSource home, Environment environment) {
+        Map<String, HikariDataSource> others = Binder.get(environment)
+                .bind("app.sharding.shards", Bindable.mapOf(String.class, HikariDataSource.class))
+                .orElse(Map.of());
+        return new ShardRoutingDataSource(home, others);
+    }
+
+    /**
+     * Adds a {@link ShardRouter} to every repository of patients, appointments or doctors, after the advice the
+     * repository already has.
+     * @param shards The shards the repositories are routed to.
+     * @return The post-processor of the repository factories.
+     */
+    @Bean
+    static BeanPostProcessor shardRouting(ObjectProvider<Shards> shards) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport<?, ?, ?> repository) {
+                    repository.addRepositoryFactoryCustomizer(factory -> factory.addRepositoryProxyPostProcessor(
+                            (proxy, information) -> ShardRouter.of(information, shards).ifPresent(proxy::addAdvice)));
+                }
+                return bean;
+            }
+        };
+    }
+
+    /**
+     * Makes Hibernate release the connection of an entity manager at the end of every transaction, and update the
+     * schema of every shard other than the home shard when it starts.
+     * @param dataSource The data source routing to the shards.
+     * @return The customizer.
+     */
+    @Bean
+    HibernatePropertiesCustomizer shardedHibernate(ShardRoutingDataSource dataSource) {
+        return properties -> {
+            properties.put(AvailableSettings.CONNECTION_HANDLING,
+                    PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+            properties.put("hibernate.integrator_provider",
+                    (IntegratorProvider) () -> List.of(new ShardSchemaIntegrator(dataSource)));
+        };
+    }
+
+    /**
+     * Runs the schema management Hibernate is configured with, e.g. {@code spring.jpa.hibernate.ddl-auto}, on every
+     * shard other than the home shard, which Hibernate manages itself right after.
+     */
+    private static final class ShardSchemaIntegrator implements Integrator {
+
+        private final ShardRoutingDataSource dataSource;
+
+        ShardSchemaIntegrator(ShardRoutingDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public void integrate(Metadata metadata, BootstrapContext bootstrapContext,
+                              SessionFactoryImplementor sessionFactory) {
+            Map<String, Object> settings = bootstrapContext.getServiceRegistry()
+                    .getService(ConfigurationService.class).getSettings();
+            for (String shard : dataSource.shards()) {
+                if (ShardRoutingDataSource.HOME.equals(shard)) {
+                    continue;
+                }
+                String previous = ShardRoutingDataSource.route(shard);
+                try {
+                    SchemaManagementToolCoordinator.process(metadata, bootstrapContext.getServiceRegistry(), settings,
+                            action -> { });
+                } finally {
+                    ShardRoutingDataSource.route(previous);
+                }
+            }
+        }
+
+        @Override
+        public void disintegrate(SessionFactoryImplementor sessionFactory,
+                                 SessionFactoryServiceRegistry serviceRegistry) {
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Has Hibernate log every statement slower than {@code app.slow-query.threshold} to {@code org.hibernate.SQL_SLOW},
+ * together with its SQL, so latency can be attributed to a specific query.
+ */
+@Configuration
+public class SlowQueryLogConfig {
+
+    /**
+     * Hands the slow query threshold to Hibernate.
+     * @param threshold How long a statement may run before it is logged.
+     * @return The customizer of the Hibernate properties.
+     */
+    @Bean
+    HibernatePropertiesCustomizer slowQueryThreshold(@Value("${app.slow-query.threshold:200ms}") Duration threshold) {
+        return properties -> properties.put(AvailableSettings.LOG_SLOW_QUERY, threshold.toMillis());
+    }
+}
@@ -1,12 +1,40 @@
 package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import lt.viko.eif.d.svyrydenko.spring.rest.Config.ReadConsistency;
 import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentResponse;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentSummary;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.ChangeEvent;
 import lt.viko.eif.d.svyrydenko.spring.rest.Repository.AppointmentRepository;
-import org.springframework.hateoas.CollectionModel;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.DoctorRepository;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.PatientRepository;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.BatchResult;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.BatchWriter;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.ChangeLog;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.DoctorSchedule;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.GroupCommitter;
+import org.hibernate.Hibernate;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
@@ -18,84 +46,380 @@ import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
 @RestController
 class AppointmentController {
 
+    /**
+     * The lower bound of the date range when a filtered listing does not give one.
+     */
+    private static final Date EARLIEST = new Date(0);
+
+    /**
+     * The upper bound of the date range when a filtered listing does not give one.
+     */
+    private static final Date LATEST = Date.from(Instant.parse("9999-12-31T23:59:59Z"));
+
     private final AppointmentRepository repository;
+    private final PatientRepository patients;
+    private final DoctorRepository doctors;
+    private final EntityStreamer streamer;
+    private final LinkFactory links;
+    private final BatchWriter batchWriter;
+    private final DoctorSchedule schedule;
+    private final ChangeLog changeLog;
+    private final AppointmentFeed feed;
+    private final GroupCommitter groupCommitter;
+    private final MergePatch mergePatch;
 
     /**
      * Constructor for the AppointmentController.
      * @param repository The repository used for appointment data operations.
+     * @param patients The repository the patients of the appointments are referred to through.
+     * @param doctors The repository the doctors of the appointments are referred to through.
+     * @param streamer The streamer used to write appointments as they are read.
+     * @param links The factory of the links to appointments.
+     * @param batchWriter The writer used to save many appointments at once.
+     * @param schedule The schedule every booking is checked against.
+     * @param changeLog The log every change to an appointment is recorded in.
+     * @param feed The feed the committed changes are pushed to subscribers through.
+     * @param groupCommitter The committer the created appointments are written through.
+     * @param mergePatch The applier of the merge patches.
      */
-    AppointmentController(AppointmentRepository repository) {
+    AppointmentController(AppointmentRepository repository, PatientRepository patients, DoctorRepository doctors,
+                          EntityStreamer streamer, LinkFactory links, BatchWriter batchWriter,
+                          DoctorSchedule schedule, ChangeLog changeLog, AppointmentFeed feed,
+                          GroupCommitter groupCommitter, MergePatch mergePatch) {
         this.repository = repository;
+        this.patients = patients;
+        this.doctors = doctors;
+        this.streamer = streamer;
+        this.links = links;
+        this.batchWriter = batchWriter;
+        this.schedule = schedule;
+        this.changeLog = changeLog;
+        this.feed = feed;
+        this.groupCommitter = groupCommitter;
+        this.mergePatch = mergePatch;
     }
 
     /**
-     * Get all the appointments.
-     * @return A collection model of all appointments.
+     * Get one page of appointments, ordered by id, optionally filtered by doctor, patient and date range.
+     * Filtered listings are served by the doctor/patient and date indexes and can only be paged forward.
+     * @param doctorId Only appointments with this doctor are returned.
+     * @param patientId Only appointments of this patient are returned.
+     * @param from Only appointments on or after this instant, e.g. {@code 2023-05-01T08:00:00Z}, are returned.
+     * @param to Only appointments on or before this instant are returned.
+     * @param after Only appointments with a greater id are returned.
+     * @param before Only appointments with a smaller id are returned; ignored when {@code after} is given.
+     * @param size The maximum number of appointments on the page.
+     * @return The appointments on the page, with links to the next and previous pages.
+     * @throws ResponseStatusException with 400 Bad Request if {@code from} is after {@code to}.
      */
+    @Transactional(readOnly = true, label = ReadConsistency.REPLICA_LABEL)
     @GetMapping("/appointments")
-    CollectionModel<EntityModel<Appointment>> all() {
-        List<EntityModel<Appointment>> appointments = repository.findAll().stream()
-                .map(appointment -> EntityModel.of(appointment,
-                        linkTo(methodOn(AppointmentController.class).one(appointment.getId())).withSelfRel(),
-                        linkTo(methodOn(AppointmentController.class).all()).withRel("appointments")))
+    HalPage<AppointmentResponse> all(@RequestParam(required = false) Integer doctorId,
+                                                  @RequestParam(required = false) Integer patientId,
+                                                  @RequestParam(required = false) Instant from,
+                                                  @RequestParam(required = false) Instant to,
+                                                  @RequestParam(required = false) Integer after,
+                                                  @RequestParam(required = false) Integer before,
+                                                  @RequestParam(required = false) Integer size) {
+        if (from != null && to != null && from.isAfter(to)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "from must not be after to");
+        }
+        int pageSize = KeysetPage.size(size);
+        KeysetPage<Appointment> page;
+        if (doctorId == null && patientId == null && from == null && to == null) {
+            page = KeysetPage.fetch(after, before, pageSize,
+                    repository::findByIdGreaterThanOrderByIdAsc, repository::findByIdLessThanOrderByIdDesc);
+        } else {
+            Date lower = from != null ? Date.from(from) : EARLIEST;
+            Date upper = to != null ? Date.from(to) : LATEST;
+            page = KeysetPage.forward(after, pageSize, (cursor, limit) -> {
+                if (doctorId != null && patientId != null) {
+                    return repository.findByDoctor_IdAndPatient_IdAndDateBetweenAndIdGreaterThanOrderByIdAsc(
+                            doctorId, patientId, lower, upper, cursor, limit);
+                } else if (doctorId != null) {
+                    return repository.findByDoctor_IdAndDateBetweenAndIdGreaterThanOrderByIdAsc(
+                            doctorId, lower, upper, cursor, limit);
+                } else if (patientId != null) {
+                    return repository.findByPatient_IdAndDateBetweenAndIdGreaterThanOrderByIdAsc(
+                            patientId, lower, upper, cursor, limit);
+                }
+                return repository.findByDateBetweenAndIdGreaterThanOrderByIdAsc(lower, upper, cursor, limit);
+            });
+        }
+
+        List<AppointmentResponse> appointments = page.items().stream()
+                .map(AppointmentController::loaded)
                 .collect(Collectors.toList());
 
-        return CollectionModel.of(appointments, linkTo(methodOn(AppointmentController.class).all()).withSelfRel());
+        HalPage<AppointmentResponse> model = new HalPage<>("appointmentList", appointments,
+                HalRows.appointments(links.appointmentHrefs(), links.appointments()),
+                linkTo(methodOn(AppointmentController.class).all(doctorId, patientId, from, to, after, before, size))
+                        .withSelfRel().expand());
+        if (page.hasNext()) {
+            int last = page.items().get(page.items().size() - 1).getId();
+            model.add(linkTo(methodOn(AppointmentController.class).all(doctorId, patientId, from, to, last, null, size))
+                    .withRel(IanaLinkRelations.NEXT).expand());
+        }
+        if (page.hasPrev() && !page.items().isEmpty()) {
+            int first = page.items().get(0).getId();
+            model.add(linkTo(methodOn(AppointmentController.class).all(null, null, null, null, null, first, size))
+                    .withRel(IanaLinkRelations.PREV).expand());
+        }
+        return model;
+    }
+
+    /**
+     * Stream all the appointments as newline delimited JSON, one appointment per line.
+     * Chosen over the paged listing when the client accepts {@code application/x-ndjson}.
+     * @return A response that writes the appointments as they are read from the database.
+     */
+    @GetMapping(value = "/appointments", produces = EntityStreamer.NDJSON_VALUE)
+    ResponseEntity<StreamingResponseBody> stream() {
+        return streamer.stream(repository::streamAllByOrderByIdAsc, AppointmentController::loaded);
+    }
+
+    /**
+     * Subscribe to the appointments created, changed and deleted from now on, as Server-Sent Events.
+     * Each event is named after what happened to the appointment and carries its sequence number in the change log
+     * as the id, so a client that is disconnected can catch up from {@code /changes} before subscribing again.
+     * Created and changed appointments are sent whole; deleted ones as their id only.
+     * @return The emitter the events are sent through.
+     */
+    @GetMapping(value = "/appointments/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    SseEmitter subscribe() {
+        return feed.subscribe();
+    }
+
+    /**
+     * Get one page of appointment summaries, ordered by id.
+     * A summary holds only the columns shown in the appointment list and is read with a single query.
+     * @param after Only appointments with a greater id are returned.
+     * @param before Only appointments with a smaller id are returned; ignored when {@code after} is given.
+     * @param size The maximum number of appointments on the page.
+     * @return The appointment summaries on the page, with links to the next and previous pages.
+     */
+    @Transactional(readOnly = true, label = ReadConsistency.REPLICA_LABEL)
+    @GetMapping("/appointments/summaries")
+    HalPage<AppointmentSummary> summaries(@RequestParam(required = false) Integer after,
+                                          @RequestParam(required = false) Integer before,
+                                          @RequestParam(required = false) Integer size) {
+        int pageSize = KeysetPage.size(size);
+        KeysetPage<AppointmentSummary> page = KeysetPage.fetch(after, before, pageSize,
+                repository::findSummariesAfter, repository::findSummariesBefore);
+
+        HalPage<AppointmentSummary> model = new HalPage<>("appointmentSummaryList", page.items(),
+                HalRows.summaries(links.appointmentHrefs()),
+                linkTo(methodOn(AppointmentController.class).summaries(after, before, size)).withSelfRel().expand());
+        if (page.hasNext()) {
+            int last = page.items().get(page.items().size() - 1).id();
+            model.add(linkTo(methodOn(AppointmentController.class).summaries(last, null, size))
+                    .withRel(IanaLinkRelations.NEXT).expand());
+        }
+        if (page.hasPrev() && !page.items().isEmpty()) {
+            int first = page.items().get(0).id();
+            model.add(linkTo(methodOn(AppointmentController.class).summaries(null, first, size))
+                    .withRel(IanaLinkRelations.PREV).expand());
+        }
+        return model;
     }
 
     /**
      * Create a new appointment.
+     * The patient and doctor are given by {@code patientId} and {@code doctorId} and must already exist; the request
+     * is rejected with 422 Unprocessable Entity otherwise. The response refers to them by id only, as they are not
+     * loaded.
+     * The appointment is rejected with 409 Conflict if its doctor already has an appointment at that time.
+     * With group commit enabled the appointment is committed together with the others created at the same time,
+     * and the request is rejected with 503 Service Unavailable if too many are already waiting.
      * @param newAppointment The appointment to be created.
      * @return The created appointment.
      */
     @PostMapping("/appointments")
-    Appointment newAppointment(@RequestBody Appointment newAppointment) {
-        return repository.save(newAppointment);
+    AppointmentResponse newAppointment(@RequestBody Appointment newAppointment) {
+        return AppointmentResponse.of(groupCommitter.write(newAppointment,
+                appointment -> schedule.book(referToIds(appointment), this::save)));
+    }
+
+    /**
+     * Create or update many appointments at once.
+     * The appointments are written in chunks, one transaction per chunk, with the inserts sent as JDBC batches.
+     * Appointments with an id are updated, the others are created. An update must carry the version it was read at
+     * and fails if the stored version is newer.
+     * Appointments that clash with the schedule of their doctor are reported as failed.
+     * @param body A JSON array of appointments or newline delimited JSON with one appointment per line.
+     * @return The result of every appointment, in request order.
+     * @throws IOException if the body cannot be read or is not valid JSON.
+     */
+    @PostMapping(value = "/appointments/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, EntityStreamer.NDJSON_VALUE})
+    List<BatchResult> newAppointments(InputStream body) throws IOException {
+        return batchWriter.write(body, Appointment.class, Appointment::getId,
+                appointment -> schedule.book(referToIds(appointment), this::save));
     }
 
     /**
      * Get a single appointment by its id.
+     * The response carries the version of the appointment as its entity tag and is 304 Not Modified, without a body,
+     * if the tag matches the If-None-Match header.
      * @param id The id of the desired appointment.
-     * @return The desired appointment.
+     * @param request The current request, checked for conditional headers.
+     * @return The desired appointment, or null if it was not modified.
      */
+    @Transactional(readOnly = true, label = ReadConsistency.REPLICA_LABEL)
     @GetMapping("/appointments/{id}")
-    EntityModel<Appointment> one(@PathVariable Integer id) {
-        Appointment appointment = repository.findById(id)
+    EntityModel<AppointmentResponse> one(@PathVariable Integer id, WebRequest request) {
+        Appointment appointment = repository.findCachedById(id)
                 .orElseThrow(() -> new RuntimeException("Appointment not found: " + id));
+        if (request.checkNotModified(ETags.of(appointment))) {
+            return null;
+        }
 
-        return EntityModel.of(appointment,
-                linkTo(methodOn(AppointmentController.class).one(id)).withSelfRel(),
-                linkTo(methodOn(AppointmentController.class).all()).withRel("appointments"));
+        return EntityModel.of(AppointmentResponse.of(appointment),
+                links.appointment(id),
+                links.appointments());
     }
 
     /**
      * Update an existing appointment or create a new one if it doesn't exist.
+     * The response refers to the patient and doctor by id only.
+     * The change is rejected with 409 Conflict if the doctor already has another appointment at that time.
+     * With an If-Match header the update is only made if the appointment has not changed since it was read,
+     * and is rejected with 412 Precondition Failed otherwise.
      * @param newAppointment The appointment to be created or updated.
      * @param id The id of the appointment to be updated.
-     * @return The created or updated appointment.
+     * @param request The current request, checked for conditional headers.
+     * @return The created or updated appointment, or null if the precondition failed.
      */
+    @Transactional
     @PutMapping("/appointments/{id}")
-    Appointment replaceAppointment(@RequestBody Appointment newAppointment, @PathVariable Integer id) {
-        return repository.findById(id)
+    AppointmentResponse replaceAppointment(@RequestBody Appointment newAppointment, @PathVariable Integer id,
+                                           WebRequest request) {
+        Optional<Appointment> current = repository.findById(id);
+        if (ETags.preconditionFailed(request, current, ETags::of)) {
+            return null;
+        }
+        Appointment saved = current
                 .map(appointment -> {
                     appointment.setType(newAppointment.getType());
                     appointment.setDate(newAppointment.getDate());
-                    appointment.setPatient(newAppointment.getPatient());
-                    appointment.setDoctor(newAppointment.getDoctor());
-                    return repository.save(appointment);
+                    referTo(appointment, newAppointment.getPatientId(), newAppointment.getDoctorId());
+                    return schedule.book(appointment, this::saveAndFlush);
                 })
                 .orElseGet(() -> {
                     newAppointment.setId(id);
-                    return repository.save(newAppointment);
+                    return schedule.book(referToIds(newAppointment), this::saveAndFlush);
                 });
+        return AppointmentResponse.of(saved);
+    }
+
+    /**
+     * Change some of the fields of an existing appointment, given as a JSON Merge Patch.
+     * Only the fields in the patch are changed and only their columns are written; a field set to null is cleared.
+     * The patient and doctor are changed by giving {@code patientId} and {@code doctorId}, and the response refers
+     * to them by id only.
+     * The change is rejected with 409 Conflict if the doctor already has another appointment at that time.
+     * With an If-Match header the change is only made if the appointment has not changed since it was read,
+     * and is rejected with 412 Precondition Failed otherwise.
+     * @param patch The fields to be changed.
+     * @param id The id of the appointment to be changed.
+     * @param request The current request, checked for conditional headers.
+     * @return The changed appointment, or null if the precondition failed.
+     */
+    @Transactional
+    @PatchMapping(value = "/appointments/{id}", consumes = {MergePatch.MEDIA_TYPE_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    AppointmentResponse patchAppointment(@RequestBody JsonNode patch, @PathVariable Integer id, WebRequest request) {
+        Optional<Appointment> current = repository.findById(id);
+        if (ETags.preconditionFailed(request, current, ETags::of)) {
+            return null;
+        }
+        Appointment appointment = current
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Appointment not found: " + id));
+        Integer patientId = patchedId(patch, "patientId", appointment.getPatientId());
+        Integer doctorId = patchedId(patch, "doctorId", appointment.getDoctorId());
+        mergePatch.apply(patch, appointment);
+        return AppointmentResponse.of(schedule.book(referTo(appointment, patientId, doctorId), this::saveAndFlush));
     }
 
     /**
-     * Delete an appointment by its id.
+     * Delete an appointment by its id. Its patient and doctor are kept.
      * @param id The id of the appointment to be deleted.
      */
+    @Transactional
     @DeleteMapping("/appointments/{id}")
     void deleteAppointment(@PathVariable Integer id) {
+        Optional<Appointment> appointment = repository.findById(id);
         repository.deleteById(id);
+        changeLog.record(ChangeEvent.EntityType.APPOINTMENT, id, ChangeEvent.Operation.DELETED,
+                appointment.orElse(null));
+        schedule.remove(id);
+    }
+
+    /**
+     * Rejects an appointment that refers to a patient or doctor that does not exist.
+     * The references are not checked when they are set, as that would load the patient and doctor,
+     * so the missing row is only noticed by the foreign key when the appointment is written.
+     * @param e The violated constraint.
+     * @return A problem response.
+     */
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    ProblemDetail missingReference(DataIntegrityViolationException e) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.UNPROCESSABLE_ENTITY,
+                "The appointment refers to a patient or doctor that does not exist");
+    }
+
+    /**
+     * Saves an appointment and records the change.
+     */
+    private Appointment save(Appointment appointment) {
+        int requestedId = appointment.getId();
+        Appointment saved = repository.save(appointment);
+        changeLog.record(ChangeEvent.EntityType.APPOINTMENT, saved.getId(),
+                ChangeEvent.Operation.ofSave(requestedId, saved.getId()), saved);
+        return saved;
+    }
+
+    /**
+     * Returns the id of a patient or doctor as given by a merge patch, or the current one if the patch leaves it.
+     */
+    private static Integer patchedId(JsonNode patch, String field, Integer current) {
+        JsonNode value = patch.get(field);
+        if (value == null) {
+            return current;
+        }
+        return value.isNull() ? null : value.asInt();
+    }
+
+    /**
+     * Copies an appointment into a response, loading its doctor first. The doctors are taken from the second-level
+     * cache, and the ones missing from it are read in batches.
+     */
+    private static AppointmentResponse loaded(Appointment appointment) {
+        Hibernate.initialize(appointment.getDoctor());
+        return AppointmentResponse.of(appointment);
+    }
+
+    /**
+     * Points an appointment read from a request at the patient and doctor whose ids it gives.
+     */
+    private Appointment referToIds(Appointment appointment) {
+        return referTo(appointment, appointment.getPatientId(), appointment.getDoctorId());
+    }
+
+    /**
+     * Points an appointment at the patient and doctor with the given ids, without loading them.
+     */
+    private Appointment referTo(Appointment appointment, Integer patientId, Integer doctorId) {
+        appointment.setPatient(patientId == null ? null : patients.getReferenceById(patientId));
+        appointment.setDoctor(doctorId == null ? null : doctors.getReferenceById(doctorId));
+        return appointment;
+    }
+
+    /**
+     * Saves an appointment within the transaction of the request and flushes it, so that a failing write is reported
+     * to the doctor schedule while it can still release the reservation.
+     */
+    private Appointment saveAndFlush(Appointment appointment) {
+        Appointment saved = save(appointment);
+        repository.flush();
+        return saved;
     }
 }
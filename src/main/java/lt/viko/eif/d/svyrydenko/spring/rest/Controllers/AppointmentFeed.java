@@ -0,0 +1,231 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentResponse;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.ChangeEvent;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.EntityChanged;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.mediatype.MessageResolver;
+import org.springframework.hateoas.mediatype.hal.CurieProvider;
+import org.springframework.hateoas.mediatype.hal.Jackson2HalModule;
+import org.springframework.hateoas.server.LinkRelationProvider;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes every committed change to an appointment to the subscribers of the appointment stream as a Server-Sent Event.
+ * Subscribers hold no thread while they wait: each one is an {@link SseEmitter} with a bounded queue of pending
+ * events, which a small pool of dispatcher threads drains. A change is serialized once, on the committing thread,
+ * and only offered to the queues, so writers never wait for a subscriber. The queued events are immutable and each
+ * subscriber builds its own SSE frame from them, as the builders of the frames are not safe to share between threads. A subscriber whose queue is full
+ * has fallen too far behind and is disconnected; it can catch up from {@code /changes}, as the id of every event
+ * is the sequence number of the change, and subscribe again.
+ */
+@Component
+class AppointmentFeed implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(AppointmentFeed.class);
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ObjectMapper mapper;
+    private final LinkFactory links;
+    private final ExecutorService dispatchers;
+    private final long timeout;
+    private final int queueCapacity;
+
+    /**
+     * Constructor for the AppointmentFeed.
+     * @param objectMapper The object mapper the appointments are serialized with.
+     * @param relationProvider The provider of the link relations in the HAL documents.
+     * @param messageResolver The resolver of the messages in the HAL documents.
+     * @param links The factory of the links to the appointments.
+     * @param timeout How long a subscription lasts before the client has to subscribe again.
+     * @param queueCapacity How many events may wait for a subscriber before it is disconnected.
+     * @param dispatchers The number of threads sending the events to the subscribers.
+     */
+    AppointmentFeed(ObjectMapper objectMapper, LinkRelationProvider relationProvider, MessageResolver messageResolver,
+                    LinkFactory links,
+                    @Value("${app.feed.timeout:30m}") Duration timeout,
+                    @Value("${app.feed.queue-capacity:256}") int queueCapacity,
+                    @Value("${app.feed.dispatchers:2}") int dispatchers) {
+        this.mapper = objectMapper.copy();
+        this.mapper.registerModule(new Jackson2HalModule());
+        this.mapper.setHandlerInstantiator(new Jackson2HalModule.HalHandlerInstantiator(relationProvider,
+                CurieProvider.NONE, messageResolver));
+        this.links = links;
+        this.timeout = timeout.toMillis();
+        this.queueCapacity = queueCapacity;
+        AtomicInteger threads = new AtomicInteger();
+        this.dispatchers = Executors.newFixedThreadPool(dispatchers, runnable -> {
+            Thread thread = new Thread(runnable, "appointment-feed-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Subscribes a client to the changes committed from now on.
+     * @return The emitter the changes are sent through.
+     */
+    SseEmitter subscribe() {
+        SseEmitter emitter = new SseEmitter(timeout);
+        Subscriber subscriber = new Subscriber(emitter, new ArrayBlockingQueue<>(queueCapacity));
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(error -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        return emitter;
+    }
+
+    /**
+     * Returns the number of current subscribers.
+     * @return The number of subscribers.
+     */
+    int subscribers() {
+        return subscribers.size();
+    }
+
+    /**
+     * Offers a committed change to an appointment to every subscriber.
+     * Deleted appointments are sent as their id only.
+     * @param changed The committed change.
+     */
+    @TransactionalEventListener
+    void onChange(EntityChanged changed) {
+        ChangeEvent change = changed.change();
+        if (change.getEntityType() != ChangeEvent.EntityType.APPOINTMENT || subscribers.isEmpty()) {
+            return;
+        }
+        FeedEvent event = new FeedEvent(Long.toString(change.getSeq()), change.getOperation().name().toLowerCase(),
+                data(change, changed.entity()));
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(event);
+        }
+    }
+
+    /**
+     * Sends a comment to every subscriber, so idle connections are not closed by proxies
+     * and clients that went away are noticed.
+     */
+    @Scheduled(fixedDelayString = "${app.feed.heartbeat:PT30S}", initialDelayString = "${app.feed.heartbeat:PT30S}")
+    void heartbeat() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(FeedEvent.HEARTBEAT);
+        }
+    }
+
+    /**
+     * Stops the dispatchers and completes every subscription.
+     */
+    @Override
+    public void destroy() {
+        dispatchers.shutdownNow();
+        for (Subscriber subscriber : subscribers) {
+            subscriber.emitter().complete();
+        }
+        subscribers.clear();
+    }
+
+    private String data(ChangeEvent change, Object entity) {
+        try {
+            if (change.getOperation() == ChangeEvent.Operation.DELETED || !(entity instanceof Appointment appointment)) {
+                return mapper.writeValueAsString(Map.of("id", change.getEntityId()));
+            }
+            return mapper.writeValueAsString(EntityModel.of(AppointmentResponse.of(appointment),
+                    links.appointment(appointment.getId()), links.appointments()));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize appointment " + change.getEntityId(), e);
+        }
+    }
+
+    /**
+     * A subscriber with its pending events. At most one dispatcher drains the queue of a subscriber at a time,
+     * which keeps its events in order.
+     */
+    private class Subscriber {
+
+        private final SseEmitter emitter;
+        private final BlockingQueue<FeedEvent> queue;
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        Subscriber(SseEmitter emitter, BlockingQueue<FeedEvent> queue) {
+            this.emitter = emitter;
+            this.queue = queue;
+        }
+
+        SseEmitter emitter() {
+            return emitter;
+        }
+
+        void offer(FeedEvent event) {
+            if (!queue.offer(event)) {
+                log.debug("Disconnecting a subscriber that fell {} events behind", queueCapacity);
+                subscribers.remove(this);
+                emitter.complete();
+                return;
+            }
+            if (draining.compareAndSet(false, true)) {
+                dispatchers.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            do {
+                FeedEvent event;
+                while ((event = queue.poll()) != null) {
+                    try {
+                        emitter.send(event.frame());
+                    } catch (IOException | RuntimeException e) {
+                        log.debug("Disconnecting a subscriber that could not be sent an event", e);
+                        subscribers.remove(this);
+                        queue.clear();
+                        return;
+                    }
+                }
+                draining.set(false);
+            } while (!queue.isEmpty() && draining.compareAndSet(false, true));
+        }
+    }
+
+    /**
+     * An event waiting to be sent, or a heartbeat comment if it has no data.
+     * @param id the id of the event
+     * @param name the name of the event
+     * @param data the event serialized as JSON
+     */
+    private record FeedEvent(String id, String name, String data) {
+
+        static final FeedEvent HEARTBEAT = new FeedEvent(null, null, null);
+
+        /**
+         * Builds a new SSE frame of the event, to be sent to a single subscriber.
+         */
+        SseEmitter.SseEventBuilder frame() {
+            if (data == null) {
+                return SseEmitter.event().comment("");
+            }
+            return SseEmitter.event().id(id).name(name).data(data, MediaType.APPLICATION_JSON);
+        }
+    }
+}
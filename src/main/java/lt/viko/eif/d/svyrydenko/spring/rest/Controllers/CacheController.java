@@ -0,0 +1,109 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import jakarta.persistence.EntityManagerFactory;
+import lt.viko.eif.d.svyrydenko.spring.rest.Config.HibernateCacheConfig;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.transaction.TransactionAwareCacheDecorator;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Rest Controller exposing the statistics of the entity caches and of the Hibernate second-level cache regions.
+ */
+@RestController
+class CacheController {
+
+    private final CacheManager cacheManager;
+    private final javax.cache.CacheManager hibernateCacheManager;
+    private final Statistics hibernateStatistics;
+
+    /**
+     * Constructor for the CacheController.
+     * @param cacheManager The cache manager holding the entity caches.
+     * @param hibernateCacheManager The cache manager holding the Hibernate second-level cache regions.
+     * @param entityManagerFactory The entity manager factory whose statistics count the region lookups.
+     */
+    CacheController(CacheManager cacheManager, javax.cache.CacheManager hibernateCacheManager,
+                    EntityManagerFactory entityManagerFactory) {
+        this.cacheManager = cacheManager;
+        this.hibernateCacheManager = hibernateCacheManager;
+        this.hibernateStatistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    /**
+     * Get the hit, miss and eviction counts of every cache.
+     * @return The statistics of each cache, by cache name.
+     */
+    @GetMapping("/caches")
+    Map<String, CacheStatistics> statistics() {
+        Map<String, CacheStatistics> statistics = new TreeMap<>();
+        for (String name : cacheManager.getCacheNames()) {
+            Cache cache = cacheManager.getCache(name);
+            if (cache instanceof TransactionAwareCacheDecorator decorator) {
+                cache = decorator.getTargetCache();
+            }
+            if (cache instanceof CaffeineCache caffeine) {
+                CacheStats stats = caffeine.getNativeCache().stats();
+                statistics.put(name, new CacheStatistics(caffeine.getNativeCache().estimatedSize(),
+                        stats.hitCount(), stats.missCount(), stats.evictionCount(), stats.hitRate()));
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Get the hit, miss and put counts of every Hibernate second-level cache region,
+     * including the region of the cached query results.
+     * @return The statistics of each region, by region name.
+     */
+    @GetMapping("/caches/hibernate")
+    Map<String, RegionStatistics> hibernateStatistics() {
+        Map<String, RegionStatistics> statistics = new TreeMap<>();
+        for (String name : hibernateCacheManager.getCacheNames()) {
+            if (name.equals(HibernateCacheConfig.UPDATE_TIMESTAMPS)) {
+                continue;
+            }
+            CacheRegionStatistics region = hibernateStatistics.getCacheRegionStatistics(name);
+            if (region == null) {
+                continue;
+            }
+            long size = hibernateCacheManager.getCache(name)
+                    .unwrap(com.github.benmanes.caffeine.cache.Cache.class).estimatedSize();
+            long lookups = region.getHitCount() + region.getMissCount();
+            statistics.put(name, new RegionStatistics(size, region.getHitCount(), region.getMissCount(),
+                    region.getPutCount(), lookups == 0 ? 1.0 : (double) region.getHitCount() / lookups));
+        }
+        return statistics;
+    }
+
+    /**
+     * The statistics of a single cache.
+     * @param size the estimated number of entries
+     * @param hits the number of lookups served from the cache
+     * @param misses the number of lookups that went to the database
+     * @param evictions the number of entries evicted because of the size or age bounds
+     * @param hitRate the share of lookups served from the cache
+     */
+    record CacheStatistics(long size, long hits, long misses, long evictions, double hitRate) {
+    }
+
+    /**
+     * The statistics of a single Hibernate second-level cache region.
+     * @param size the estimated number of entries
+     * @param hits the number of lookups served from the region
+     * @param misses the number of lookups that went to the database
+     * @param puts the number of entries written to the region
+     * @param hitRate the share of lookups served from the region
+     */
+    record RegionStatistics(long size, long hits, long misses, long puts, double hitRate) {
+    }
+}
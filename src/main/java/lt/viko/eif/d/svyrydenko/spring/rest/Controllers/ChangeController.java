@@ -0,0 +1,149 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.ChangeEvent;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.ChangeLog;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.ChangesExpiredException;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.hateoas.Link;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+
+/**
+ * Rest Controller for following the changes to appointments, patients and doctors.
+ */
+@RestController
+class ChangeController {
+
+    private final ChangeLog changeLog;
+    private final LinkFactory links;
+    private final AsyncTaskExecutor executor;
+    private final long pollTimeout;
+
+    /**
+     * Constructor for the ChangeController.
+     * @param changeLog The log the changes are read from.
+     * @param links The factory of the links to the changed entities.
+     * @param executor The executor the changes are read on once a waiting consumer is woken up.
+     * @param pollTimeout How long a consumer waits for new changes before an empty page is returned.
+     */
+    ChangeController(ChangeLog changeLog, LinkFactory links,
+                     @Qualifier(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME) AsyncTaskExecutor executor,
+                     @Value("${app.changes.poll-timeout:30s}") Duration pollTimeout) {
+        this.changeLog = changeLog;
+        this.links = links;
+        this.executor = executor;
+        this.pollTimeout = pollTimeout.toMillis();
+    }
+
+    /**
+     * Get the changes committed after a sequence number, in the order they were made.
+     * If there are none yet, the request waits until there are or until the poll timeout passes, so consumers
+     * can follow the changes with one outstanding request instead of polling the entity lists.
+     * The {@code next} link continues from the last change returned.
+     * @param since The sequence number of the last change the consumer has seen; 0 to start from the beginning.
+     * @param size The maximum number of changes returned.
+     * @return A collection model of the changes, each with a link to the changed entity.
+     */
+    @GetMapping("/changes")
+    DeferredResult<CollectionModel<EntityModel<ChangeEvent>>> changes(@RequestParam(defaultValue = "0") long since,
+                                                                      @RequestParam(required = false) Integer size) {
+        int pageSize = KeysetPage.size(size);
+        HttpServletRequest request = ((ServletRequestAttributes) RequestContextHolder.currentRequestAttributes()).getRequest();
+        DeferredResult<CollectionModel<EntityModel<ChangeEvent>>> result = new DeferredResult<>(pollTimeout,
+                () -> model(since, size, List.of(), request));
+
+        ChangeLog.Changes changes = changeLog.since(since, pageSize);
+        if (!changes.events().isEmpty()) {
+            result.setResult(model(since, size, changes.events(), request));
+        } else {
+            await(result, since, pageSize, size, changes.watermark(), request);
+        }
+        return result;
+    }
+
+    /**
+     * Tells a consumer that the changes it asked for have expired and where to continue from.
+     * @param e The exception naming the watermark to continue from.
+     * @return A problem response with the watermark in the {@code since} property.
+     */
+    @ExceptionHandler(ChangesExpiredException.class)
+    ProblemDetail expired(ChangesExpiredException e) {
+        ProblemDetail problem = ProblemDetail.forStatusAndDetail(HttpStatus.GONE,
+                e.getMessage() + "; read the current state and continue from since=" + e.getWatermark());
+        problem.setProperty("since", e.getWatermark());
+        return problem;
+    }
+
+    /**
+     * Waits for the watermark to move, then reads the changes. Transactions that rolled back move the watermark
+     * without leaving any changes behind, in which case the wait starts over.
+     */
+    private void await(DeferredResult<CollectionModel<EntityModel<ChangeEvent>>> result, long since, int pageSize,
+                       Integer size, long watermark, HttpServletRequest request) {
+        CompletableFuture<Void> moved = changeLog.awaitAfter(watermark);
+        result.onCompletion(() -> moved.cancel(false));
+        moved.thenRunAsync(() -> {
+            try {
+                ChangeLog.Changes changes = changeLog.since(since, pageSize);
+                if (!changes.events().isEmpty()) {
+                    result.setResult(model(since, size, changes.events(), request));
+                } else if (!result.isSetOrExpired()) {
+                    await(result, since, pageSize, size, changes.watermark(), request);
+                }
+            } catch (RuntimeException e) {
+                result.setErrorResult(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Builds the response, on whatever thread the changes were read, with the links resolved against the request.
+     * The request is still open while the result is pending, but the attributes bound to the thread that received it
+     * are not, so it is bound anew.
+     */
+    private CollectionModel<EntityModel<ChangeEvent>> model(long since, Integer size, List<ChangeEvent> events,
+                                                            HttpServletRequest request) {
+        RequestAttributes previous = RequestContextHolder.getRequestAttributes();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        try {
+            List<EntityModel<ChangeEvent>> changes = events.stream()
+                    .map(event -> EntityModel.of(event, entityLink(event)))
+                    .collect(Collectors.toList());
+            long next = events.isEmpty() ? since : events.get(events.size() - 1).getSeq();
+
+            return CollectionModel.of(changes,
+                    linkTo(methodOn(ChangeController.class).changes(since, size)).withSelfRel().expand(),
+                    linkTo(methodOn(ChangeController.class).changes(next, size)).withRel(IanaLinkRelations.NEXT).expand());
+        } finally {
+            RequestContextHolder.setRequestAttributes(previous);
+        }
+    }
+
+    private Link entityLink(ChangeEvent event) {
+        return switch (event.getEntityType()) {
+            case APPOINTMENT -> links.appointment(event.getEntityId()).withRel("appointment");
+            case PATIENT -> links.patient(event.getEntityId()).withRel("patient");
+            case DOCTOR -> links.doctor(event.getEntityId()).withRel("doctor");
+        };
+    }
+}
@@ -1,12 +1,36 @@
 package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import lt.viko.eif.d.svyrydenko.spring.rest.Config.ReadConsistency;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.ChangeEvent;
 import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.DoctorResponse;
 import lt.viko.eif.d.svyrydenko.spring.rest.Repository.DoctorRepository;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.BatchResult;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.BatchWriter;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.ChangeLog;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.EntitySearch;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.DoctorSchedule;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.TimeSlot;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.hateoas.CollectionModel;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
@@ -19,28 +43,80 @@ import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
 class DoctorController {
 
     private final DoctorRepository repository;
+    private final EntityStreamer streamer;
+    private final LinkFactory links;
+    private final BatchWriter batchWriter;
+    private final EntitySearch search;
+    private final ChangeLog changeLog;
+    private final DoctorSchedule schedule;
+    private final MergePatch mergePatch;
 
     /**
      * Constructor for the DoctorController.
      * @param repository The repository used for doctor data operations.
+     * @param streamer The streamer used to write doctors as they are read.
+     * @param links The factory of the links to doctors.
+     * @param batchWriter The writer used to save many doctors at once.
+     * @param schedule The schedule free slots are computed from.
+     * @param search The index doctors are searched in.
+     * @param changeLog The log every change to a doctor is recorded in.
+     * @param mergePatch The applier of the merge patches.
      */
-    DoctorController(DoctorRepository repository) {
+    DoctorController(DoctorRepository repository, EntityStreamer streamer, LinkFactory links,
+                     BatchWriter batchWriter, DoctorSchedule schedule, EntitySearch search,
+                     ChangeLog changeLog, MergePatch mergePatch) {
         this.repository = repository;
+        this.streamer = streamer;
+        this.links = links;
+        this.batchWriter = batchWriter;
+        this.search = search;
+        this.changeLog = changeLog;
+        this.schedule = schedule;
+        this.mergePatch = mergePatch;
     }
 
     /**
-     * Get all the doctors.
-     * @return A collection model of all doctors.
+     * Get one page of doctors, ordered by id.
+     * @param after Only doctors with a greater id are returned.
+     * @param before Only doctors with a smaller id are returned; ignored when {@code after} is given.
+     * @param size The maximum number of doctors on the page.
+     * @return The doctors on the page, with links to the next and previous pages.
      */
+    @Transactional(readOnly = true, label = ReadConsistency.REPLICA_LABEL)
     @GetMapping("/doctors")
-    CollectionModel<EntityModel<Doctor>> all() {
-        List<EntityModel<Doctor>> doctors = repository.findAll().stream()
-                .map(doctor -> EntityModel.of(doctor,
-                        linkTo(methodOn(DoctorController.class).one(doctor.getId())).withSelfRel(),
-                        linkTo(methodOn(DoctorController.class).all()).withRel("doctors")))
+    HalPage<DoctorResponse> all(@RequestParam(required = false) Integer after,
+                                             @RequestParam(required = false) Integer before,
+                                             @RequestParam(required = false) Integer size) {
+        int pageSize = KeysetPage.size(size);
+        KeysetPage<Doctor> page = KeysetPage.fetch(after, before, pageSize,
+                repository::findByIdGreaterThanOrderByIdAsc, repository::findByIdLessThanOrderByIdDesc);
+
+        List<DoctorResponse> doctors = page.items().stream()
+                .map(DoctorResponse::of)
                 .collect(Collectors.toList());
 
-        return CollectionModel.of(doctors, linkTo(methodOn(DoctorController.class).all()).withSelfRel());
+        HalPage<DoctorResponse> model = new HalPage<>("doctorList", doctors,
+                HalRows.doctors(links.doctorHrefs(), links.doctors()),
+                linkTo(methodOn(DoctorController.class).all(after, before, size)).withSelfRel().expand());
+        if (page.hasNext()) {
+            int last = page.items().get(page.items().size() - 1).getId();
+            model.add(linkTo(methodOn(DoctorController.class).all(last, null, size)).withRel(IanaLinkRelations.NEXT).expand());
+        }
+        if (page.hasPrev() && !page.items().isEmpty()) {
+            int first = page.items().get(0).getId();
+            model.add(linkTo(methodOn(DoctorController.class).all(null, first, size)).withRel(IanaLinkRelations.PREV).expand());
+        }
+        return model;
+    }
+
+    /**
+     * Stream all the doctors as newline delimited JSON, one doctor per line.
+     * Chosen over the paged listing when the client accepts {@code application/x-ndjson}.
+     * @return A response that writes the doctors as they are read from the database.
+     */
+    @GetMapping(value = "/doctors", produces = EntityStreamer.NDJSON_VALUE)
+    ResponseEntity<StreamingResponseBody> stream() {
+        return streamer.stream(repository::streamAllByOrderByIdAsc, DoctorResponse::of);
     }
 
     /**
@@ -48,54 +124,190 @@ class DoctorController {
      * @param newDoctor The doctor to be created.
      * @return The created doctor.
      */
+    @Transactional
     @PostMapping("/doctors")
-    Doctor newDoctor(@RequestBody Doctor newDoctor) {
-        return repository.save(newDoctor);
+    DoctorResponse newDoctor(@RequestBody Doctor newDoctor) {
+        return DoctorResponse.of(save(newDoctor));
+    }
+
+    /**
+     * Create or update many doctors at once.
+     * The doctors are written in chunks, one transaction per chunk, with the inserts sent as JDBC batches.
+     * Doctors with an id are updated, the others are created. An update must carry the version it was read at
+     * and fails if the stored version is newer.
+     * @param body A JSON array of doctors or newline delimited JSON with one doctor per line.
+     * @return The result of every doctor, in request order.
+     * @throws IOException if the body cannot be read or is not valid JSON.
+     */
+    @PostMapping(value = "/doctors/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, EntityStreamer.NDJSON_VALUE})
+    List<BatchResult> newDoctors(InputStream body) throws IOException {
+        return batchWriter.write(body, Doctor.class, Doctor::getId,
+                this::save);
     }
 
     /**
      * Get a single doctor by their id.
+     * The response carries the version of the doctor as its entity tag and is 304 Not Modified, without a body,
+     * if the tag matches the If-None-Match header.
      * @param id The id of the desired doctor.
-     * @return The desired doctor.
+     * @param request The current request, checked for conditional headers.
+     * @return The desired doctor, or null if it was not modified.
      */
+    @Transactional(readOnly = true, label = ReadConsistency.REPLICA_LABEL)
     @GetMapping("/doctors/{id}")
-    EntityModel<Doctor> one(@PathVariable Integer id) {
-        Doctor doctor = repository.findById(id)
+    EntityModel<DoctorResponse> one(@PathVariable Integer id, WebRequest request) {
+        Doctor doctor = repository.findCachedById(id)
                 .orElseThrow(() -> new RuntimeException("Doctor not found: " + id));
+        if (request.checkNotModified(ETags.of(doctor))) {
+            return null;
+        }
+
+        return EntityModel.of(DoctorResponse.of(doctor),
+                links.doctor(id),
+                links.doctors());
+    }
+
+    /**
+     * Get the free slots of a doctor within a time range.
+     * The slots are computed from the in-memory schedule, without querying the database.
+     * @param id The id of the doctor.
+     * @param from The start of the range, e.g. {@code 2023-05-01T08:00:00Z}.
+     * @param to The end of the range.
+     * @param slot The length of each slot, e.g. {@code 30m} or {@code 1h}.
+     * @return A collection model of the free slots in chronological order.
+     */
+    @GetMapping("/doctors/{id}/availability")
+    CollectionModel<TimeSlot> availability(@PathVariable Integer id, @RequestParam Instant from,
+                                           @RequestParam Instant to, @RequestParam(defaultValue = "30m") String slot) {
+        List<TimeSlot> slots;
+        try {
+            slots = schedule.freeSlots(id, from, to, DurationStyle.detectAndParse(slot));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+
+        return CollectionModel.of(slots,
+                linkTo(methodOn(DoctorController.class).availability(id, from, to, slot)).withSelfRel(),
+                links.doctor(id).withRel("doctor"));
+    }
+
+    /**
+     * Search doctors by name or specialty, for typeahead.
+     * A doctor matches if, for every word of the query, one of their words starts with it, ignoring case and accents.
+     * The search is answered from an in-memory index; only the matching doctors are read, through the cache.
+     * @param q The query, e.g. {@code "jon pet"}.
+     * @param size The maximum number of doctors returned.
+     * @return The matching doctors, ordered by id.
+     */
+    @Transactional(readOnly = true, label = ReadConsistency.REPLICA_LABEL)
+    @GetMapping("/doctors/search")
+    HalPage<DoctorResponse> search(@RequestParam String q, @RequestParam(required = false) Integer size) {
+        List<DoctorResponse> doctors = search.searchDoctors(q, KeysetPage.size(size)).stream()
+                .map(repository::findCachedById)
+                .flatMap(Optional::stream)
+                .map(DoctorResponse::of)
+                .collect(Collectors.toList());
+
+        return new HalPage<>("doctorList", doctors,
+                HalRows.doctors(links.doctorHrefs(), links.doctors()),
+                linkTo(methodOn(DoctorController.class).search(q, size)).withSelfRel().expand());
+    }
+
+    /**
+     * Get the doctors with a specialty, ignoring case.
+     * The doctors are looked up through the Hibernate query cache, so repeated lookups do not touch the database
+     * until a doctor is written.
+     * @param specialty The specialty, e.g. {@code "cardiology"}.
+     * @param size The maximum number of doctors returned.
+     * @return The doctors with the specialty, ordered by id.
+     */
+    @Transactional(readOnly = true, label = ReadConsistency.REPLICA_LABEL)
+    @GetMapping("/doctors/by-specialty")
+    HalPage<DoctorResponse> bySpecialty(@RequestParam String specialty, @RequestParam(required = false) Integer size) {
+        List<DoctorResponse> doctors = repository
+                .findBySpecialtyIgnoreCaseOrderByIdAsc(specialty, PageRequest.of(0, KeysetPage.size(size))).stream()
+                .map(DoctorResponse::of)
+                .collect(Collectors.toList());
 
-        return EntityModel.of(doctor,
-                linkTo(methodOn(DoctorController.class).one(id)).withSelfRel(),
-                linkTo(methodOn(DoctorController.class).all()).withRel("doctors"));
+        return new HalPage<>("doctorList", doctors,
+                HalRows.doctors(links.doctorHrefs(), links.doctors()),
+                linkTo(methodOn(DoctorController.class).bySpecialty(specialty, size)).withSelfRel().expand());
     }
 
     /**
      * Update an existing doctor or create a new one if it doesn't exist.
+     * With an If-Match header the update is only made if the doctor has not changed since it was read,
+     * and is rejected with 412 Precondition Failed otherwise.
      * @param newDoctor The doctor to be created or updated.
      * @param id The id of the doctor to be updated.
-     * @return The created or updated doctor.
+     * @param request The current request, checked for conditional headers.
+     * @return The created or updated doctor, or null if the precondition failed.
      */
+    @Transactional
     @PutMapping("/doctors/{id}")
-    Doctor replaceDoctor(@RequestBody Doctor newDoctor, @PathVariable Integer id) {
-        return repository.findById(id)
+    DoctorResponse replaceDoctor(@RequestBody Doctor newDoctor, @PathVariable Integer id, WebRequest request) {
+        Optional<Doctor> current = repository.findById(id);
+        if (ETags.preconditionFailed(request, current, ETags::of)) {
+            return null;
+        }
+        Doctor saved = current
                 .map(doctor -> {
                     doctor.setFirstName(newDoctor.getFirstName());
                     doctor.setSurname(newDoctor.getSurname());
                     doctor.setPhoneNumber(newDoctor.getPhoneNumber());
                     doctor.setSpecialty(newDoctor.getSpecialty());
-                    return repository.save(doctor);
+                    return save(doctor);
                 })
                 .orElseGet(() -> {
                     newDoctor.setId(id);
-                    return repository.save(newDoctor);
+                    return save(newDoctor);
                 });
+        return DoctorResponse.of(saved);
+    }
+
+    /**
+     * Change some of the fields of an existing doctor, given as a JSON Merge Patch.
+     * Only the fields in the patch are changed and only their columns are written; a field set to null is cleared.
+     * With an If-Match header the change is only made if the doctor has not changed since it was read,
+     * and is rejected with 412 Precondition Failed otherwise.
+     * @param patch The fields to be changed.
+     * @param id The id of the doctor to be changed.
+     * @param request The current request, checked for conditional headers.
+     * @return The changed doctor, or null if the precondition failed.
+     */
+    @Transactional
+    @PatchMapping(value = "/doctors/{id}", consumes = {MergePatch.MEDIA_TYPE_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    DoctorResponse patchDoctor(@RequestBody JsonNode patch, @PathVariable Integer id, WebRequest request) {
+        Optional<Doctor> current = repository.findById(id);
+        if (ETags.preconditionFailed(request, current, ETags::of)) {
+            return null;
+        }
+        Doctor doctor = current
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Doctor not found: " + id));
+        return DoctorResponse.of(save(mergePatch.apply(patch, doctor)));
     }
 
     /**
      * Delete a doctor by their id.
      * @param id The id of the doctor to be deleted.
      */
+    @Transactional
     @DeleteMapping("/doctors/{id}")
     void deleteDoctor(@PathVariable Integer id) {
         repository.deleteById(id);
+        changeLog.record(ChangeEvent.EntityType.DOCTOR, id, ChangeEvent.Operation.DELETED, null);
+        search.removeDoctor(id);
+    }
+
+    /**
+     * Saves a doctor, records the change and updates the search index once the write commits.
+     */
+    private Doctor save(Doctor doctor) {
+        int requestedId = doctor.getId();
+        Doctor saved = repository.save(doctor);
+        changeLog.record(ChangeEvent.EntityType.DOCTOR, saved.getId(),
+                ChangeEvent.Operation.ofSave(requestedId, saved.getId()), saved);
+        search.index(saved);
+        return saved;
     }
 }
\ No newline at end of file
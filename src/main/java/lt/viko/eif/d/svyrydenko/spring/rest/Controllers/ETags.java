@@ -0,0 +1,72 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Patient;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Derives the entity tags of single entities from their versions and evaluates the conditional request headers.
+ * An appointment is returned together with its patient and doctor, so its tag covers all three versions.
+ */
+final class ETags {
+
+    private ETags() {
+    }
+
+    /**
+     * Returns the entity tag of a doctor.
+     * @param doctor The doctor.
+     * @return The quoted entity tag.
+     */
+    static String of(Doctor doctor) {
+        return "\"" + doctor.getVersion() + "\"";
+    }
+
+    /**
+     * Returns the entity tag of a patient.
+     * @param patient The patient.
+     * @return The quoted entity tag.
+     */
+    static String of(Patient patient) {
+        return "\"" + patient.getVersion() + "\"";
+    }
+
+    /**
+     * Returns the entity tag of an appointment, which changes whenever the appointment, its patient or its doctor does.
+     * @param appointment The appointment.
+     * @return The quoted entity tag.
+     */
+    static String of(Appointment appointment) {
+        return "\"" + appointment.getVersion()
+                + "." + (appointment.getPatient() == null ? "" : appointment.getPatient().getVersion())
+                + "." + (appointment.getDoctor() == null ? "" : appointment.getDoctor().getVersion()) + "\"";
+    }
+
+    /**
+     * Evaluates the If-Match and If-None-Match headers of a write against the entity it replaces.
+     * When the precondition fails the response status is set to 412 Precondition Failed and the write
+     * must not be made.
+     * @param request The current request.
+     * @param current The entity as currently stored, or empty if there is none.
+     * @param eTag Derives the entity tag of the stored entity.
+     * @return Whether the precondition failed.
+     * @param <T> The type of the entity.
+     * @throws ResponseStatusException with 412 if an If-Match header is given but there is no entity to match.
+     */
+    static <T> boolean preconditionFailed(WebRequest request, Optional<T> current, Function<T, String> eTag) {
+        if (current.isEmpty()) {
+            if (request.getHeader(HttpHeaders.IF_MATCH) != null) {
+                throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "There is nothing to match");
+            }
+            return false;
+        }
+        return request.checkNotModified(eTag.apply(current.get()));
+    }
+}
@@ -0,0 +1,84 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import jakarta.persistence.EntityManager;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Writes entities to the response as newline delimited JSON while they are read from the database.
+ * Every entity is copied into its response before it is written, so serializing cannot trigger lazy loads.
+ * The persistence context is cleared every {@link #ROWS_PER_CLEAR} rows, which also drops the patients and doctors
+ * loaded for the rows, so memory use does not depend on the number of rows.
+ */
+@Component
+class EntityStreamer {
+
+    /**
+     * The media type of newline delimited JSON.
+     */
+    static final String NDJSON_VALUE = "application/x-ndjson";
+
+    /**
+     * The number of rows written between two clears of the persistence context.
+     */
+    static final int ROWS_PER_CLEAR = 100;
+
+    private final ObjectMapper objectMapper;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+
+    /**
+     * Constructor for the EntityStreamer.
+     * @param objectMapper The object mapper used to serialize each entity.
+     * @param entityManager The entity manager that is cleared while streaming.
+     * @param transactionManager The transaction manager used to keep the cursor open while streaming.
+     */
+    EntityStreamer(ObjectMapper objectMapper, EntityManager entityManager,
+                   PlatformTransactionManager transactionManager) {
+        this.objectMapper = objectMapper;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Creates a response that streams the given source as newline delimited JSON.
+     * @param source Supplies the stream of entities; it is invoked inside a read-only transaction.
+     * @param response Copies an entity into the response that is written for it.
+     * @return The streaming response.
+     * @param <T> The type of the streamed entities.
+     */
+    <T> ResponseEntity<StreamingResponseBody> stream(Supplier<Stream<T>> source, Function<? super T, ?> response) {
+        StreamingResponseBody body = out -> transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<T> rows = source.get();
+                 SequenceWriter writer = objectMapper.writer().withRootValueSeparator("\n").writeValues(out)) {
+                Iterator<T> iterator = rows.iterator();
+                for (int written = 1; iterator.hasNext(); written++) {
+                    writer.write(response.apply(iterator.next()));
+                    if (written % ROWS_PER_CLEAR == 0) {
+                        entityManager.clear();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(NDJSON_VALUE))
+                .body(body);
+    }
+}
@@ -0,0 +1,123 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.RepresentationModel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of a collection, written as HAL by a hand-written serializer.
+ * It produces the same document as a {@code CollectionModel} of {@code EntityModel}s, but writes every row
+ * straight to the generator with a {@link RowWriter} instead of wrapping it in a model, resolving its relation
+ * and introspecting its properties, so a row costs no allocations beyond its own link.
+ * @param <T> The type of the rows.
+ */
+@JsonSerialize(using = HalPage.Serializer.class)
+class HalPage<T> extends RepresentationModel<HalPage<T>> {
+
+    private final String rel;
+    private final List<T> items;
+    private final RowWriter<? super T> writer;
+
+    /**
+     * Constructor for the HalPage.
+     * @param rel The relation the rows are embedded under, e.g. {@code appointmentList}.
+     * @param items The rows on the page.
+     * @param writer Writes each row as a JSON object, including its links.
+     * @param self The link to the page itself.
+     */
+    HalPage(String rel, List<T> items, RowWriter<? super T> writer, Link self) {
+        this.rel = rel;
+        this.items = items;
+        this.writer = writer;
+        add(self);
+    }
+
+    /**
+     * Writes one row of a page as a complete JSON object.
+     * @param <T> The type of the row.
+     */
+    @FunctionalInterface
+    interface RowWriter<T> {
+
+        /**
+         * Writes a row.
+         * @param row The row to be written.
+         * @param generator The generator the row is written to.
+         * @param provider The provider of the serialization settings, e.g. the date format.
+         * @throws IOException if the row cannot be written.
+         */
+        void write(T row, JsonGenerator generator, SerializerProvider provider) throws IOException;
+    }
+
+    /**
+     * Writes a page as {@code {"_embedded":{rel:[rows]},"_links":{...}}}, leaving out {@code _embedded}
+     * when the page is empty. Links with the same relation are written as an array.
+     */
+    static final class Serializer extends StdSerializer<HalPage<?>> {
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Serializer() {
+            super((Class) HalPage.class);
+        }
+
+        @Override
+        public void serialize(HalPage<?> page, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            generator.writeStartObject();
+            if (!page.items.isEmpty()) {
+                generator.writeObjectFieldStart("_embedded");
+                generator.writeArrayFieldStart(page.rel);
+                writeRows(page, generator, provider);
+                generator.writeEndArray();
+                generator.writeEndObject();
+            }
+            writeLinks(page.getLinks().toList(), generator);
+            generator.writeEndObject();
+        }
+
+        private static <T> void writeRows(HalPage<T> page, JsonGenerator generator, SerializerProvider provider)
+                throws IOException {
+            for (T row : page.items) {
+                page.writer.write(row, generator, provider);
+            }
+        }
+
+        private static void writeLinks(List<Link> links, JsonGenerator generator) throws IOException {
+            Map<String, List<Link>> byRel = new LinkedHashMap<>();
+            for (Link link : links) {
+                byRel.computeIfAbsent(link.getRel().value(), rel -> new ArrayList<>(1)).add(link);
+            }
+            generator.writeObjectFieldStart("_links");
+            for (Map.Entry<String, List<Link>> entry : byRel.entrySet()) {
+                generator.writeFieldName(entry.getKey());
+                if (entry.getValue().size() == 1) {
+                    writeLink(entry.getValue().get(0), generator);
+                } else {
+                    generator.writeStartArray();
+                    for (Link link : entry.getValue()) {
+                        writeLink(link, generator);
+                    }
+                    generator.writeEndArray();
+                }
+            }
+            generator.writeEndObject();
+        }
+
+        private static void writeLink(Link link, JsonGenerator generator) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("href", link.getHref());
+            if (link.isTemplated()) {
+                generator.writeBooleanField("templated", true);
+            }
+            generator.writeEndObject();
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentResponse;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentSummary;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.DoctorResponse;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.PatientResponse;
+import org.springframework.hateoas.Link;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.function.IntFunction;
+
+/**
+ * The {@link HalPage.RowWriter}s of the responses, writing the same properties in the same order as Jackson
+ * would for the records, followed by the links of the row.
+ */
+final class HalRows {
+
+    private HalRows() {
+    }
+
+    /**
+     * Creates the writer of appointment rows.
+     * @param self Resolves the href of an appointment from its id.
+     * @param collection The link to the appointment collection, added to every row.
+     * @return The row writer.
+     */
+    static HalPage.RowWriter<AppointmentResponse> appointments(IntFunction<String> self, Link collection) {
+        return (appointment, generator, provider) -> {
+            generator.writeStartObject();
+            writeFields(appointment, generator, provider);
+            writeLinks(self.apply(appointment.id()), collection, generator);
+            generator.writeEndObject();
+        };
+    }
+
+    /**
+     * Creates the writer of appointment summary rows.
+     * @param self Resolves the href of an appointment from its id.
+     * @return The row writer.
+     */
+    static HalPage.RowWriter<AppointmentSummary> summaries(IntFunction<String> self) {
+        return (summary, generator, provider) -> {
+            generator.writeStartObject();
+            generator.writeNumberField("id", summary.id());
+            generator.writeStringField("type", summary.type());
+            writeDate("date", summary.date(), generator, provider);
+            writeId("patientId", summary.patientId(), generator);
+            generator.writeStringField("patientFirstName", summary.patientFirstName());
+            generator.writeStringField("patientSurname", summary.patientSurname());
+            writeId("doctorId", summary.doctorId(), generator);
+            generator.writeStringField("doctorFirstName", summary.doctorFirstName());
+            generator.writeStringField("doctorSurname", summary.doctorSurname());
+            generator.writeStringField("doctorSpecialty", summary.doctorSpecialty());
+            writeLinks(self.apply(summary.id()), null, generator);
+            generator.writeEndObject();
+        };
+    }
+
+    /**
+     * Creates the writer of patient rows.
+     * @param self Resolves the href of a patient from its id.
+     * @param collection The link to the patient collection, added to every row.
+     * @return The row writer.
+     */
+    static HalPage.RowWriter<PatientResponse> patients(IntFunction<String> self, Link collection) {
+        return (patient, generator, provider) -> {
+            generator.writeStartObject();
+            writeFields(patient, generator);
+            writeLinks(self.apply(patient.id()), collection, generator);
+            generator.writeEndObject();
+        };
+    }
+
+    /**
+     * Creates the writer of doctor rows.
+     * @param self Resolves the href of a doctor from its id.
+     * @param collection The link to the doctor collection, added to every row.
+     * @return The row writer.
+     */
+    static HalPage.RowWriter<DoctorResponse> doctors(IntFunction<String> self, Link collection) {
+        return (doctor, generator, provider) -> {
+            generator.writeStartObject();
+            writeFields(doctor, generator);
+            writeLinks(self.apply(doctor.id()), collection, generator);
+            generator.writeEndObject();
+        };
+    }
+
+    private static void writeFields(AppointmentResponse appointment, JsonGenerator generator,
+                                    SerializerProvider provider) throws IOException {
+        generator.writeNumberField("id", appointment.id());
+        generator.writeNumberField("version", appointment.version());
+        generator.writeStringField("type", appointment.type());
+        writeDate("date", appointment.date(), generator, provider);
+        writeId("patientId", appointment.patientId(), generator);
+        writeId("doctorId", appointment.doctorId(), generator);
+        if (appointment.patient() != null) {
+            generator.writeObjectFieldStart("patient");
+            writeFields(appointment.patient(), generator);
+            generator.writeEndObject();
+        }
+        if (appointment.doctor() != null) {
+            generator.writeObjectFieldStart("doctor");
+            writeFields(appointment.doctor(), generator);
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeFields(PatientResponse patient, JsonGenerator generator) throws IOException {
+        generator.writeNumberField("id", patient.id());
+        generator.writeNumberField("version", patient.version());
+        generator.writeStringField("firstName", patient.firstName());
+        generator.writeStringField("surname", patient.surname());
+        generator.writeNumberField("age", patient.age());
+        generator.writeStringField("phoneNumber", patient.phoneNumber());
+        generator.writeStringField("email", patient.email());
+    }
+
+    private static void writeFields(DoctorResponse doctor, JsonGenerator generator) throws IOException {
+        generator.writeNumberField("id", doctor.id());
+        generator.writeNumberField("version", doctor.version());
+        generator.writeStringField("firstName", doctor.firstName());
+        generator.writeStringField("surname", doctor.surname());
+        generator.writeStringField("phoneNumber", doctor.phoneNumber());
+        generator.writeStringField("specialty", doctor.specialty());
+    }
+
+    /**
+     * Writes a date in the format configured on the object mapper.
+     */
+    private static void writeDate(String name, Date date, JsonGenerator generator, SerializerProvider provider)
+            throws IOException {
+        generator.writeFieldName(name);
+        if (date == null) {
+            generator.writeNull();
+        } else {
+            provider.defaultSerializeDateValue(date, generator);
+        }
+    }
+
+    private static void writeId(String name, Integer id, JsonGenerator generator) throws IOException {
+        if (id == null) {
+            generator.writeNullField(name);
+        } else {
+            generator.writeNumberField(name, id);
+        }
+    }
+
+    private static void writeLinks(String self, Link collection, JsonGenerator generator) throws IOException {
+        generator.writeObjectFieldStart("_links");
+        generator.writeObjectFieldStart("self");
+        generator.writeStringField("href", self);
+        generator.writeEndObject();
+        if (collection != null) {
+            generator.writeObjectFieldStart(collection.getRel().value());
+            generator.writeStringField("href", collection.getHref());
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,89 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * A single page of a listing paginated by a cursor on the entity id (keyset pagination).
+ * Unlike offset pagination, fetching a page costs the same no matter how deep into the table it is.
+ * @param items the items on this page, in ascending id order
+ * @param hasNext whether there are items after the last one on this page
+ * @param hasPrev whether there are items before the first one on this page
+ * @param <T> the type of the items
+ */
+record KeysetPage<T>(List<T> items, boolean hasNext, boolean hasPrev) {
+
+    /**
+     * The page size used when the client does not ask for one.
+     */
+    static final int DEFAULT_SIZE = 20;
+
+    /**
+     * The largest page size a client may ask for.
+     */
+    static final int MAX_SIZE = 100;
+
+    /**
+     * Clamps the requested page size into the allowed range.
+     * @param size the page size requested by the client, may be null
+     * @return a page size between 1 and {@link #MAX_SIZE}
+     */
+    static int size(Integer size) {
+        if (size == null) {
+            return DEFAULT_SIZE;
+        }
+        return Math.max(1, Math.min(size, MAX_SIZE));
+    }
+
+    /**
+     * Fetches one page, one item more than needed so that the presence of a further page is known
+     * without a count query.
+     * @param after the cursor to page forward from, may be null
+     * @param before the cursor to page backward from, may be null; ignored when {@code after} is given
+     * @param size the clamped page size
+     * @param forward query returning items with a greater id in ascending order
+     * @param backward query returning items with a smaller id in descending order
+     * @return the requested page
+     * @param <T> the type of the items
+     */
+    static <T> KeysetPage<T> fetch(Integer after, Integer before, int size,
+                                   BiFunction<Integer, Pageable, List<T>> forward,
+                                   BiFunction<Integer, Pageable, List<T>> backward) {
+        Pageable limit = PageRequest.of(0, size + 1);
+
+        if (after == null && before != null) {
+            List<T> items = new ArrayList<>(backward.apply(before, limit));
+            boolean hasPrev = items.size() > size;
+            if (hasPrev) {
+                items.remove(size);
+            }
+            Collections.reverse(items);
+            return new KeysetPage<>(items, true, hasPrev);
+        }
+
+        List<T> items = new ArrayList<>(forward.apply(after == null ? 0 : after, limit));
+        boolean hasNext = items.size() > size;
+        if (hasNext) {
+            items.remove(size);
+        }
+        return new KeysetPage<>(items, hasNext, after != null && after > 0);
+    }
+
+    /**
+     * Fetches one page of a listing that can only be paged forward.
+     * @param after the cursor to page forward from, may be null
+     * @param size the clamped page size
+     * @param forward query returning items with a greater id in ascending order
+     * @return the requested page, never reporting a previous page
+     * @param <T> the type of the items
+     */
+    static <T> KeysetPage<T> forward(Integer after, int size, BiFunction<Integer, Pageable, List<T>> forward) {
+        KeysetPage<T> page = fetch(after, null, size, forward, (before, limit) -> List.of());
+        return new KeysetPage<>(page.items(), page.hasNext(), false);
+    }
+}
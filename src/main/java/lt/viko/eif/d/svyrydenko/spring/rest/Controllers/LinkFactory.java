@@ -0,0 +1,158 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.hateoas.Link;
+import org.springframework.hateoas.server.mvc.WebMvcLinkBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import java.util.function.IntFunction;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+
+/**
+ * Builds the links to single entities and to the entity collections.
+ * {@link WebMvcLinkBuilder} records a proxy invocation and expands a URI template for every link,
+ * which adds up to two of each per row in the list views. LinkFactory resolves the path of every controller
+ * method once at startup and the base URI of the application once per request, so a link costs no more
+ * than a string concatenation.
+ */
+@Component
+class LinkFactory {
+
+    private static final String BASE_URI = LinkFactory.class.getName() + ".BASE_URI";
+
+    private final String appointmentPath;
+    private final String appointmentsPath;
+    private final String doctorPath;
+    private final String doctorsPath;
+    private final String patientPath;
+    private final String patientsPath;
+
+    /**
+     * Constructor for the LinkFactory, resolving the paths of the controller methods.
+     */
+    LinkFactory() {
+        appointmentPath = pathBeforeId(linkTo(methodOn(AppointmentController.class).one(null, null)));
+        appointmentsPath = path(linkTo(methodOn(AppointmentController.class).all(null, null, null, null, null, null, null)));
+        doctorPath = pathBeforeId(linkTo(methodOn(DoctorController.class).one(null, null)));
+        doctorsPath = path(linkTo(methodOn(DoctorController.class).all(null, null, null)));
+        patientPath = pathBeforeId(linkTo(methodOn(PatientController.class).one(null, null)));
+        patientsPath = path(linkTo(methodOn(PatientController.class).all(null, null, null)));
+    }
+
+    /**
+     * Creates the self link of an appointment.
+     * @param id The id of the appointment.
+     * @return The link.
+     */
+    Link appointment(int id) {
+        return Link.of(baseUri() + appointmentPath + id);
+    }
+
+    /**
+     * Creates a function resolving the hrefs of appointments from their ids, for writing many rows of one request.
+     * The base URI is resolved once, so each href costs a single concatenation.
+     * @return The function from the id of an appointment to its href.
+     */
+    IntFunction<String> appointmentHrefs() {
+        String prefix = baseUri() + appointmentPath;
+        return id -> prefix + id;
+    }
+
+    /**
+     * Creates the link to the appointment collection.
+     * @return The link, with the relation "appointments".
+     */
+    Link appointments() {
+        return Link.of(baseUri() + appointmentsPath, "appointments");
+    }
+
+    /**
+     * Creates the self link of a doctor.
+     * @param id The id of the doctor.
+     * @return The link.
+     */
+    Link doctor(int id) {
+        return Link.of(baseUri() + doctorPath + id);
+    }
+
+    /**
+     * Creates a function resolving the hrefs of doctors from their ids, for writing many rows of one request.
+     * The base URI is resolved once, so each href costs a single concatenation.
+     * @return The function from the id of a doctor to its href.
+     */
+    IntFunction<String> doctorHrefs() {
+        String prefix = baseUri() + doctorPath;
+        return id -> prefix + id;
+    }
+
+    /**
+     * Creates the link to the doctor collection.
+     * @return The link, with the relation "doctors".
+     */
+    Link doctors() {
+        return Link.of(baseUri() + doctorsPath, "doctors");
+    }
+
+    /**
+     * Creates the self link of a patient.
+     * @param id The id of the patient.
+     * @return The link.
+     */
+    Link patient(int id) {
+        return Link.of(baseUri() + patientPath + id);
+    }
+
+    /**
+     * Creates a function resolving the hrefs of patients from their ids, for writing many rows of one request.
+     * The base URI is resolved once, so each href costs a single concatenation.
+     * @return The function from the id of a patient to its href.
+     */
+    IntFunction<String> patientHrefs() {
+        String prefix = baseUri() + patientPath;
+        return id -> prefix + id;
+    }
+
+    /**
+     * Creates the link to the patient collection.
+     * @return The link, with the relation "patients".
+     */
+    Link patients() {
+        return Link.of(baseUri() + patientsPath, "patients");
+    }
+
+    /**
+     * Returns the base URI of the current request, computing it on the first call within the request.
+     * Outside a request the links are relative, as with {@link WebMvcLinkBuilder}.
+     */
+    private static String baseUri() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes servletAttributes)) {
+            return "";
+        }
+        HttpServletRequest request = servletAttributes.getRequest();
+        String baseUri = (String) request.getAttribute(BASE_URI);
+        if (baseUri == null) {
+            baseUri = ServletUriComponentsBuilder.fromCurrentServletMapping().build().toUriString();
+            request.setAttribute(BASE_URI, baseUri);
+        }
+        return baseUri;
+    }
+
+    private static String path(WebMvcLinkBuilder builder) {
+        return builder.withSelfRel().expand().getHref();
+    }
+
+    private static String pathBeforeId(WebMvcLinkBuilder builder) {
+        String template = builder.withSelfRel().getHref();
+        if (!template.endsWith("{id}")) {
+            throw new IllegalStateException("Expected a path ending with the id variable: " + template);
+        }
+        return template.substring(0, template.length() - "{id}".length());
+    }
+}
@@ -0,0 +1,58 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+
+/**
+ * Applies JSON Merge Patch documents (RFC 7396) to entities.
+ * A member of the patch replaces the property of the same name, a null member clears it and a missing member leaves
+ * it as it is. The entities have no nested objects, so the patch is applied member by member onto the entity itself.
+ * Only the changed properties become dirty, and as the entities use dynamic updates only their columns are written.
+ * The id and version cannot be patched: the id is given by the URL and the version is checked with If-Match.
+ */
+@Component
+class MergePatch {
+
+    /**
+     * The media type of a JSON Merge Patch document.
+     */
+    static final String MEDIA_TYPE_VALUE = "application/merge-patch+json";
+
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Constructor for the MergePatch.
+     * @param objectMapper The object mapper the members of a patch are read with.
+     */
+    MergePatch(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Applies a patch to an entity.
+     * @param patch The merge patch document.
+     * @param entity The entity to be changed.
+     * @return The changed entity.
+     * @param <T> The type of the entity.
+     * @throws ResponseStatusException with 400 if the patch is not a JSON object or a member has the wrong type.
+     */
+    <T> T apply(JsonNode patch, T entity) {
+        if (!(patch instanceof ObjectNode members)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "A merge patch must be a JSON object");
+        }
+        ObjectNode changes = members.deepCopy();
+        changes.remove("id");
+        changes.remove("version");
+        try {
+            return objectMapper.readerForUpdating(entity).readValue(changes);
+        } catch (IOException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+}
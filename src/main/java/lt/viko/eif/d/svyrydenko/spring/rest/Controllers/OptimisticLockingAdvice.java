@@ -0,0 +1,32 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.context.request.WebRequest;
+
+/**
+ * Answers writes that lost an optimistic locking race, because the entity was changed after it was read.
+ * A conditional write gets 412 Precondition Failed, as its entity tag no longer matches; any other write gets
+ * 409 Conflict.
+ */
+@RestControllerAdvice
+class OptimisticLockingAdvice {
+
+    /**
+     * Turns a failed version check into a problem response.
+     * @param e The failure of the version check.
+     * @param request The write that failed.
+     * @return The problem response.
+     */
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    ProblemDetail versionConflict(OptimisticLockingFailureException e, WebRequest request) {
+        HttpStatus status = request.getHeader(HttpHeaders.IF_MATCH) != null
+                ? HttpStatus.PRECONDITION_FAILED
+                : HttpStatus.CONFLICT;
+        return ProblemDetail.forStatusAndDetail(status, "The entity was changed by another request");
+    }
+}
@@ -1,12 +1,30 @@
 package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import lt.viko.eif.d.svyrydenko.spring.rest.Config.ReadConsistency;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.ChangeEvent;
 import lt.viko.eif.d.svyrydenko.spring.rest.Models.Patient;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.PatientResponse;
 import lt.viko.eif.d.svyrydenko.spring.rest.Repository.PatientRepository;
-import org.springframework.hateoas.CollectionModel;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.BatchResult;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.BatchWriter;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.ChangeLog;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.EntitySearch;
 import org.springframework.hateoas.EntityModel;
+import org.springframework.hateoas.IanaLinkRelations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
@@ -19,28 +37,76 @@ import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
 class PatientController {
 
     private final PatientRepository repository;
+    private final EntityStreamer streamer;
+    private final LinkFactory links;
+    private final BatchWriter batchWriter;
+    private final EntitySearch search;
+    private final ChangeLog changeLog;
+    private final MergePatch mergePatch;
 
     /**
      * Constructor for the PatientController.
      * @param repository The repository used for patient data operations.
+     * @param streamer The streamer used to write patients as they are read.
+     * @param links The factory of the links to patients.
+     * @param batchWriter The writer used to save many patients at once.
+     * @param search The index patients are searched in.
+     * @param changeLog The log every change to a patient is recorded in.
+     * @param mergePatch The applier of the merge patches.
      */
-    PatientController(PatientRepository repository) {
+    PatientController(PatientRepository repository, EntityStreamer streamer, LinkFactory links,
+                      BatchWriter batchWriter, EntitySearch search, ChangeLog changeLog, MergePatch mergePatch) {
         this.repository = repository;
+        this.streamer = streamer;
+        this.links = links;
+        this.batchWriter = batchWriter;
+        this.search = search;
+        this.changeLog = changeLog;
+        this.mergePatch = mergePatch;
     }
 
     /**
-     * Get all the patients.
-     * @return A collection model of all patients.
+     * Get one page of patients, ordered by id.
+     * @param after Only patients with a greater id are returned.
+     * @param before Only patients with a smaller id are returned; ignored when {@code after} is given.
+     * @param size The maximum number of patients on the page.
+     * @return The patients on the page, with links to the next and previous pages.
      */
+    @Transactional(readOnly = true, label = ReadConsistency.REPLICA_LABEL)
     @GetMapping("/patients")
-    CollectionModel<EntityModel<Patient>> all() {
-        List<EntityModel<Patient>> patients = repository.findAll().stream()
-                .map(patient -> EntityModel.of(patient,
-                        linkTo(methodOn(PatientController.class).one(patient.getId())).withSelfRel(),
-                        linkTo(methodOn(PatientController.class).all()).withRel("patients")))
+    HalPage<PatientResponse> all(@RequestParam(required = false) Integer after,
+                                              @RequestParam(required = false) Integer before,
+                                              @RequestParam(required = false) Integer size) {
+        int pageSize = KeysetPage.size(size);
+        KeysetPage<Patient> page = KeysetPage.fetch(after, before, pageSize,
+                repository::findByIdGreaterThanOrderByIdAsc, repository::findByIdLessThanOrderByIdDesc);
+
+        List<PatientResponse> patients = page.items().stream()
+                .map(PatientResponse::of)
                 .collect(Collectors.toList());
 
-        return CollectionModel.of(patients, linkTo(methodOn(PatientController.class).all()).withSelfRel());
+        HalPage<PatientResponse> model = new HalPage<>("patientList", patients,
+                HalRows.patients(links.patientHrefs(), links.patients()),
+                linkTo(methodOn(PatientController.class).all(after, before, size)).withSelfRel().expand());
+        if (page.hasNext()) {
+            int last = page.items().get(page.items().size() - 1).getId();
+            model.add(linkTo(methodOn(PatientController.class).all(last, null, size)).withRel(IanaLinkRelations.NEXT).expand());
+        }
+        if (page.hasPrev() && !page.items().isEmpty()) {
+            int first = page.items().get(0).getId();
+            model.add(linkTo(methodOn(PatientController.class).all(null, first, size)).withRel(IanaLinkRelations.PREV).expand());
+        }
+        return model;
+    }
+
+    /**
+     * Stream all the patients as newline delimited JSON, one patient per line.
+     * Chosen over the paged listing when the client accepts {@code application/x-ndjson}.
+     * @return A response that writes the patients as they are read from the database.
+     */
+    @GetMapping(value = "/patients", produces = EntityStreamer.NDJSON_VALUE)
+    ResponseEntity<StreamingResponseBody> stream() {
+        return streamer.stream(repository::streamAllByOrderByIdAsc, PatientResponse::of);
     }
 
     /**
@@ -48,55 +114,146 @@ class PatientController {
      * @param newPatient The patient to be created.
      * @return The created patient.
      */
+    @Transactional
     @PostMapping("/patients")
-    Patient newPatient(@RequestBody Patient newPatient) {
-        return repository.save(newPatient);
+    PatientResponse newPatient(@RequestBody Patient newPatient) {
+        return PatientResponse.of(save(newPatient));
+    }
+
+    /**
+     * Create or update many patients at once.
+     * The patients are written in chunks, one transaction per chunk, with the inserts sent as JDBC batches.
+     * Patients with an id are updated, the others are created. An update must carry the version it was read at
+     * and fails if the stored version is newer.
+     * @param body A JSON array of patients or newline delimited JSON with one patient per line.
+     * @return The result of every patient, in request order.
+     * @throws IOException if the body cannot be read or is not valid JSON.
+     */
+    @PostMapping(value = "/patients/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, EntityStreamer.NDJSON_VALUE})
+    List<BatchResult> newPatients(InputStream body) throws IOException {
+        return batchWriter.write(body, Patient.class, Patient::getId,
+                this::save);
     }
 
     /**
      * Get a single patient by their id.
+     * The response carries the version of the patient as its entity tag and is 304 Not Modified, without a body,
+     * if the tag matches the If-None-Match header.
      * @param id The id of the desired patient.
-     * @return The desired patient.
+     * @param request The current request, checked for conditional headers.
+     * @return The desired patient, or null if it was not modified.
      */
+    @Transactional(readOnly = true, label = ReadConsistency.REPLICA_LABEL)
     @GetMapping("/patients/{id}")
-    EntityModel<Patient> one(@PathVariable Integer id) {
-        Patient patient = repository.findById(id)
+    EntityModel<PatientResponse> one(@PathVariable Integer id, WebRequest request) {
+        Patient patient = repository.findCachedById(id)
                 .orElseThrow(() -> new RuntimeException("Patient not found: " + id));
+        if (request.checkNotModified(ETags.of(patient))) {
+            return null;
+        }
 
-        return EntityModel.of(patient,
-                linkTo(methodOn(PatientController.class).one(id)).withSelfRel(),
-                linkTo(methodOn(PatientController.class).all()).withRel("patients"));
+        return EntityModel.of(PatientResponse.of(patient),
+                links.patient(id),
+                links.patients());
+    }
+
+    /**
+     * Search patients by name, phone number or email, for typeahead.
+     * A patient matches if, for every word of the query, one of their words starts with it, ignoring case and accents.
+     * The search is answered from an in-memory index; only the matching patients are read, through the cache.
+     * @param q The query, e.g. {@code "jon pet"}.
+     * @param size The maximum number of patients returned.
+     * @return The matching patients, ordered by id.
+     */
+    @Transactional(readOnly = true, label = ReadConsistency.REPLICA_LABEL)
+    @GetMapping("/patients/search")
+    HalPage<PatientResponse> search(@RequestParam String q, @RequestParam(required = false) Integer size) {
+        List<PatientResponse> patients = search.searchPatients(q, KeysetPage.size(size)).stream()
+                .map(repository::findCachedById)
+                .flatMap(Optional::stream)
+                .map(PatientResponse::of)
+                .collect(Collectors.toList());
+
+        return new HalPage<>("patientList", patients,
+                HalRows.patients(links.patientHrefs(), links.patients()),
+                linkTo(methodOn(PatientController.class).search(q, size)).withSelfRel().expand());
     }
 
     /**
      * Update an existing patient or create a new one if it doesn't exist.
+     * With an If-Match header the update is only made if the patient has not changed since it was read,
+     * and is rejected with 412 Precondition Failed otherwise.
      * @param newPatient The patient to be created or updated.
      * @param id The id of the patient to be updated.
-     * @return The created or updated patient.
+     * @param request The current request, checked for conditional headers.
+     * @return The created or updated patient, or null if the precondition failed.
      */
+    @Transactional
     @PutMapping("/patients/{id}")
-    Patient replacePatient(@RequestBody Patient newPatient, @PathVariable Integer id) {
-        return repository.findById(id)
+    PatientResponse replacePatient(@RequestBody Patient newPatient, @PathVariable Integer id, WebRequest request) {
+        Optional<Patient> current = repository.findById(id);
+        if (ETags.preconditionFailed(request, current, ETags::of)) {
+            return null;
+        }
+        Patient saved = current
                 .map(patient -> {
                     patient.setFirstName(newPatient.getFirstName());
                     patient.setSurname(newPatient.getSurname());
                     patient.setAge(newPatient.getAge());
                     patient.setPhoneNumber(newPatient.getPhoneNumber());
                     patient.setEmail(newPatient.getEmail());
-                    return repository.save(patient);
+                    return save(patient);
                 })
                 .orElseGet(() -> {
                     newPatient.setId(id);
-                    return repository.save(newPatient);
+                    return save(newPatient);
                 });
+        return PatientResponse.of(saved);
+    }
+
+    /**
+     * Change some of the fields of an existing patient, given as a JSON Merge Patch.
+     * Only the fields in the patch are changed and only their columns are written; a field set to null is cleared.
+     * With an If-Match header the change is only made if the patient has not changed since it was read,
+     * and is rejected with 412 Precondition Failed otherwise.
+     * @param patch The fields to be changed.
+     * @param id The id of the patient to be changed.
+     * @param request The current request, checked for conditional headers.
+     * @return The changed patient, or null if the precondition failed.
+     */
+    @Transactional
+    @PatchMapping(value = "/patients/{id}", consumes = {MergePatch.MEDIA_TYPE_VALUE, MediaType.APPLICATION_JSON_VALUE})
+    PatientResponse patchPatient(@RequestBody JsonNode patch, @PathVariable Integer id, WebRequest request) {
+        Optional<Patient> current = repository.findById(id);
+        if (ETags.preconditionFailed(request, current, ETags::of)) {
+            return null;
+        }
+        Patient patient = current
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Patient not found: " + id));
+        return PatientResponse.of(save(mergePatch.apply(patch, patient)));
     }
 
     /**
      * Delete a patient by their id.
      * @param id The id of the patient to be deleted.
      */
+    @Transactional
     @DeleteMapping("/patients/{id}")
     void deletePatient(@PathVariable Integer id) {
         repository.deleteById(id);
+        changeLog.record(ChangeEvent.EntityType.PATIENT, id, ChangeEvent.Operation.DELETED, null);
+        search.removePatient(id);
+    }
+
+    /**
+     * Saves a patient, records the change and updates the search index once the write commits.
+     */
+    private Patient save(Patient patient) {
+        int requestedId = patient.getId();
+        Patient saved = repository.save(patient);
+        changeLog.record(ChangeEvent.EntityType.PATIENT, saved.getId(),
+                ChangeEvent.Operation.ofSave(requestedId, saved.getId()), saved);
+        search.index(saved);
+        return saved;
     }
 }
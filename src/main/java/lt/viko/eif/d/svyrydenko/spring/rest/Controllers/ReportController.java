@@ -0,0 +1,85 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.AppointmentReport;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.DoctorDayCount;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.GroupCount;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.hateoas.CollectionModel;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.linkTo;
+import static org.springframework.hateoas.server.mvc.WebMvcLinkBuilder.methodOn;
+
+/**
+ * Rest Controller for the appointment reports shown on the management dashboards.
+ * The reports are answered from counters kept in memory, without querying the database.
+ */
+@RestController
+class ReportController {
+
+    private final AppointmentReport report;
+
+    /**
+     * Constructor for the ReportController.
+     * @param report The counters the reports are read from.
+     */
+    ReportController(AppointmentReport report) {
+        this.report = report;
+    }
+
+    /**
+     * Get the number of appointments of each doctor on each day within a date range.
+     * @param from The first day, e.g. {@code 2023-05-01}.
+     * @param to The last day, inclusive.
+     * @param doctorId Only the appointments of this doctor are counted.
+     * @return A collection model of the counts, ordered by day and then by doctor id.
+     */
+    @GetMapping("/reports/doctor-days")
+    CollectionModel<DoctorDayCount> doctorDays(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(required = false) Integer doctorId) {
+        List<DoctorDayCount> counts;
+        try {
+            counts = report.doctorDays(from, to, doctorId);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+
+        return CollectionModel.of(counts,
+                linkTo(methodOn(ReportController.class).doctorDays(from, to, doctorId)).withSelfRel().expand());
+    }
+
+    /**
+     * Get the number of appointments of each type.
+     * @return A collection model of the counts, ordered by type.
+     */
+    @GetMapping("/reports/types")
+    CollectionModel<GroupCount> types() {
+        return CollectionModel.of(report.types(),
+                linkTo(methodOn(ReportController.class).types()).withSelfRel());
+    }
+
+    /**
+     * Get the number of appointments by the specialty of their doctor.
+     * @return A collection model of the counts, ordered by specialty.
+     */
+    @GetMapping("/reports/specialties")
+    CollectionModel<GroupCount> specialties() {
+        return CollectionModel.of(report.specialties(),
+                linkTo(methodOn(ReportController.class).specialties()).withSelfRel());
+    }
+
+    /**
+     * Rebuild the reports from the database now instead of waiting for the scheduled rebuild.
+     */
+    @PostMapping("/reports/rebuild")
+    void rebuild() {
+        report.rebuild();
+    }
+}
@@ -0,0 +1,89 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.ShardRebalancer;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.ShardRing;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.Shards;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ProblemDetail;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rest Controller showing the shards the patients are placed on and rebalancing them onto other shards,
+ * available when the application runs sharded.
+ */
+@RestController
+@ConditionalOnProperty(name = "app.sharding.enabled", havingValue = "true")
+class ShardController {
+
+    private final Shards shards;
+    private final ShardRebalancer rebalancer;
+
+    /**
+     * Constructor for the ShardController.
+     * @param shards The shards the patients are placed on.
+     * @param rebalancer The rebalancer moving the patients between the shards.
+     */
+    ShardController(Shards shards, ShardRebalancer rebalancer) {
+        this.shards = shards;
+        this.rebalancer = rebalancer;
+    }
+
+    /**
+     * Get the shards the patients are placed on, the shards configured, and the shards the patients are being moved
+     * to if rebalancing is under way or was interrupted.
+     * @return The shards.
+     */
+    @GetMapping("/shards")
+    ShardStatus status() {
+        return new ShardStatus(shards.ring().shards(), shards.configured(),
+                shards.rebalancingTo().map(ShardRing::shards).orElse(null));
+    }
+
+    /**
+     * Place the patients on other shards, moving every patient whose shard changes together with its appointments.
+     * The application keeps serving requests meanwhile; the request returns once every patient is moved.
+     * @param names The names of the shards the patients are to be placed on.
+     * @return The shards the patients are placed on now and how many patients and appointments were moved.
+     */
+    @PutMapping("/shards")
+    ShardRebalancer.Rebalanced rebalance(@RequestBody List<String> names) {
+        return rebalancer.rebalance(names);
+    }
+
+    /**
+     * Tells a client that a shard it named is not configured, or that it named none.
+     * @param e The exception naming the problem.
+     * @return A problem response with status 400.
+     */
+    @ExceptionHandler(IllegalArgumentException.class)
+    ProblemDetail invalid(IllegalArgumentException e) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.BAD_REQUEST, e.getMessage());
+    }
+
+    /**
+     * Tells a client that the patients are still being moved to other shards, which has to be finished first.
+     * @param e The exception naming the shards the patients are being moved to.
+     * @return A problem response with status 409.
+     */
+    @ExceptionHandler(IllegalStateException.class)
+    ProblemDetail conflict(IllegalStateException e) {
+        return ProblemDetail.forStatusAndDetail(HttpStatus.CONFLICT, e.getMessage());
+    }
+
+    /**
+     * The shards of the application.
+     * @param ring the shards the patients are placed on
+     * @param configured every configured shard, the home shard first
+     * @param rebalancingTo the shards the patients are being moved to, or null if they are not being moved
+     */
+    record ShardStatus(Set<String> ring, Set<String> configured, Set<String> rebalancingTo) {
+    }
+}
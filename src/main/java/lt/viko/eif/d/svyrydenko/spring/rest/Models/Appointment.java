@@ -1,7 +1,10 @@
 package lt.viko.eif.d.svyrydenko.spring.rest.Models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
-import org.springframework.hateoas.RepresentationModel;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import java.util.Date;
 
@@ -9,17 +12,40 @@ import java.util.Date;
  * Appointment class represents a medical appointment made by a patient to see a doctor or specialist.
  * It contains information about the appointment such as its unique id, type, date, and result.
  * The class also has a Patient object that represents the patient who made the appointment.
+ * Many appointments can share a patient and a doctor. Neither is saved along with the appointment: requests refer to
+ * them by {@code patientId} and {@code doctorId}, and both are loaded lazily, in most cases from the second-level cache.
+ * The table is indexed by doctor and date and by patient and date, so the schedule of a single doctor or patient
+ * within a date range is read with an index range scan.
+ * Updates write only the changed columns, e.g. only the date and version when an appointment is moved.
  */
 @Entity
-public class Appointment extends RepresentationModel<Appointment> {
+@DynamicUpdate
+@Table(indexes = {
+        @Index(name = "idx_appointment_doctor_date", columnList = "doctor_id, date"),
+        @Index(name = "idx_appointment_patient_date", columnList = "patient_id, date"),
+        @Index(name = "idx_appointment_date", columnList = "date")
+})
+public class Appointment {
 
     /**
      * The unique id of the appointment.
+     * Ids are taken from a pooled sequence, 50 at a time, so that inserts can be batched.
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "appointment_seq")
+    @GenericGenerator(name = "appointment_seq",
+            strategy = "lt.viko.eif.d.svyrydenko.spring.rest.Config.AssignableSequenceGenerator",
+            parameters = {@Parameter(name = "sequence_name", value = "appointment_seq"),
+                    @Parameter(name = "increment_size", value = "50")})
     private int id;
 
+    /**
+     * The version of the appointment, incremented on every update and checked on every write, so that
+     * a concurrent update is rejected instead of being overwritten. It is also the entity tag of the appointment.
+     */
+    @Version
+    private long version;
+
     /**
      * The type of the appointment, e.g. "checkup", "surgery", "consultation", etc.
      */
@@ -33,15 +59,29 @@ public class Appointment extends RepresentationModel<Appointment> {
     /**
      * The Patient object representing the patient who made the appointment.
      */
-    @OneToOne(targetEntity = Patient.class, cascade = CascadeType.ALL)
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JsonIgnore
     private Patient patient;
 
     /**
      * The Doctor object representing the doctor who checked the patient.
      */
-    @OneToOne(targetEntity = Doctor.class, cascade = CascadeType.ALL)
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JsonIgnore
     private Doctor doctor;
 
+    /**
+     * The id of the patient as given in a request, until the appointment is pointed at the patient itself.
+     */
+    @Transient
+    private Integer patientId;
+
+    /**
+     * The id of the doctor as given in a request, until the appointment is pointed at the doctor itself.
+     */
+    @Transient
+    private Integer doctorId;
+
     /**
      * Constructs an empty Appointment object.
      */
@@ -78,6 +118,22 @@ public class Appointment extends RepresentationModel<Appointment> {
         this.id = id;
     }
 
+    /**
+     * Returns the version of the appointment.
+     * @return the version of the appointment
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the appointment.
+     * @param version the version the appointment was read at
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     /**
      * Returns the type of the appointment.
      * @return the type of the appointment
@@ -141,4 +197,38 @@ public class Appointment extends RepresentationModel<Appointment> {
     public void setDoctor(Doctor doctor) {
         this.doctor = doctor;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the id of the patient, without loading the patient.
+     * @return the id of the patient, or null if the appointment has none
+     */
+    public Integer getPatientId() {
+        return patient != null ? Integer.valueOf(patient.getId()) : patientId;
+    }
+
+    /**
+     * Sets the id of the patient, as read from a request.
+     * The appointment is pointed at the patient itself before it is saved.
+     * @param patientId the id of the patient, or null for none
+     */
+    public void setPatientId(Integer patientId) {
+        this.patientId = patientId;
+    }
+
+    /**
+     * Returns the id of the doctor, without loading the doctor.
+     * @return the id of the doctor, or null if the appointment has none
+     */
+    public Integer getDoctorId() {
+        return doctor != null ? Integer.valueOf(doctor.getId()) : doctorId;
+    }
+
+    /**
+     * Sets the id of the doctor, as read from a request.
+     * The appointment is pointed at the doctor itself before it is saved.
+     * @param doctorId the id of the doctor, or null for none
+     */
+    public void setDoctorId(Integer doctorId) {
+        this.doctorId = doctorId;
+    }
+}
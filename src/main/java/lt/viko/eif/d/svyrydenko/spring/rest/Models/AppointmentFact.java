@@ -0,0 +1,16 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Models;
+
+import java.util.Date;
+
+/**
+ * AppointmentFact is a read-only view of the columns of an appointment that the reports are counted by.
+ * It is all the reports need, so they can be rebuilt without loading patients or doctors.
+ * @param id              the unique id of the appointment
+ * @param version         the version of the appointment
+ * @param doctorId        the id of the doctor, or null if the appointment has no doctor
+ * @param doctorSpecialty the specialty of the doctor
+ * @param type            the type of the appointment
+ * @param date            the date of the appointment
+ */
+public record AppointmentFact(int id, long version, Integer doctorId, String doctorSpecialty, String type, Date date) {
+}
@@ -0,0 +1,41 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.hibernate.Hibernate;
+
+import java.util.Date;
+
+/**
+ * AppointmentResponse is the immutable view of an appointment that is sent to clients,
+ * together with the views of its patient and doctor.
+ * The patient and doctor are always referred to by id. Their views are only included if they were loaded with the
+ * appointment, e.g. not in the response to a write, which refers to them without loading them.
+ * It is copied from the entity while the entity is still attached, so serializing it can never trigger a lazy load.
+ * @param id        the unique id of the appointment
+ * @param version   the version of the appointment
+ * @param type      the type of the appointment
+ * @param date      the date of the appointment
+ * @param patientId the id of the patient of the appointment, or null if it has none
+ * @param doctorId  the id of the doctor of the appointment, or null if it has none
+ * @param patient   the patient of the appointment, or null if it has none or it was not loaded
+ * @param doctor    the doctor of the appointment, or null if it has none or it was not loaded
+ */
+public record AppointmentResponse(int id, long version, String type, Date date, Integer patientId, Integer doctorId,
+                                  @JsonInclude(JsonInclude.Include.NON_NULL) PatientResponse patient,
+                                  @JsonInclude(JsonInclude.Include.NON_NULL) DoctorResponse doctor) {
+
+    /**
+     * Copies an appointment into a response. A patient or doctor that has not been loaded is referred to by id only,
+     * instead of being loaded.
+     * @param appointment the appointment
+     * @return the response
+     */
+    public static AppointmentResponse of(Appointment appointment) {
+        Patient patient = appointment.getPatient();
+        Doctor doctor = appointment.getDoctor();
+        return new AppointmentResponse(appointment.getId(), appointment.getVersion(), appointment.getType(),
+                appointment.getDate(), appointment.getPatientId(), appointment.getDoctorId(),
+                Hibernate.isInitialized(patient) ? PatientResponse.of(patient) : null,
+                Hibernate.isInitialized(doctor) ? DoctorResponse.of(doctor) : null);
+    }
+}
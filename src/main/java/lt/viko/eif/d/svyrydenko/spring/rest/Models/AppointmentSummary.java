@@ -0,0 +1,23 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Models;
+
+import java.util.Date;
+
+/**
+ * AppointmentSummary is a read-only view of an appointment holding only the columns shown in the appointment list.
+ * It is filled directly by a query, so no patient or doctor entity has to be loaded to build it.
+ * @param id               the unique id of the appointment
+ * @param type             the type of the appointment
+ * @param date             the date of the appointment
+ * @param patientId        the id of the patient, or null if the appointment has no patient
+ * @param patientFirstName the first name of the patient
+ * @param patientSurname   the surname of the patient
+ * @param doctorId         the id of the doctor, or null if the appointment has no doctor
+ * @param doctorFirstName  the first name of the doctor
+ * @param doctorSurname    the surname of the doctor
+ * @param doctorSpecialty  the specialty of the doctor
+ */
+public record AppointmentSummary(int id, String type, Date date,
+                                 Integer patientId, String patientFirstName, String patientSurname,
+                                 Integer doctorId, String doctorFirstName, String doctorSurname,
+                                 String doctorSpecialty) {
+}
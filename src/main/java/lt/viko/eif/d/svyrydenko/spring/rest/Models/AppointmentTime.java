@@ -0,0 +1,13 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Models;
+
+import java.util.Date;
+
+/**
+ * AppointmentTime is a read-only view of when an appointment takes place and with which doctor.
+ * It is all the doctor schedule needs, so the schedule can be loaded without reading patients or doctors.
+ * @param id       the unique id of the appointment
+ * @param doctorId the id of the doctor, or null if the appointment has no doctor
+ * @param date     the date of the appointment
+ */
+public record AppointmentTime(int id, Integer doctorId, Date date) {
+}
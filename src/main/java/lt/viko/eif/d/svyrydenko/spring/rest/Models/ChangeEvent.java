@@ -0,0 +1,140 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Models;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+/**
+ * A ChangeEvent records that an appointment, patient or doctor was created, updated or deleted.
+ * Change events form the outbox of the application: each one is written in the same transaction as the change
+ * it describes, so consumers that read the events in sequence order see every committed change exactly once
+ * and never see a change that was rolled back.
+ * The table is indexed by entity, so superseded events can be compacted, and by creation time for retention.
+ */
+@Entity
+@Table(name = "change_event", indexes = {
+        @Index(name = "idx_change_event_entity", columnList = "entity_type, entity_id, seq"),
+        @Index(name = "idx_change_event_created", columnList = "created_at")
+})
+public class ChangeEvent {
+
+    /**
+     * The kinds of entities whose changes are recorded.
+     */
+    public enum EntityType {
+        APPOINTMENT, PATIENT, DOCTOR
+    }
+
+    /**
+     * The kinds of changes that are recorded.
+     */
+    public enum Operation {
+        CREATED, UPDATED, DELETED;
+
+        /**
+         * Tells whether a save created an entity or updated an existing one. An id that was not found is not kept,
+         * so the entity was created whenever its saved id differs from the requested one.
+         * @param requestedId the id the entity had before it was saved, 0 if none
+         * @param savedId the id of the saved entity
+         * @return CREATED or UPDATED
+         */
+        public static Operation ofSave(int requestedId, int savedId) {
+            return requestedId == savedId ? UPDATED : CREATED;
+        }
+    }
+
+    /**
+     * The position of the event in the change log. Sequence numbers increase in the order the events are recorded
+     * and are assigned by the application rather than the database.
+     */
+    @Id
+    private long seq;
+
+    /**
+     * The kind of entity that changed.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(name = "entity_type", nullable = false, length = 16)
+    private EntityType entityType;
+
+    /**
+     * The id of the entity that changed.
+     */
+    @Column(name = "entity_id", nullable = false)
+    private int entityId;
+
+    /**
+     * What happened to the entity.
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    private Operation operation;
+
+    /**
+     * When the change was recorded.
+     */
+    @Column(name = "created_at", nullable = false)
+    private Instant createdAt;
+
+    /**
+     * Constructs an empty ChangeEvent.
+     */
+    public ChangeEvent() {
+    }
+
+    /**
+     * Constructs a new ChangeEvent with the specified parameters.
+     * @param seq        the position of the event in the change log.
+     * @param entityType the kind of entity that changed.
+     * @param entityId   the id of the entity that changed.
+     * @param operation  what happened to the entity.
+     * @param createdAt  when the change was recorded.
+     */
+    public ChangeEvent(long seq, EntityType entityType, int entityId, Operation operation, Instant createdAt) {
+        this.seq = seq;
+        this.entityType = entityType;
+        this.entityId = entityId;
+        this.operation = operation;
+        this.createdAt = createdAt;
+    }
+
+    /**
+     * Returns the position of the event in the change log.
+     * @return the sequence number of the event
+     */
+    public long getSeq() {
+        return seq;
+    }
+
+    /**
+     * Returns the kind of entity that changed.
+     * @return the entity type
+     */
+    public EntityType getEntityType() {
+        return entityType;
+    }
+
+    /**
+     * Returns the id of the entity that changed.
+     * @return the entity id
+     */
+    public int getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * Returns what happened to the entity.
+     * @return the operation
+     */
+    public Operation getOperation() {
+        return operation;
+    }
+
+    /**
+     * Returns when the change was recorded.
+     * @return the time the change was recorded
+     */
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+}
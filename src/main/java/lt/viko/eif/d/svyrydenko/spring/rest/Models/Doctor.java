@@ -1,24 +1,47 @@
 package lt.viko.eif.d.svyrydenko.spring.rest.Models;
 
-import org.springframework.hateoas.RepresentationModel;
-
 import jakarta.persistence.*;
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 /**
  * Represents a doctor in a medical application. Doctors can have appointments and are identified by their unique ID.
  * This class is an entity that is mapped to the "doctor" table in a database. It contains
  * attributes such as name, specialty, salary, and appointments.
+ * Doctors are kept in the second-level cache, as they are read with nearly every appointment but rarely change,
+ * and the doctors missing from it are loaded up to 50 at a time.
+ * Updates write only the changed columns, so changing a phone number does not rewrite the rest of the row.
  */
 @Entity
-public class Doctor extends RepresentationModel<Doctor> {
+@DynamicUpdate
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+@BatchSize(size = 50)
+public class Doctor {
     /**
      * The unique identifier for this doctor.
-     * This field is the primary key of the entity and is generated automatically by the database.
+     * This field is the primary key of the entity and is generated automatically from a database sequence.
+     * The sequence hands out 50 ids at a time, so that inserts can be batched.
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "doctor_seq")
+    @GenericGenerator(name = "doctor_seq",
+            strategy = "lt.viko.eif.d.svyrydenko.spring.rest.Config.AssignableSequenceGenerator",
+            parameters = {@Parameter(name = "sequence_name", value = "doctor_seq"),
+                    @Parameter(name = "increment_size", value = "50")})
     private int id;
 
+    /**
+     * The version of the doctor, incremented on every update and checked on every write, so that
+     * a concurrent update is rejected instead of being overwritten. It is also the entity tag of the doctor.
+     */
+    @Version
+    private long version;
+
     /**
      * The first name of this doctor.
      */
@@ -75,6 +98,22 @@ public class Doctor extends RepresentationModel<Doctor> {
         this.id = id;
     }
 
+    /**
+     * Returns the version of the doctor.
+     * @return the version of the doctor
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the doctor.
+     * @param version the version the doctor was read at
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     /**
      * Returns the first name of the doctor.
      * @return the first name of the doctor
@@ -0,0 +1,28 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Models;
+
+/**
+ * DoctorResponse is the immutable view of a doctor that is sent to clients.
+ * It is copied from the entity while the entity is still attached, so serializing it can never trigger a lazy load.
+ * @param id          the unique id of the doctor
+ * @param version     the version of the doctor
+ * @param firstName   the first name of the doctor
+ * @param surname     the surname of the doctor
+ * @param phoneNumber the phone number of the doctor
+ * @param specialty   the specialty of the doctor
+ */
+public record DoctorResponse(int id, long version, String firstName, String surname,
+                             String phoneNumber, String specialty) {
+
+    /**
+     * Copies a doctor into a response.
+     * @param doctor the doctor, may be null; it is loaded if it has not been yet
+     * @return the response, or null if the doctor is null
+     */
+    public static DoctorResponse of(Doctor doctor) {
+        if (doctor == null) {
+            return null;
+        }
+        return new DoctorResponse(doctor.getId(), doctor.getVersion(), doctor.getFirstName(),
+                doctor.getSurname(), doctor.getPhoneNumber(), doctor.getSpecialty());
+    }
+}
@@ -1,8 +1,11 @@
 package lt.viko.eif.d.svyrydenko.spring.rest.Models;
 
-import org.springframework.hateoas.RepresentationModel;
-
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 /**
  * This class represents a patient object in a hospital management system.
@@ -12,16 +15,31 @@ import jakarta.persistence.*;
  * email, hospitalRoom, and illnessesList.
  * The class includes constructors, getter and setter methods for each field, and a toString method
  * that returns a formatted string representation of a patient's information.
+ * Patients are kept in the second-level cache. Updates write only the changed columns.
  */
 @Entity
-public class Patient extends RepresentationModel<Patient> {
+@DynamicUpdate
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
+public class Patient {
     /**
-     * The unique identifier for a patient.
+     * The unique identifier for a patient, taken from a pooled sequence so that inserts can be batched.
      */
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "patient_seq")
+    @GenericGenerator(name = "patient_seq",
+            strategy = "lt.viko.eif.d.svyrydenko.spring.rest.Config.AssignableSequenceGenerator",
+            parameters = {@Parameter(name = "sequence_name", value = "patient_seq"),
+                    @Parameter(name = "increment_size", value = "50")})
     private int id;
 
+    /**
+     * The version of the patient, incremented on every update and checked on every write, so that
+     * a concurrent update is rejected instead of being overwritten. It is also the entity tag of the patient.
+     */
+    @Version
+    private long version;
+
     /**
      * The first name of the patient.
      */
@@ -85,6 +103,22 @@ public class Patient extends RepresentationModel<Patient> {
         this.id = id;
     }
 
+    /**
+     * Returns the version of the patient.
+     * @return the version of the patient
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Sets the version of the patient.
+     * @param version the version the patient was read at
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     /**
      * Returns the first name of the patient.
      * @return the first name of the patient
@@ -0,0 +1,29 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Models;
+
+/**
+ * PatientResponse is the immutable view of a patient that is sent to clients.
+ * It is copied from the entity while the entity is still attached, so serializing it can never trigger a lazy load.
+ * @param id          the unique id of the patient
+ * @param version     the version of the patient
+ * @param firstName   the first name of the patient
+ * @param surname     the surname of the patient
+ * @param age         the age of the patient
+ * @param phoneNumber the phone number of the patient
+ * @param email       the email address of the patient
+ */
+public record PatientResponse(int id, long version, String firstName, String surname, int age,
+                              String phoneNumber, String email) {
+
+    /**
+     * Copies a patient into a response.
+     * @param patient the patient, may be null; it is loaded if it has not been yet
+     * @return the response, or null if the patient is null
+     */
+    public static PatientResponse of(Patient patient) {
+        if (patient == null) {
+            return null;
+        }
+        return new PatientResponse(patient.getId(), patient.getVersion(), patient.getFirstName(),
+                patient.getSurname(), patient.getAge(), patient.getPhoneNumber(), patient.getEmail());
+    }
+}
@@ -1,11 +1,215 @@
 package lt.viko.eif.d.svyrydenko.spring.rest.Repository;
 
+import jakarta.persistence.QueryHint;
+import lt.viko.eif.d.svyrydenko.spring.rest.Config.CacheConfig;
 import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentFact;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentSummary;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentTime;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
 /**
  * The AppointmentRepository interface is responsible for managing appointments in the system.
  * It extends the JpaRepository interface to inherit common CRUD operations and additional methods.
+ * The read methods fetch the patient of each appointment in the same query, so reading a list of appointments
+ * costs one statement instead of one per row. The doctors are loaded lazily: they are taken from the second-level
+ * cache, and the ones missing from it are read in batches, so the doctor table is not touched once the doctors
+ * are cached.
+ * The derived queries filtering by patient or doctor name the id through the association, as in {@code Patient_Id},
+ * since the appointment also has the transient {@code patientId} and {@code doctorId} it is read from requests with.
  */
 public interface AppointmentRepository extends JpaRepository<Appointment, Integer> {
-}
\ No newline at end of file
+
+    /**
+     * Returns the appointment with the given id together with its patient and doctor.
+     * @param id the id of the appointment
+     * @return the appointment, or empty if there is none with the given id
+     */
+    @Override
+    @EntityGraph(attributePaths = "patient", type = EntityGraph.EntityGraphType.LOAD)
+    Optional<Appointment> findById(Integer id);
+
+    /**
+     * Returns the appointment with the given id, served from the appointments cache when possible.
+     * The returned appointment is shared between requests and must not be modified. Its doctor is loaded as well,
+     * as it outlives the session it was read in.
+     * @param id the id of the appointment
+     * @return the appointment, or empty if there is none with the given id
+     */
+    @EntityGraph(attributePaths = {"patient", "doctor"}, type = EntityGraph.EntityGraphType.LOAD)
+    @Cacheable(cacheNames = CacheConfig.APPOINTMENTS, unless = "#result == null")
+    Optional<Appointment> findCachedById(Integer id);
+
+    /**
+     * Saves an appointment and evicts it from the cache once the transaction commits.
+     * Its patient and doctor are only referred to and not saved along with it.
+     * @param entity the appointment to be saved
+     * @return the saved appointment
+     * @param <S> the type of the appointment
+     */
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.APPOINTMENTS, key = "#p0.id")
+    <S extends Appointment> S save(S entity);
+
+    /**
+     * Deletes the appointment with the given id and evicts it from the cache once the transaction commits.
+     * @param id the id of the appointment
+     */
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.APPOINTMENTS, key = "#p0")
+    void deleteById(Integer id);
+
+    /**
+     * Returns the appointments whose id is greater than the given cursor, in ascending id order.
+     * @param after the id of the last appointment on the previous page
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} appointments
+     */
+    @EntityGraph(attributePaths = "patient", type = EntityGraph.EntityGraphType.LOAD)
+    List<Appointment> findByIdGreaterThanOrderByIdAsc(int after, Pageable pageable);
+
+    /**
+     * Returns the appointments whose id is less than the given cursor, in descending id order.
+     * @param before the id of the first appointment on the following page
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} appointments
+     */
+    @EntityGraph(attributePaths = "patient", type = EntityGraph.EntityGraphType.LOAD)
+    @ShardMerge(Sort.Direction.DESC)
+    List<Appointment> findByIdLessThanOrderByIdDesc(int before, Pageable pageable);
+
+    /**
+     * Returns the appointments of a doctor within a date range whose id is greater than the given cursor,
+     * in ascending id order. Served by the doctor_id and date index.
+     * @param doctorId the id of the doctor
+     * @param from the earliest date, inclusive
+     * @param to the latest date, inclusive
+     * @param after the id of the last appointment on the previous page
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} appointments
+     */
+    @EntityGraph(attributePaths = "patient", type = EntityGraph.EntityGraphType.LOAD)
+    List<Appointment> findByDoctor_IdAndDateBetweenAndIdGreaterThanOrderByIdAsc(
+            int doctorId, Date from, Date to, int after, Pageable pageable);
+
+    /**
+     * Returns the appointments of a patient within a date range whose id is greater than the given cursor,
+     * in ascending id order. Served by the patient_id and date index.
+     * @param patientId the id of the patient
+     * @param from the earliest date, inclusive
+     * @param to the latest date, inclusive
+     * @param after the id of the last appointment on the previous page
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} appointments
+     */
+    @EntityGraph(attributePaths = "patient", type = EntityGraph.EntityGraphType.LOAD)
+    List<Appointment> findByPatient_IdAndDateBetweenAndIdGreaterThanOrderByIdAsc(
+            @ShardKey int patientId, Date from, Date to, int after, Pageable pageable);
+
+    /**
+     * Returns all the appointments of a patient, e.g. to move them to another shard along with the patient.
+     * Served by the patient_id and date index.
+     * @param patientId the id of the patient
+     * @return the appointments of the patient
+     */
+    List<Appointment> findByPatient_Id(@ShardKey int patientId);
+
+    /**
+     * Returns the appointments of a patient with a doctor within a date range whose id is greater than
+     * the given cursor, in ascending id order. Served by the doctor_id and date index.
+     * @param doctorId the id of the doctor
+     * @param patientId the id of the patient
+     * @param from the earliest date, inclusive
+     * @param to the latest date, inclusive
+     * @param after the id of the last appointment on the previous page
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} appointments
+     */
+    @EntityGraph(attributePaths = "patient", type = EntityGraph.EntityGraphType.LOAD)
+    List<Appointment> findByDoctor_IdAndPatient_IdAndDateBetweenAndIdGreaterThanOrderByIdAsc(
+            int doctorId, @ShardKey int patientId, Date from, Date to, int after, Pageable pageable);
+
+    /**
+     * Returns the appointments within a date range whose id is greater than the given cursor,
+     * in ascending id order. Served by the date index.
+     * @param from the earliest date, inclusive
+     * @param to the latest date, inclusive
+     * @param after the id of the last appointment on the previous page
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} appointments
+     */
+    @EntityGraph(attributePaths = "patient", type = EntityGraph.EntityGraphType.LOAD)
+    List<Appointment> findByDateBetweenAndIdGreaterThanOrderByIdAsc(Date from, Date to, int after, Pageable pageable);
+
+    /**
+     * Streams all the appointments in ascending id order without loading them into memory at once.
+     * Must be called inside a transaction and the stream must be closed by the caller.
+     * @return a stream of all appointments
+     */
+    @EntityGraph(attributePaths = "patient", type = EntityGraph.EntityGraphType.LOAD)
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    Stream<Appointment> streamAllByOrderByIdAsc();
+
+    /**
+     * Streams the time and doctor of every appointment that has both.
+     * Must be called inside a transaction and the stream must be closed by the caller.
+     * @return a stream of appointment times
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select new lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentTime(a.id, a.doctor.id, a.date) "
+            + "from Appointment a where a.doctor is not null and a.date is not null")
+    Stream<AppointmentTime> streamAppointmentTimes();
+
+    /**
+     * Streams the columns every appointment is counted by in the reports, together with the specialty of its doctor.
+     * Must be called inside a transaction and the stream must be closed by the caller.
+     * @return a stream of appointment facts
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("select new lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentFact("
+            + "a.id, a.version, d.id, d.specialty, a.type, a.date) "
+            + "from Appointment a left join a.doctor d")
+    Stream<AppointmentFact> streamAppointmentFacts();
+
+    /**
+     * Returns the summaries of the appointments whose id is greater than the given cursor, in ascending id order.
+     * Only the columns shown in the appointment list are selected.
+     * @param after the id of the last appointment on the previous page
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} appointment summaries
+     */
+    @Query("select new lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentSummary("
+            + "a.id, a.type, a.date, p.id, p.firstName, p.surname, d.id, d.firstName, d.surname, d.specialty) "
+            + "from Appointment a left join a.patient p left join a.doctor d "
+            + "where a.id > :after order by a.id asc")
+    List<AppointmentSummary> findSummariesAfter(@Param("after") int after, Pageable pageable);
+
+    /**
+     * Returns the summaries of the appointments whose id is less than the given cursor, in descending id order.
+     * Only the columns shown in the appointment list are selected.
+     * @param before the id of the first appointment on the following page
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} appointment summaries
+     */
+    @Query("select new lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentSummary("
+            + "a.id, a.type, a.date, p.id, p.firstName, p.surname, d.id, d.firstName, d.surname, d.specialty) "
+            + "from Appointment a left join a.patient p left join a.doctor d "
+            + "where a.id < :before order by a.id desc")
+    @ShardMerge(Sort.Direction.DESC)
+    List<AppointmentSummary> findSummariesBefore(@Param("before") int before, Pageable pageable);
+}
@@ -0,0 +1,74 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Repository;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.ChangeEvent;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * The ChangeEventRepository interface is responsible for reading and trimming the change log.
+ * Events are written by the change log itself, within the transaction of the change they describe.
+ */
+public interface ChangeEventRepository extends JpaRepository<ChangeEvent, Long> {
+
+    /**
+     * Returns the events within a range of sequence numbers, in sequence order.
+     * @param since the sequence number the consumer has read up to
+     * @param upTo the highest sequence number to return
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} events
+     */
+    List<ChangeEvent> findBySeqGreaterThanAndSeqLessThanEqualOrderBySeqAsc(long since, long upTo, Pageable pageable);
+
+    /**
+     * Returns the highest sequence number in the change log.
+     * @return the highest sequence number, or null if the log is empty
+     */
+    @Query("select max(e.seq) from ChangeEvent e")
+    Long findMaxSeq();
+
+    /**
+     * Returns the lowest sequence number in the change log.
+     * @return the lowest sequence number, or null if the log is empty
+     */
+    @Query("select min(e.seq) from ChangeEvent e")
+    Long findMinSeq();
+
+    /**
+     * Returns the highest sequence number among the events recorded before the given time,
+     * not counting the newest event of the log.
+     * @param before the time before which events expire
+     * @param newest the sequence number of the newest event, which is always kept
+     * @return the highest sequence number of the expired events, or null if none expired
+     */
+    @Query("select max(e.seq) from ChangeEvent e where e.createdAt < :before and e.seq < :newest")
+    Long findMaxExpiredSeq(@Param("before") Instant before, @Param("newest") long newest);
+
+    /**
+     * Deletes the events up to the given sequence number.
+     * @param seq the highest sequence number to delete
+     * @return the number of deleted events
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from ChangeEvent e where e.seq <= :seq")
+    int deleteUpTo(@Param("seq") long seq);
+
+    /**
+     * Deletes the events recorded before the given time that were superseded by a later event of the same entity.
+     * @param before the time before which events are compacted
+     * @return the number of deleted events
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from ChangeEvent e where e.createdAt < :before and exists ("
+            + "select n.seq from ChangeEvent n "
+            + "where n.entityType = e.entityType and n.entityId = e.entityId and n.seq > e.seq)")
+    int deleteSuperseded(@Param("before") Instant before);
+}
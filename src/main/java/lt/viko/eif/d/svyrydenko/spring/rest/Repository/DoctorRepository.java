@@ -1,11 +1,90 @@
 package lt.viko.eif.d.svyrydenko.spring.rest.Repository;
 
+import jakarta.persistence.QueryHint;
+import lt.viko.eif.d.svyrydenko.spring.rest.Config.CacheConfig;
 import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
 /**
  * The DoctorRepository interface is responsible for managing doctors in the system.
  * It extends the JpaRepository interface to inherit common CRUD operations and additional methods.
  */
 public interface DoctorRepository extends JpaRepository<Doctor, Integer> {
-}
\ No newline at end of file
+
+    /**
+     * Returns the doctor with the given id, served from the doctors cache when possible.
+     * The returned doctor is shared between requests and must not be modified.
+     * @param id the id of the doctor
+     * @return the doctor, or empty if there is none with the given id
+     */
+    @Cacheable(cacheNames = CacheConfig.DOCTORS, unless = "#result == null")
+    Optional<Doctor> findCachedById(Integer id);
+
+    /**
+     * Saves a doctor and evicts it from the cache once the transaction commits.
+     * Cached appointments embed their doctor, so they are evicted as well.
+     * @param entity the doctor to be saved
+     * @return the saved doctor
+     * @param <S> the type of the doctor
+     */
+    @Override
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.DOCTORS, key = "#p0.id"),
+            @CacheEvict(cacheNames = CacheConfig.APPOINTMENTS, allEntries = true)
+    })
+    <S extends Doctor> S save(S entity);
+
+    /**
+     * Deletes the doctor with the given id and evicts it from the cache once the transaction commits.
+     * @param id the id of the doctor
+     */
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.DOCTORS, key = "#p0")
+    void deleteById(Integer id);
+
+    /**
+     * Returns the doctors whose id is greater than the given cursor, in ascending id order.
+     * @param after the id of the last doctor on the previous page
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} doctors
+     */
+    List<Doctor> findByIdGreaterThanOrderByIdAsc(int after, Pageable pageable);
+
+    /**
+     * Returns the doctors whose id is less than the given cursor, in descending id order.
+     * @param before the id of the first doctor on the following page
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} doctors
+     */
+    List<Doctor> findByIdLessThanOrderByIdDesc(int before, Pageable pageable);
+
+    /**
+     * Returns the doctors with the given specialty, ignoring case, in ascending id order.
+     * The result is kept in the Hibernate query cache until a doctor is written.
+     * @param specialty the specialty
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} doctors
+     */
+    @QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+    List<Doctor> findBySpecialtyIgnoreCaseOrderByIdAsc(String specialty, Pageable pageable);
+
+    /**
+     * Streams all the doctors in ascending id order without loading them into memory at once.
+     * Must be called inside a transaction and the stream must be closed by the caller.
+     * @return a stream of all doctors
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    Stream<Doctor> streamAllByOrderByIdAsc();
+}
@@ -1,11 +1,89 @@
 package lt.viko.eif.d.svyrydenko.spring.rest.Repository;
 
+import jakarta.persistence.QueryHint;
+import lt.viko.eif.d.svyrydenko.spring.rest.Config.CacheConfig;
 import lt.viko.eif.d.svyrydenko.spring.rest.Models.Patient;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
 /**
  * The PatientRepository interface is responsible for managing patients in the system.
  * It extends the JpaRepository interface to inherit common CRUD operations and additional methods.
  */
 public interface PatientRepository extends JpaRepository<Patient, Integer> {
+
+    /**
+     * Returns the patient with the given id, served from the patients cache when possible.
+     * The returned patient is shared between requests and must not be modified.
+     * @param id the id of the patient
+     * @return the patient, or empty if there is none with the given id
+     */
+    @Cacheable(cacheNames = CacheConfig.PATIENTS, unless = "#result == null")
+    Optional<Patient> findCachedById(@ShardKey Integer id);
+
+    /**
+     * Returns the patient with the given id.
+     * @param id the id of the patient
+     * @return the patient, or empty if there is none with the given id
+     */
+    @Override
+    Optional<Patient> findById(@ShardKey Integer id);
+
+    /**
+     * Saves a patient and evicts it from the cache once the transaction commits.
+     * Cached appointments embed their patient, so they are evicted as well.
+     * @param entity the patient to be saved
+     * @return the saved patient
+     * @param <S> the type of the patient
+     */
+    @Override
+    @Caching(evict = {
+            @CacheEvict(cacheNames = CacheConfig.PATIENTS, key = "#p0.id"),
+            @CacheEvict(cacheNames = CacheConfig.APPOINTMENTS, allEntries = true)
+    })
+    <S extends Patient> S save(S entity);
+
+    /**
+     * Deletes the patient with the given id and evicts it from the cache once the transaction commits.
+     * @param id the id of the patient
+     */
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.PATIENTS, key = "#p0")
+    void deleteById(@ShardKey Integer id);
+
+    /**
+     * Returns the patients whose id is greater than the given cursor, in ascending id order.
+     * @param after the id of the last patient on the previous page
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} patients
+     */
+    List<Patient> findByIdGreaterThanOrderByIdAsc(int after, Pageable pageable);
+
+    /**
+     * Returns the patients whose id is less than the given cursor, in descending id order.
+     * @param before the id of the first patient on the following page
+     * @param pageable the page size; only the first page is ever requested
+     * @return at most {@code pageable.getPageSize()} patients
+     */
+    @ShardMerge(Sort.Direction.DESC)
+    List<Patient> findByIdLessThanOrderByIdDesc(int before, Pageable pageable);
+
+    /**
+     * Streams all the patients in ascending id order without loading them into memory at once.
+     * Must be called inside a transaction and the stream must be closed by the caller.
+     * @return a stream of all patients
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    Stream<Patient> streamAllByOrderByIdAsc();
 }
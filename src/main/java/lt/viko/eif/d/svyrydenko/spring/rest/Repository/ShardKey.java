@@ -0,0 +1,17 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Repository;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the parameter of a repository method holding the id of the patient the method works with. When the
+ * application runs sharded, the method is run on the shard of that patient only, rather than on every shard.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface ShardKey {
+}
@@ -0,0 +1,25 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Repository;
+
+import org.springframework.data.domain.Sort;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Gives the id order a repository method returns its list in. When the application runs sharded, the lists every
+ * shard returns are merged in that order. Lists of methods without it are merged in ascending id order.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ShardMerge {
+
+    /**
+     * The order of the ids in the list.
+     * @return The direction.
+     */
+    Sort.Direction value();
+}
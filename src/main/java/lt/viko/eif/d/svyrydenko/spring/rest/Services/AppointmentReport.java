@@ -0,0 +1,321 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentFact;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.ChangeEvent;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.AppointmentRepository;
+import org.hibernate.Hibernate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * AppointmentReport keeps the number of appointments per doctor per day, per type and per doctor specialty
+ * in memory, so the reports cost as much as the number of groups they return instead of a scan of the appointments.
+ * The counters are built from the database at startup and then updated from every committed change to an appointment
+ * or doctor, by moving the contribution of the changed appointment from its old groups to its new ones.
+ * Changes are applied in commit order only as far as the versions of the appointments allow, so a late change
+ * cannot overwrite a newer one. Any remaining drift, e.g. from writes made around the application, is corrected by
+ * rebuilding the counters from the database on a schedule.
+ */
+@Component
+public class AppointmentReport implements SmartInitializingSingleton {
+
+    /**
+     * The largest number of days a single report may span.
+     */
+    public static final int MAX_DAYS = 366;
+
+    private static final Logger log = LoggerFactory.getLogger(AppointmentReport.class);
+
+    /**
+     * Stands for a missing type or specialty, as the concurrent maps cannot hold null keys.
+     */
+    private static final String NONE = "\u0000";
+
+    private final AppointmentRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final ZoneId zone;
+
+    /**
+     * The current counters. Replaced as a whole by {@link #rebuild}; changed only while holding the monitor of this.
+     */
+    private volatile Counters counters = new Counters();
+
+    /**
+     * The changes applied while a rebuild is running, replayed onto the rebuilt counters; null when none is running.
+     * Guarded by this.
+     */
+    private List<Consumer<Counters>> pending;
+
+    /**
+     * Constructor for the AppointmentReport.
+     * @param repository The repository the counters are rebuilt from.
+     * @param transactionManager The transaction manager used while rebuilding the counters.
+     * @param zone The time zone the days of the appointments are counted in.
+     */
+    public AppointmentReport(AppointmentRepository repository, PlatformTransactionManager transactionManager,
+                             @Value("${app.reports.zone:UTC}") ZoneId zone) {
+        this.repository = repository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.zone = zone;
+    }
+
+    /**
+     * Builds the counters from the database before the application starts serving requests.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        rebuild();
+    }
+
+    /**
+     * Rebuilds the counters from the database, correcting any drift, without blocking the reports or the writers.
+     * The changes committed while the appointments are read are replayed onto the new counters before they replace
+     * the current ones.
+     */
+    @Scheduled(cron = "${app.reports.rebuild-cron:0 0 3 * * *}")
+    public void rebuild() {
+        synchronized (this) {
+            if (pending != null) {
+                return;
+            }
+            pending = new ArrayList<>();
+        }
+        Counters rebuilt = new Counters();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<AppointmentFact> facts = repository.streamAppointmentFacts()) {
+                    facts.forEach(fact -> {
+                        if (fact.doctorId() != null) {
+                            rebuilt.specialty(fact.doctorId(), fact.doctorSpecialty());
+                        }
+                        rebuilt.appointment(fact.id(),
+                                contribution(fact.version(), fact.doctorId(), fact.type(), fact.date()));
+                    });
+                }
+            });
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                pending = null;
+            }
+            throw e;
+        }
+        synchronized (this) {
+            pending.forEach(change -> change.accept(rebuilt));
+            pending = null;
+            counters = rebuilt;
+        }
+        log.debug("Rebuilt the appointment reports from {} appointments", rebuilt.contributions.size());
+    }
+
+    /**
+     * Applies a committed change to an appointment or doctor to the counters.
+     * @param changed The committed change.
+     */
+    @TransactionalEventListener
+    void onChange(EntityChanged changed) {
+        ChangeEvent change = changed.change();
+        if (change.getEntityType() == ChangeEvent.EntityType.APPOINTMENT) {
+            if (change.getOperation() == ChangeEvent.Operation.DELETED) {
+                apply(current -> current.appointment(change.getEntityId(), null));
+            } else if (changed.entity() instanceof Appointment appointment) {
+                Doctor doctor = appointment.getDoctor();
+                Integer doctorId = doctor == null ? null : doctor.getId();
+                Contribution contribution = contribution(appointment.getVersion(), doctorId,
+                        appointment.getType(), appointment.getDate());
+                boolean knownSpecialty = doctor != null && Hibernate.isInitialized(doctor);
+                String specialty = knownSpecialty ? doctor.getSpecialty() : null;
+                apply(current -> {
+                    if (knownSpecialty) {
+                        current.specialty(doctorId, specialty);
+                    }
+                    current.appointment(change.getEntityId(), contribution);
+                });
+            }
+        } else if (change.getEntityType() == ChangeEvent.EntityType.DOCTOR
+                && change.getOperation() != ChangeEvent.Operation.DELETED
+                && changed.entity() instanceof Doctor doctor) {
+            String specialty = doctor.getSpecialty();
+            apply(current -> current.specialty(change.getEntityId(), specialty));
+        }
+    }
+
+    /**
+     * Counts the appointments of each doctor on each day within a date range.
+     * @param from The first day, inclusive.
+     * @param to The last day, inclusive.
+     * @param doctorId Only the appointments of this doctor are counted; all doctors if null.
+     * @return The counts by day and then by doctor id; days and doctors without appointments are left out.
+     */
+    public List<DoctorDayCount> doctorDays(LocalDate from, LocalDate to, Integer doctorId) {
+        if (to.isBefore(from)) {
+            throw new IllegalArgumentException("The range must not end before it starts");
+        }
+        if (ChronoUnit.DAYS.between(from, to) >= MAX_DAYS) {
+            throw new IllegalArgumentException("At most " + MAX_DAYS + " days can be reported at once");
+        }
+        List<DoctorDayCount> counts = new ArrayList<>();
+        for (Map.Entry<LocalDate, ConcurrentNavigableMap<Integer, Long>> day
+                : counters.doctorDays.subMap(from, true, to, true).entrySet()) {
+            if (doctorId != null) {
+                Long count = day.getValue().get(doctorId);
+                if (count != null) {
+                    counts.add(new DoctorDayCount(day.getKey(), doctorId, count));
+                }
+            } else {
+                day.getValue().forEach((doctor, count) -> counts.add(new DoctorDayCount(day.getKey(), doctor, count)));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the appointments of each type.
+     * @return The counts by type, in alphabetical order; the appointments without a type come first.
+     */
+    public List<GroupCount> types() {
+        return groups(counters.types);
+    }
+
+    /**
+     * Counts the appointments by the specialty of their doctor. Appointments without a doctor are not counted.
+     * @return The counts by specialty, in alphabetical order; doctors without a specialty come first.
+     */
+    public List<GroupCount> specialties() {
+        return groups(counters.specialties);
+    }
+
+    /**
+     * Applies a change to the current counters and, while a rebuild is running, records it to be replayed.
+     */
+    private synchronized void apply(Consumer<Counters> change) {
+        change.accept(counters);
+        if (pending != null) {
+            pending.add(change);
+        }
+    }
+
+    private Contribution contribution(long version, Integer doctorId, String type, Date date) {
+        LocalDate day = date == null ? null : Instant.ofEpochMilli(date.getTime()).atZone(zone).toLocalDate();
+        return new Contribution(version, doctorId, day, type == null ? NONE : type);
+    }
+
+    private static List<GroupCount> groups(ConcurrentNavigableMap<String, Long> counts) {
+        List<GroupCount> groups = new ArrayList<>(counts.size());
+        counts.forEach((key, count) -> groups.add(new GroupCount(NONE.equals(key) ? null : key, count)));
+        return groups;
+    }
+
+    /**
+     * What a single appointment adds to the counters.
+     * @param version the version of the appointment the contribution was taken from
+     * @param doctorId the id of the doctor, or null if the appointment has no doctor
+     * @param day the day of the appointment, or null if it has no date
+     * @param type the type of the appointment, or {@link #NONE}
+     */
+    private record Contribution(long version, Integer doctorId, LocalDate day, String type) {
+    }
+
+    /**
+     * One generation of counters. Readers use the maps without locking; every change is made while holding
+     * the monitor of the owning report, so each change moves a contribution as a whole.
+     */
+    private static final class Counters {
+
+        private final Map<Integer, Contribution> contributions = new ConcurrentHashMap<>();
+        private final ConcurrentNavigableMap<LocalDate, ConcurrentNavigableMap<Integer, Long>> doctorDays =
+                new ConcurrentSkipListMap<>();
+        private final ConcurrentNavigableMap<String, Long> types = new ConcurrentSkipListMap<>();
+        private final ConcurrentNavigableMap<String, Long> specialties = new ConcurrentSkipListMap<>();
+        private final Map<Integer, String> doctorSpecialties = new ConcurrentHashMap<>();
+        private final Map<Integer, Long> doctorTotals = new ConcurrentHashMap<>();
+
+        /**
+         * Replaces the contribution of an appointment, unless the stored one was taken from a newer version.
+         * @param id the id of the appointment
+         * @param contribution the new contribution, or null if the appointment was deleted
+         */
+        void appointment(int id, Contribution contribution) {
+            Contribution previous = contributions.get(id);
+            if (previous != null && contribution != null && previous.version() > contribution.version()) {
+                return;
+            }
+            if (previous != null) {
+                count(previous, -1);
+            }
+            if (contribution == null) {
+                contributions.remove(id);
+            } else {
+                contributions.put(id, contribution);
+                count(contribution, 1);
+            }
+        }
+
+        /**
+         * Sets the specialty of a doctor, moving the appointments of the doctor to the new specialty.
+         * The appointments of a doctor whose specialty is not known yet are counted as without a specialty.
+         * @param doctorId the id of the doctor
+         * @param specialty the specialty, may be null
+         */
+        void specialty(int doctorId, String specialty) {
+            String key = specialty == null ? NONE : specialty;
+            String previous = doctorSpecialties.put(doctorId, key);
+            if (key.equals(previous == null ? NONE : previous)) {
+                return;
+            }
+            long total = doctorTotals.getOrDefault(doctorId, 0L);
+            if (total != 0) {
+                add(specialties, previous == null ? NONE : previous, -total);
+                add(specialties, key, total);
+            }
+        }
+
+        private void count(Contribution contribution, long delta) {
+            add(types, contribution.type(), delta);
+            Integer doctorId = contribution.doctorId();
+            if (doctorId == null) {
+                return;
+            }
+            add(doctorTotals, doctorId, delta);
+            add(specialties, doctorSpecialties.getOrDefault(doctorId, NONE), delta);
+            if (contribution.day() != null) {
+                ConcurrentNavigableMap<Integer, Long> day =
+                        doctorDays.computeIfAbsent(contribution.day(), d -> new ConcurrentSkipListMap<>());
+                add(day, doctorId, delta);
+                if (day.isEmpty()) {
+                    doctorDays.remove(contribution.day(), day);
+                }
+            }
+        }
+
+        /**
+         * Adds to a count, removing it once it drops to zero so that empty groups are not reported.
+         */
+        private static <K> void add(Map<K, Long> counts, K key, long delta) {
+            counts.merge(key, delta, (count, change) -> count + change == 0 ? null : count + change);
+        }
+    }
+}
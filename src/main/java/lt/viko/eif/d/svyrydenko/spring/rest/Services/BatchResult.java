@@ -0,0 +1,18 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+/**
+ * BatchResult reports what happened to a single item of a batch write.
+ * @param index  the position of the item in the request, starting at 0
+ * @param id     the id of the saved entity, or null if the item failed
+ * @param status whether the item was created, updated or failed
+ * @param error  why the item failed, or null if it did not
+ */
+public record BatchResult(int index, Integer id, Status status, String error) {
+
+    /**
+     * The outcome of a single item.
+     */
+    public enum Status {
+        CREATED, UPDATED, FAILED
+    }
+}
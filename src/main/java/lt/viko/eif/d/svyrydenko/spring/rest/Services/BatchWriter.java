@@ -0,0 +1,191 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+
+/**
+ * BatchWriter saves large numbers of entities sent in a single request, either as a JSON array or as
+ * newline delimited JSON. The items are read one at a time and written in chunks, one transaction per chunk,
+ * so the inserts of a chunk can be sent to the database as JDBC batches.
+ * If a chunk fails, its items are written again one by one so that only the offending items are reported
+ * as failed.
+ * When the application runs sharded, a transaction may only write to one shard, so every item is written one by one
+ * from the start.
+ */
+@Component
+public class BatchWriter {
+
+    private final ObjectMapper objectMapper;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+    private final boolean oneByOne;
+
+    /**
+     * Constructor for the BatchWriter.
+     * @param objectMapper The object mapper used to read the items.
+     * @param entityManager The entity manager cleared after each chunk.
+     * @param transactionManager The transaction manager used to write each chunk.
+     * @param chunkSize The number of items written in one transaction.
+     * @param sharded Whether the application runs sharded, in which case the items are written one by one.
+     */
+    public BatchWriter(ObjectMapper objectMapper, EntityManager entityManager,
+                       PlatformTransactionManager transactionManager,
+                       @Value("${app.batch.chunk-size:500}") int chunkSize,
+                       @Value("${app.sharding.enabled:false}") boolean sharded) {
+        this.objectMapper = objectMapper;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+        this.oneByOne = sharded;
+    }
+
+    /**
+     * Reads entities from a request body and saves them chunk by chunk.
+     * @param body The request body holding a JSON array or newline delimited JSON.
+     * @param type The type of the entities.
+     * @param idOf Returns the id of an entity, 0 if it has none.
+     * @param writer Saves a single entity within the transaction of the chunk.
+     * @return The result of every item, in request order.
+     * @param <T> The type of the entities.
+     * @throws IOException if the body cannot be read or is not valid JSON.
+     */
+    public <T> List<BatchResult> write(InputStream body, Class<T> type, ToIntFunction<T> idOf,
+                                       ItemWriter<T> writer) throws IOException {
+        List<BatchResult> results = new ArrayList<>();
+        List<JsonNode> chunk = new ArrayList<>(chunkSize);
+        try (MappingIterator<JsonNode> items = objectMapper.readerFor(JsonNode.class).readValues(body)) {
+            while (items.hasNextValue()) {
+                if (oneByOne) {
+                    results.add(writeOne(items.nextValue(), results.size(), type, idOf, writer));
+                    continue;
+                }
+                chunk.add(items.nextValue());
+                if (chunk.size() == chunkSize) {
+                    writeChunk(chunk, results.size(), type, idOf, writer, results);
+                    chunk.clear();
+                }
+            }
+        }
+        if (!chunk.isEmpty()) {
+            writeChunk(chunk, results.size(), type, idOf, writer, results);
+        }
+        return results;
+    }
+
+    private <T> void writeChunk(List<JsonNode> chunk, int offset, Class<T> type, ToIntFunction<T> idOf,
+                                ItemWriter<T> writer, List<BatchResult> results) {
+        List<T> saved = new ArrayList<>(chunk.size());
+        List<BatchResult> chunkResults = new ArrayList<>(chunk.size());
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                for (int i = 0; i < chunk.size(); i++) {
+                    T item = read(chunk.get(i), type);
+                    int requestedId = idOf.applyAsInt(item);
+                    T entity = writer.save(item);
+                    saved.add(entity);
+                    chunkResults.add(success(offset + i, requestedId, idOf.applyAsInt(entity)));
+                }
+                entityManager.flush();
+            });
+            results.addAll(chunkResults);
+        } catch (RuntimeException e) {
+            saved.forEach(writer::rolledBack);
+            for (int i = 0; i < chunk.size(); i++) {
+                results.add(writeOne(chunk.get(i), offset + i, type, idOf, writer));
+            }
+        } finally {
+            entityManager.clear();
+        }
+    }
+
+    private <T> BatchResult writeOne(JsonNode node, int index, Class<T> type, ToIntFunction<T> idOf,
+                                     ItemWriter<T> writer) {
+        List<T> saved = new ArrayList<>(1);
+        try {
+            return transactionTemplate.execute(status -> {
+                T item = read(node, type);
+                int requestedId = idOf.applyAsInt(item);
+                T entity = writer.save(item);
+                saved.add(entity);
+                entityManager.flush();
+                return success(index, requestedId, idOf.applyAsInt(entity));
+            });
+        } catch (RuntimeException e) {
+            saved.forEach(writer::rolledBack);
+            return new BatchResult(index, null, BatchResult.Status.FAILED, e.getMessage());
+        }
+    }
+
+    private <T> T read(JsonNode node, Class<T> type) {
+        try {
+            return objectMapper.treeToValue(node, type);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException(e.getOriginalMessage(), e);
+        }
+    }
+
+    private static BatchResult success(int index, int requestedId, int id) {
+        BatchResult.Status status = requestedId == 0 || requestedId != id
+                ? BatchResult.Status.CREATED : BatchResult.Status.UPDATED;
+        return new BatchResult(index, id, status, null);
+    }
+
+    /**
+     * Saves a single item of a batch.
+     * @param <T> The type of the items.
+     */
+    @FunctionalInterface
+    public interface ItemWriter<T> {
+
+        /**
+         * Saves an item within the transaction of its chunk.
+         * @param item The item to be saved.
+         * @return The saved entity.
+         */
+        T save(T item);
+
+        /**
+         * Undoes any side effect of {@link #save} after the transaction of the chunk was rolled back.
+         * @param saved The entity returned by {@link #save}.
+         */
+        default void rolledBack(T saved) {
+        }
+
+        /**
+         * Creates an item writer with a rollback action.
+         * @param save Saves an item.
+         * @param rolledBack Undoes the side effects of saving an item.
+         * @return The item writer.
+         * @param <T> The type of the items.
+         */
+        static <T> ItemWriter<T> of(UnaryOperator<T> save, Consumer<T> rolledBack) {
+            return new ItemWriter<>() {
+                @Override
+                public T save(T item) {
+                    return save.apply(item);
+                }
+
+                @Override
+                public void rolledBack(T saved) {
+                    rolledBack.accept(saved);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import jakarta.persistence.EntityManager;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.ChangeEvent;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Patient;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.ChangeEventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * ChangeLog writes a {@link ChangeEvent} for every change to an appointment, patient or doctor, in the transaction
+ * of the change, and lets consumers read the committed events in sequence order.
+ * <p>
+ * Sequence numbers are handed out in memory when an event is recorded, but transactions do not commit in that
+ * order. A consumer that read event 12 while event 11 was still uncommitted would never see 11, so events are only
+ * readable up to the watermark: one less than the lowest sequence number whose transaction is still open.
+ * <p>
+ * Every recorded event is also published as an {@link EntityChanged} application event, together with the changed
+ * entity, so {@code @TransactionalEventListener}s can react to committed changes. The log is trimmed by a scheduled job: events superseded by a later event of the same
+ * entity are compacted away once they are older than {@code app.changes.compact-after}, and all events expire
+ * after {@code app.changes.retention}. The newest event is always kept, so sequence numbers survive a restart.
+ * <p>
+ * When the application runs sharded, the log is kept on the home shard, but a change written to another shard is
+ * committed there right before the home shard commits, see {@link Shards}. The event is therefore also written to
+ * the {@code change_event} table of that shard, in the same transaction as the change. If the home shard then fails
+ * to commit, the event is relayed to it from there, and stays in flight until it is: right away, or by a scheduled
+ * job every {@code app.changes.relay-interval}, which also empties the tables of the shards, and once more when the
+ * application starts.
+ */
+@Component
+public class ChangeLog implements SmartInitializingSingleton {
+
+    private static final Logger log = LoggerFactory.getLogger(ChangeLog.class);
+
+    private static final Map<ChangeEvent.EntityType, Class<?>> ENTITY_CLASSES = Map.of(
+            ChangeEvent.EntityType.APPOINTMENT, Appointment.class,
+            ChangeEvent.EntityType.PATIENT, Patient.class,
+            ChangeEvent.EntityType.DOCTOR, Doctor.class);
+
+    private final ChangeEventRepository repository;
+    private final EntityManager entityManager;
+    private final ApplicationEventPublisher publisher;
+    private final ObjectProvider<Shards> shards;
+    private final Duration retention;
+    private final Duration compactAfter;
+    private final Clock clock = Clock.systemUTC();
+
+    /**
+     * The sequence numbers whose transactions are still open. Guarded by this.
+     */
+    private final NavigableSet<Long> inFlight = new TreeSet<>();
+
+    /**
+     * The last sequence number handed out. Guarded by this.
+     */
+    private long lastSeq;
+
+    /**
+     * The highest sequence number removed by retention; consumers behind it have missed changes.
+     */
+    private volatile long expiredSeq;
+
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The sequence numbers of the events committed on a shard but not yet relayed to the home shard.
+     */
+    private final Set<Long> unrelayed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructor for the ChangeLog.
+     * @param repository The repository the events are read and trimmed through.
+     * @param entityManager The entity manager the events are written with.
+     * @param publisher The publisher every recorded event is published to.
+     * @param shards The shards the events are relayed from, available only when the application runs sharded.
+     * @param retention How long events are kept.
+     * @param compactAfter How old an event has to be before it is removed for being superseded.
+     */
+    public ChangeLog(ChangeEventRepository repository, EntityManager entityManager, ApplicationEventPublisher publisher,
+                     ObjectProvider<Shards> shards,
+                     @Value("${app.changes.retention:7d}") Duration retention,
+                     @Value("${app.changes.compact-after:1h}") Duration compactAfter) {
+        this.repository = repository;
+        this.entityManager = entityManager;
+        this.publisher = publisher;
+        this.shards = shards;
+        this.retention = retention;
+        this.compactAfter = compactAfter;
+    }
+
+    /**
+     * Continues the sequence numbers of the stored log, once the events left on the shards are relayed to it.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        Shards sharded = shards.getIfAvailable();
+        if (sharded != null) {
+            relay(sharded, Long.MAX_VALUE);
+        }
+        Long max = repository.findMaxSeq();
+        Long min = repository.findMinSeq();
+        synchronized (this) {
+            lastSeq = max == null ? 0 : max;
+        }
+        expiredSeq = min == null ? lastSeq : min - 1;
+    }
+
+    /**
+     * Records a change within the current transaction.
+     * @param entityType The kind of entity that changed.
+     * @param entityId The id of the entity.
+     * @param operation What happened to the entity.
+     * @param entity The entity as saved or as it was before it was deleted, or null if it is not known.
+     * @return The recorded event.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public ChangeEvent record(ChangeEvent.EntityType entityType, int entityId, ChangeEvent.Operation operation,
+                              Object entity) {
+        long seq;
+        synchronized (this) {
+            seq = ++lastSeq;
+            inFlight.add(seq);
+        }
+        ChangeEvent event = new ChangeEvent(seq, entityType, entityId, operation, clock.instant());
+        Shards sharded = shards.getIfAvailable();
+        Optional<Shards.ShardTransaction> shard = sharded == null ? Optional.empty()
+                : sharded.wrote(ENTITY_CLASSES.get(entityType), entityId);
+        shard.ifPresent(transaction -> transaction.persist(copyOf(event)));
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED && shard.isPresent() && shard.get().isCommitted()) {
+                    relayNow(sharded, event, entity);
+                } else {
+                    completed(seq);
+                }
+            }
+        });
+        entityManager.persist(event);
+        publisher.publishEvent(new EntityChanged(event, entity));
+        return event;
+    }
+
+    /**
+     * Reads the committed events after the given sequence number.
+     * @param since The sequence number the consumer has read up to; 0 to read from the start.
+     * @param limit The maximum number of events to return.
+     * @return The events in sequence order and the watermark they were read up to.
+     * @throws ChangesExpiredException if events after {@code since} were already removed by retention.
+     */
+    public Changes since(long since, int limit) {
+        long watermark = watermark();
+        if (since < expiredSeq) {
+            throw new ChangesExpiredException(expiredSeq, watermark);
+        }
+        List<ChangeEvent> events = watermark > since
+                ? repository.findBySeqGreaterThanAndSeqLessThanEqualOrderBySeqAsc(since, watermark, PageRequest.of(0, limit))
+                : List.of();
+        return new Changes(events, watermark);
+    }
+
+    /**
+     * Returns a future that completes once the watermark has moved past the given sequence number.
+     * The future completes on the thread that committed the change, so it must not do any work of its own
+     * on that thread. Cancelling the future stops waiting.
+     * @param watermark The watermark the caller has read up to.
+     * @return The future.
+     */
+    public CompletableFuture<Void> awaitAfter(long watermark) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        waiters.add(new Waiter(watermark, future));
+        if (watermark() > watermark) {
+            wakeWaiters();
+        }
+        return future;
+    }
+
+    /**
+     * Removes expired events and compacts superseded ones.
+     */
+    @Scheduled(fixedDelayString = "${app.changes.cleanup-interval:PT10M}",
+            initialDelayString = "${app.changes.cleanup-interval:PT10M}")
+    public void trim() {
+        Instant now = clock.instant();
+        long newest;
+        synchronized (this) {
+            newest = lastSeq;
+        }
+        Long expired = repository.findMaxExpiredSeq(now.minus(retention), newest);
+        if (expired != null) {
+            expiredSeq = Math.max(expiredSeq, expired);
+            repository.deleteUpTo(expired);
+        }
+        repository.deleteSuperseded(now.minus(compactAfter));
+    }
+
+    /**
+     * Relays the events committed on the shards other than the home shard to it, if they are missing there, and
+     * removes them from the shards. Only events up to the watermark, or that failed to be relayed before, are relayed;
+     * the others belong to transactions that are still open.
+     */
+    @Scheduled(fixedDelayString = "${app.changes.relay-interval:PT5S}",
+            initialDelayString = "${app.changes.relay-interval:PT5S}")
+    public void relay() {
+        Shards sharded = shards.getIfAvailable();
+        if (sharded != null) {
+            relay(sharded, watermark());
+        }
+    }
+
+    /**
+     * Returns the sequence number up to which all recorded events are committed.
+     * @return One less than the lowest sequence number whose transaction is still open, or the last one handed out.
+     */
+    public synchronized long watermark() {
+        return inFlight.isEmpty() ? lastSeq : inFlight.first() - 1;
+    }
+
+    private void relay(Shards sharded, long upTo) {
+        for (String shard : sharded.configured()) {
+            if (Shards.HOME.equals(shard)) {
+                continue;
+            }
+            try {
+                List<Long> retried = List.copyOf(unrelayed);
+                List<ChangeEvent> events = sharded.inNewTransaction(shard, true, () -> {
+                    List<ChangeEvent> found = new ArrayList<>(repository.findAllById(retried));
+                    found.addAll(repository.findBySeqGreaterThanAndSeqLessThanEqualOrderBySeqAsc(0, upTo,
+                            Pageable.unpaged()));
+                    return found;
+                });
+                for (ChangeEvent event : events) {
+                    relayed(sharded, event, null);
+                    if (unrelayed.remove(event.getSeq())) {
+                        completed(event.getSeq());
+                    }
+                }
+                if (!events.isEmpty()) {
+                    sharded.inNewTransaction(shard, false, () -> {
+                        repository.deleteAllByIdInBatch(events.stream().map(ChangeEvent::getSeq).toList());
+                        return null;
+                    });
+                }
+            } catch (RuntimeException e) {
+                log.warn("Could not relay the changes of shard {}", shard, e);
+            }
+        }
+    }
+
+    /**
+     * Relays an event committed on a shard, whose transaction failed to commit on the home shard, or leaves it in
+     * flight for {@link #relay()} to retry.
+     */
+    private void relayNow(Shards sharded, ChangeEvent event, Object entity) {
+        try {
+            relayed(sharded, event, entity);
+            completed(event.getSeq());
+        } catch (RuntimeException e) {
+            log.warn("Could not relay change {} to the home shard; it is retried", event.getSeq(), e);
+            unrelayed.add(event.getSeq());
+        }
+    }
+
+    /**
+     * Writes an event to the home shard if it is missing there, and publishes it once that commits.
+     */
+    private void relayed(Shards sharded, ChangeEvent event, Object entity) {
+        sharded.inNewTransaction(Shards.HOME, false, () -> {
+            if (entityManager.find(ChangeEvent.class, event.getSeq()) == null) {
+                ChangeEvent copy = copyOf(event);
+                entityManager.persist(copy);
+                publisher.publishEvent(new EntityChanged(copy, entity));
+            }
+            return null;
+        });
+    }
+
+    private static ChangeEvent copyOf(ChangeEvent event) {
+        return new ChangeEvent(event.getSeq(), event.getEntityType(), event.getEntityId(), event.getOperation(),
+                event.getCreatedAt());
+    }
+
+    private void completed(long seq) {
+        synchronized (this) {
+            inFlight.remove(seq);
+        }
+        wakeWaiters();
+    }
+
+    private void wakeWaiters() {
+        long watermark = watermark();
+        waiters.removeIf(waiter -> {
+            if (waiter.future().isDone()) {
+                return true;
+            }
+            if (waiter.watermark() < watermark) {
+                waiter.future().complete(null);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Committed events read from the log.
+     * @param events the events in sequence order
+     * @param watermark the sequence number up to which all committed events were visible when they were read
+     */
+    public record Changes(List<ChangeEvent> events, long watermark) {
+    }
+
+    /**
+     * A consumer waiting for the watermark to move past the one it has read up to.
+     * @param watermark the watermark the consumer has read up to
+     * @param future completed once the watermark has moved
+     */
+    private record Waiter(long watermark, CompletableFuture<Void> future) {
+    }
+}
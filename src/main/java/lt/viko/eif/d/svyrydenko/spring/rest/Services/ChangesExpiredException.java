@@ -0,0 +1,32 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a consumer asks for changes that were already removed from the change log by retention.
+ * The consumer has missed changes and has to read the current state again, then follow the log from the watermark.
+ */
+@ResponseStatus(HttpStatus.GONE)
+public class ChangesExpiredException extends RuntimeException {
+
+    private final long watermark;
+
+    /**
+     * Constructs a new ChangesExpiredException.
+     * @param expiredSeq the highest sequence number removed by retention
+     * @param watermark the sequence number to continue from after reading the current state
+     */
+    public ChangesExpiredException(long expiredSeq, long watermark) {
+        super("Changes up to " + expiredSeq + " have expired");
+        this.watermark = watermark;
+    }
+
+    /**
+     * Returns the sequence number to continue from after reading the current state.
+     * @return the watermark of the change log when the exception was thrown
+     */
+    public long getWatermark() {
+        return watermark;
+    }
+}
@@ -0,0 +1,12 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import java.time.LocalDate;
+
+/**
+ * DoctorDayCount is the number of appointments a doctor has on one day.
+ * @param date         the day
+ * @param doctorId     the id of the doctor
+ * @param appointments the number of appointments
+ */
+public record DoctorDayCount(LocalDate date, int doctorId, long appointments) {
+}
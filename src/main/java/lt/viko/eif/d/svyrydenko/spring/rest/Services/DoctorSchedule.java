@@ -0,0 +1,329 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentTime;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.AppointmentRepository;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+/**
+ * DoctorSchedule keeps the start time of every appointment in memory, in one sorted map per doctor.
+ * It answers whether a doctor is free at a given time in O(log n) and lists the free slots of a doctor
+ * without querying the database. The schedule is loaded from the database once at startup and then kept
+ * in sync by booking every created or changed appointment through {@link #book} and calling {@link #remove}
+ * when an appointment is deleted.
+ * Within a transaction, a changed appointment keeps its previous booking until the transaction commits, and a
+ * deleted one keeps its booking, so a rolled back change or delete leaves the schedule as it was.
+ * Every appointment is assumed to last the configured appointment length.
+ */
+@Component
+public class DoctorSchedule implements SmartInitializingSingleton {
+
+    /**
+     * The largest number of slots a single availability request may ask for.
+     */
+    public static final int MAX_SLOTS = 2000;
+
+    private final AppointmentRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final long appointmentLength;
+
+    /**
+     * The start times of the appointments of each doctor, mapped to the appointment ids.
+     * Reservations that are not confirmed yet are stored under a negative id. An appointment changed by a transaction
+     * that has not completed yet is stored at both its previous and its new time.
+     * Each map is guarded by its own monitor.
+     */
+    private final ConcurrentMap<Integer, NavigableMap<Long, Integer>> schedules = new ConcurrentHashMap<>();
+
+    /**
+     * Where each booked appointment is stored in {@link #schedules}, so it can be moved or removed by id.
+     */
+    private final ConcurrentMap<Integer, Booking> bookings = new ConcurrentHashMap<>();
+
+    private final AtomicInteger reservationIds = new AtomicInteger();
+
+    /**
+     * Constructor for the DoctorSchedule.
+     * @param repository The repository the schedule is loaded from.
+     * @param transactionManager The transaction manager used while loading the schedule.
+     * @param appointmentLength How long every appointment lasts.
+     */
+    public DoctorSchedule(AppointmentRepository repository, PlatformTransactionManager transactionManager,
+                          @Value("${app.schedule.appointment-length:30m}") Duration appointmentLength) {
+        this.repository = repository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.appointmentLength = appointmentLength.toMillis();
+    }
+
+    /**
+     * Loads the schedule of every doctor from the database before the application starts serving requests.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<AppointmentTime> times = repository.streamAppointmentTimes()) {
+                times.forEach(time -> {
+                    long start = time.date().getTime();
+                    scheduleOf(time.doctorId()).put(start, time.id());
+                    bookings.put(time.id(), new Booking(time.doctorId(), start));
+                });
+            }
+        });
+    }
+
+    /**
+     * Books an appointment, rejecting it if its doctor already has another appointment at an overlapping time.
+     * The time is reserved before the appointment is saved, so two concurrent bookings of the same time cannot
+     * both succeed, and the reservation is dropped again if saving fails.
+     * @param appointment The appointment to be booked; it may already exist when it is being changed.
+     * @param save Saves the appointment and returns the saved appointment.
+     * @return The saved appointment.
+     * @throws SlotTakenException if the doctor is not free at the time of the appointment.
+     */
+    public Appointment book(Appointment appointment, UnaryOperator<Appointment> save) {
+        Reservation reservation = reserve(appointment);
+        Appointment saved;
+        try {
+            saved = save.apply(appointment);
+        } catch (RuntimeException e) {
+            release(reservation);
+            throw e;
+        }
+        confirm(reservation, saved);
+        return saved;
+    }
+
+    /**
+     * Reserves the time of an appointment with its doctor.
+     * Appointments without a date or without a saved doctor are not checked, as they cannot clash.
+     * @param appointment The appointment to be reserved; its own current booking does not count as a clash.
+     * @return The reservation, to be confirmed once the appointment is saved or released if it is not.
+     * @throws SlotTakenException if the doctor is not free at the time of the appointment.
+     */
+    public Reservation reserve(Appointment appointment) {
+        if (appointment.getDate() == null || appointment.getDoctor() == null || appointment.getDoctor().getId() == 0) {
+            return new Reservation(0, 0, 0);
+        }
+        int doctorId = appointment.getDoctor().getId();
+        long start = appointment.getDate().getTime();
+        int placeholder = -reservationIds.incrementAndGet();
+
+        NavigableMap<Long, Integer> schedule = scheduleOf(doctorId);
+        synchronized (schedule) {
+            if (clashes(schedule, start, appointment.getId())) {
+                throw new SlotTakenException("Doctor " + doctorId + " is not free at " + appointment.getDate().toInstant());
+            }
+            Integer booked = schedule.get(start);
+            if (booked != null && booked == appointment.getId()) {
+                // The appointment keeps its time, which it already holds.
+                return new Reservation(doctorId, start, 0);
+            }
+            schedule.put(start, placeholder);
+        }
+        return new Reservation(doctorId, start, placeholder);
+    }
+
+    /**
+     * Replaces a reservation with the saved appointment. The previous booking of that appointment is dropped once the
+     * current transaction commits, and the new one is dropped instead if it rolls back.
+     * @param reservation The reservation made for the appointment.
+     * @param saved The saved appointment.
+     */
+    public void confirm(Reservation reservation, Appointment saved) {
+        int appointmentId = saved.getId();
+        Booking previous = bookings.get(appointmentId);
+        if (saved.getDate() == null || saved.getDoctor() == null) {
+            release(reservation);
+            afterCompletion(() -> drop(appointmentId, previous), () -> { });
+            return;
+        }
+        Booking booking = new Booking(saved.getDoctor().getId(), saved.getDate().getTime());
+        if (reservation.placeholder() != 0
+                && (reservation.doctorId() != booking.doctorId() || reservation.start() != booking.start())) {
+            release(reservation);
+        }
+        NavigableMap<Long, Integer> schedule = scheduleOf(booking.doctorId());
+        synchronized (schedule) {
+            schedule.put(booking.start(), appointmentId);
+        }
+        bookings.put(appointmentId, booking);
+        if (booking.equals(previous)) {
+            return;
+        }
+        afterCompletion(() -> unbook(appointmentId, previous), () -> {
+            unbook(appointmentId, booking);
+            if (previous == null) {
+                bookings.remove(appointmentId, booking);
+            } else {
+                bookings.replace(appointmentId, booking, previous);
+            }
+        });
+    }
+
+    /**
+     * Drops a reservation that was not confirmed.
+     * @param reservation The reservation to be dropped.
+     */
+    public void release(Reservation reservation) {
+        if (reservation.placeholder() == 0) {
+            return;
+        }
+        NavigableMap<Long, Integer> schedule = scheduleOf(reservation.doctorId());
+        synchronized (schedule) {
+            schedule.remove(reservation.start(), reservation.placeholder());
+        }
+    }
+
+    /**
+     * Removes an appointment from the schedule of its doctor once the current transaction commits.
+     * @param appointmentId The id of the appointment that was deleted.
+     */
+    public void remove(int appointmentId) {
+        Booking booking = bookings.get(appointmentId);
+        if (booking != null) {
+            afterCompletion(() -> drop(appointmentId, booking), () -> { });
+        }
+    }
+
+    /**
+     * Lists the slots of a doctor within a time range that do not overlap any appointment.
+     * The slots are laid out back to back from the start of the range.
+     * @param doctorId The id of the doctor.
+     * @param from The start of the range.
+     * @param to The end of the range.
+     * @param slot The length of each slot.
+     * @return The free slots in chronological order.
+     */
+    public List<TimeSlot> freeSlots(int doctorId, Instant from, Instant to, Duration slot) {
+        long first = from.toEpochMilli();
+        long last = to.toEpochMilli();
+        long step = slot.toMillis();
+        if (step <= 0 || last < first) {
+            throw new IllegalArgumentException("The slot must be positive and the range must not end before it starts");
+        }
+        if ((last - first) / step > MAX_SLOTS) {
+            throw new IllegalArgumentException("At most " + MAX_SLOTS + " slots can be listed at once");
+        }
+
+        List<Long> starts;
+        NavigableMap<Long, Integer> schedule = scheduleOf(doctorId);
+        synchronized (schedule) {
+            starts = new ArrayList<>(schedule.subMap(first - appointmentLength, false, last, false).keySet());
+        }
+
+        List<TimeSlot> free = new ArrayList<>();
+        int next = 0;
+        for (long start = first; start + step <= last; start += step) {
+            while (next < starts.size() && starts.get(next) + appointmentLength <= start) {
+                next++;
+            }
+            if (next == starts.size() || starts.get(next) >= start + step) {
+                free.add(new TimeSlot(Instant.ofEpochMilli(start), Instant.ofEpochMilli(start + step)));
+            }
+        }
+        return free;
+    }
+
+    /**
+     * Checks whether an appointment starting at the given time would overlap another booking.
+     * Bookings never overlap each other, so only the nearest booking on each side has to be checked.
+     */
+    private boolean clashes(NavigableMap<Long, Integer> schedule, long start, int appointmentId) {
+        Map.Entry<Long, Integer> before = schedule.floorEntry(start);
+        while (before != null && before.getValue() == appointmentId) {
+            before = schedule.lowerEntry(before.getKey());
+        }
+        if (before != null && before.getKey() + appointmentLength > start) {
+            return true;
+        }
+        Map.Entry<Long, Integer> after = schedule.higherEntry(start);
+        while (after != null && after.getValue() == appointmentId) {
+            after = schedule.higherEntry(after.getKey());
+        }
+        return after != null && after.getKey() < start + appointmentLength;
+    }
+
+    /**
+     * Drops a booking of an appointment, unless the appointment was booked again since.
+     */
+    private void drop(int appointmentId, Booking booking) {
+        if (booking != null && bookings.remove(appointmentId, booking)) {
+            unbook(appointmentId, booking);
+        }
+    }
+
+    /**
+     * Frees the time of a booking in the schedule of its doctor, if the appointment still holds it.
+     */
+    private void unbook(int appointmentId, Booking booking) {
+        if (booking == null) {
+            return;
+        }
+        NavigableMap<Long, Integer> schedule = scheduleOf(booking.doctorId());
+        synchronized (schedule) {
+            schedule.remove(booking.start(), appointmentId);
+        }
+    }
+
+    /**
+     * Runs one action once the current transaction commits and another once it rolls back, or the first right away
+     * outside a transaction.
+     */
+    private static void afterCompletion(Runnable committed, Runnable rolledBack) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            committed.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    committed.run();
+                } else if (status == STATUS_ROLLED_BACK) {
+                    rolledBack.run();
+                }
+            }
+        });
+    }
+
+    private NavigableMap<Long, Integer> scheduleOf(int doctorId) {
+        return schedules.computeIfAbsent(doctorId, id -> new TreeMap<>());
+    }
+
+    /**
+     * A time held for an appointment that is being saved.
+     * @param doctorId the id of the doctor
+     * @param start the start of the appointment in epoch milliseconds
+     * @param placeholder the negative id the time is held under, or 0 if nothing was reserved
+     */
+    public record Reservation(int doctorId, long start, int placeholder) {
+    }
+
+    /**
+     * Where an appointment is stored in the schedule.
+     * @param doctorId the id of the doctor
+     * @param start the start of the appointment in epoch milliseconds
+     */
+    private record Booking(int doctorId, long start) {
+    }
+}
@@ -0,0 +1,12 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.ChangeEvent;
+
+/**
+ * The application event published for every change recorded in the {@link ChangeLog}.
+ * Listen to it with {@code @TransactionalEventListener} to react only to committed changes.
+ * @param change the recorded change
+ * @param entity the entity as saved or as it was before it was deleted, or null if it is not known
+ */
+public record EntityChanged(ChangeEvent change, Object entity) {
+}
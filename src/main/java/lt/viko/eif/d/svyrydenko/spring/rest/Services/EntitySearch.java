@@ -0,0 +1,153 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import jakarta.persistence.EntityManager;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Patient;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.DoctorRepository;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.PatientRepository;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * EntitySearch answers typeahead searches over patients and doctors from in-memory prefix indexes,
+ * without querying the database. Patients are indexed by name, phone number and email, doctors by name and specialty.
+ * The indexes are loaded from the database once at startup and then kept in sync by calling {@code index} for every
+ * saved patient or doctor and {@code remove} for every deleted one. Changes made within a transaction are only
+ * applied once it commits, so a rolled back write never shows up in the results.
+ */
+@Component
+public class EntitySearch implements SmartInitializingSingleton {
+
+    private final PatientRepository patientRepository;
+    private final DoctorRepository doctorRepository;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+
+    private final PrefixIndex patients = new PrefixIndex();
+    private final PrefixIndex doctors = new PrefixIndex();
+
+    /**
+     * Constructor for the EntitySearch.
+     * @param patientRepository The repository the patients are loaded from.
+     * @param doctorRepository The repository the doctors are loaded from.
+     * @param entityManager The entity manager the loaded entities are detached from.
+     * @param transactionManager The transaction manager used while loading the indexes.
+     */
+    public EntitySearch(PatientRepository patientRepository, DoctorRepository doctorRepository,
+                        EntityManager entityManager, PlatformTransactionManager transactionManager) {
+        this.patientRepository = patientRepository;
+        this.doctorRepository = doctorRepository;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * Loads the indexes from the database before the application starts serving requests.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        transactionTemplate.executeWithoutResult(status -> {
+            try (Stream<Patient> all = patientRepository.streamAllByOrderByIdAsc()) {
+                all.forEach(patient -> {
+                    indexNow(patient);
+                    entityManager.detach(patient);
+                });
+            }
+            try (Stream<Doctor> all = doctorRepository.streamAllByOrderByIdAsc()) {
+                all.forEach(doctor -> {
+                    indexNow(doctor);
+                    entityManager.detach(doctor);
+                });
+            }
+        });
+    }
+
+    /**
+     * Indexes a saved patient, replacing its previous entry.
+     * @param patient The saved patient; ignored if null.
+     */
+    public void index(Patient patient) {
+        if (patient != null) {
+            afterCommit(() -> indexNow(patient));
+        }
+    }
+
+    /**
+     * Indexes a saved doctor, replacing its previous entry.
+     * @param doctor The saved doctor; ignored if null.
+     */
+    public void index(Doctor doctor) {
+        if (doctor != null) {
+            afterCommit(() -> indexNow(doctor));
+        }
+    }
+
+    /**
+     * Removes a deleted patient from the index.
+     * @param id The id of the patient.
+     */
+    public void removePatient(int id) {
+        afterCommit(() -> patients.remove(id));
+    }
+
+    /**
+     * Removes a deleted doctor from the index.
+     * @param id The id of the doctor.
+     */
+    public void removeDoctor(int id) {
+        afterCommit(() -> doctors.remove(id));
+    }
+
+    /**
+     * Finds the patients whose name, phone number or email contain a word starting with each word of the query.
+     * @param query The query.
+     * @param limit The maximum number of ids to return.
+     * @return The ids of the matching patients in ascending order.
+     */
+    public List<Integer> searchPatients(String query, int limit) {
+        return patients.search(query, limit);
+    }
+
+    /**
+     * Finds the doctors whose name or specialty contain a word starting with each word of the query.
+     * @param query The query.
+     * @param limit The maximum number of ids to return.
+     * @return The ids of the matching doctors in ascending order.
+     */
+    public List<Integer> searchDoctors(String query, int limit) {
+        return doctors.search(query, limit);
+    }
+
+    private void indexNow(Patient patient) {
+        patients.put(patient.getId(), patient.getFirstName(), patient.getSurname(), patient.getPhoneNumber(),
+                patient.getEmail());
+    }
+
+    private void indexNow(Doctor doctor) {
+        doctors.put(doctor.getId(), doctor.getFirstName(), doctor.getSurname(), doctor.getSpecialty());
+    }
+
+    /**
+     * Runs an index update once the current transaction commits, or right away outside a transaction.
+     */
+    private static void afterCommit(Runnable update) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            update.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                update.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,310 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.orm.jpa.JpaDialect;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * GroupCommitter writes single entities sent by concurrent requests, optionally committing them in groups.
+ * When group commit is disabled, which is the default, every write is made in its own transaction on the calling
+ * thread. When it is enabled, the writes are queued and a single committer thread writes them in batches of up to
+ * {@code app.group-commit.max-batch-size}, one transaction and so one commit per batch. A batch is committed once it
+ * is full or once its first write has waited {@code app.group-commit.max-delay}, which bounds the time added to any
+ * request. Each caller waits for its own write and gets back its own saved entity or exception.
+ * A write that fails without spoiling the transaction of its batch, such as a booking rejected by the schedule,
+ * fails alone. If the batch as a whole fails, its other writes are made again one by one, so only the offending
+ * writes fail, as in {@link BatchWriter}. Saving changes the entities, e.g. by giving them ids, so each queued
+ * entity is copied to a JSON tree first and the writes made again start from a fresh copy.
+ * The queue is lock-free and bounded by {@code app.group-commit.queue-capacity}; a write arriving when it is full
+ * is rejected with {@link WriteQueueFullException} instead of waiting.
+ * Group commit is not used when the application runs sharded, as a transaction may only write to one shard.
+ */
+@Component
+public class GroupCommitter implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(GroupCommitter.class);
+
+    /**
+     * Translates the exceptions of a flush as the repositories do, so a violated constraint fails the write with a
+     * {@link org.springframework.dao.DataIntegrityViolationException}.
+     */
+    private static final JpaDialect DIALECT = new HibernateJpaDialect();
+
+    private final ObjectMapper objectMapper;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int maxBatchSize;
+    private final long maxDelay;
+    private final int queueCapacity;
+    private final Queue<PendingWrite<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final DistributionSummary batchSizes;
+    private final Thread committer;
+    private volatile boolean running = true;
+
+    /**
+     * Constructor for the GroupCommitter.
+     * @param objectMapper The object mapper the queued entities are copied with.
+     * @param entityManager The entity manager flushed before each commit.
+     * @param transactionManager The transaction manager used to write each batch.
+     * @param meterRegistry The registry the sizes of the committed batches are reported to.
+     * @param sharded Whether the application runs sharded, in which case the writes are not grouped.
+     * @param enabled Whether the writes are committed in groups.
+     * @param maxBatchSize The largest number of writes committed together.
+     * @param maxDelay How long a batch waits for more writes after its first one was queued.
+     * @param queueCapacity The largest number of writes waiting to be committed.
+     */
+    public GroupCommitter(ObjectMapper objectMapper, EntityManager entityManager, PlatformTransactionManager transactionManager,
+                          MeterRegistry meterRegistry,
+                          @Value("${app.sharding.enabled:false}") boolean sharded,
+                          @Value("${app.group-commit.enabled:false}") boolean enabled,
+                          @Value("${app.group-commit.max-batch-size:50}") int maxBatchSize,
+                          @Value("${app.group-commit.max-delay:2ms}") Duration maxDelay,
+                          @Value("${app.group-commit.queue-capacity:1000}") int queueCapacity) {
+        this.objectMapper = objectMapper;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        if (enabled && sharded) {
+            log.warn("Group commit is not used when the application runs sharded");
+        }
+        this.enabled = enabled && !sharded;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelay = maxDelay.toNanos();
+        this.queueCapacity = queueCapacity;
+        this.batchSizes = DistributionSummary.builder("app.group-commit.batch.size")
+                .description("The number of writes committed in one transaction")
+                .register(meterRegistry);
+        if (this.enabled) {
+            committer = new Thread(this::run, "group-commit");
+            committer.setDaemon(true);
+            committer.start();
+        } else {
+            committer = null;
+        }
+    }
+
+    /**
+     * Saves an entity and commits it, waiting until the commit is done.
+     * @param item The entity to be saved.
+     * @param writer Saves the entity within the transaction and undoes its side effects if the transaction fails.
+     * @return The saved entity.
+     * @param <T> The type of the entity.
+     * @throws WriteQueueFullException if the write cannot be queued.
+     */
+    public <T> T write(T item, BatchWriter.ItemWriter<T> writer) {
+        PendingWrite<T> write = new PendingWrite<>(item, writer, System.nanoTime());
+        if (!enabled) {
+            writeOne(write);
+        } else {
+            write.snapshot = objectMapper.valueToTree(item);
+            if (queued.incrementAndGet() > queueCapacity || !running) {
+                queued.decrementAndGet();
+                throw new WriteQueueFullException("Too many writes waiting to be committed");
+            }
+            queue.offer(write);
+            LockSupport.unpark(committer);
+        }
+        try {
+            return write.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the committer once the writes already queued are committed, rejecting any write queued after it stopped.
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        if (committer == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(committer);
+        committer.join(Duration.ofSeconds(10).toMillis());
+        for (PendingWrite<?> write = queue.poll(); write != null; write = queue.poll()) {
+            write.result.completeExceptionally(new WriteQueueFullException("The application is shutting down"));
+        }
+    }
+
+    private void run() {
+        List<PendingWrite<?>> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            PendingWrite<?> first = queue.poll();
+            if (first == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            batch.add(first);
+            long deadline = first.queuedAt + maxDelay;
+            while (batch.size() < maxBatchSize) {
+                PendingWrite<?> next = queue.poll();
+                if (next != null) {
+                    batch.add(next);
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !running) {
+                    break;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+            queued.addAndGet(-batch.size());
+            try {
+                commit(batch);
+            } catch (RuntimeException | Error e) {
+                log.error("Group commit failed", e);
+                batch.forEach(write -> write.result.completeExceptionally(e));
+            }
+            batch.clear();
+        }
+    }
+
+    private void commit(List<PendingWrite<?>> batch) {
+        if (batch.size() == 1) {
+            if (saveOne(batch.get(0))) {
+                batchSizes.record(1);
+                batch.get(0).committed();
+            }
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                for (PendingWrite<?> write : batch) {
+                    try {
+                        write.save();
+                    } catch (RuntimeException e) {
+                        if (status.isRollbackOnly()) {
+                            throw e;
+                        }
+                        write.result.completeExceptionally(e);
+                    }
+                }
+                flush();
+            });
+        } catch (RuntimeException e) {
+            batch.forEach(PendingWrite::rolledBack);
+            log.debug("A batch of {} writes failed and is written one by one", batch.size(), e);
+            for (PendingWrite<?> write : batch) {
+                if (!write.result.isDone()) {
+                    write.restore(objectMapper);
+                    writeOne(write);
+                }
+            }
+            return;
+        }
+        List<PendingWrite<?>> committed = batch.stream().filter(write -> !write.result.isDone()).toList();
+        batchSizes.record(committed.size());
+        committed.forEach(PendingWrite::committed);
+    }
+
+    /**
+     * Makes a single write in a transaction of its own and hands its result to its caller.
+     */
+    private void writeOne(PendingWrite<?> write) {
+        if (saveOne(write)) {
+            write.committed();
+        }
+    }
+
+    /**
+     * Makes a single write in a transaction of its own, failing it if the transaction fails. The caller of a
+     * committed write is not released, so that the batch is recorded first.
+     * @return Whether the write was committed.
+     */
+    private boolean saveOne(PendingWrite<?> write) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                write.save();
+                flush();
+            });
+        } catch (RuntimeException e) {
+            write.rolledBack();
+            write.result.completeExceptionally(e);
+            return false;
+        }
+        return true;
+    }
+
+    private void flush() {
+        try {
+            entityManager.flush();
+        } catch (RuntimeException e) {
+            DataAccessException translated = DIALECT.translateExceptionIfPossible(e);
+            throw translated != null ? translated : e;
+        }
+    }
+
+    /**
+     * A write waiting to be committed, together with the future its caller waits on.
+     */
+    private static final class PendingWrite<T> {
+
+        private final BatchWriter.ItemWriter<T> writer;
+        private final long queuedAt;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private T item;
+        private JsonNode snapshot;
+        private T saved;
+
+        PendingWrite(T item, BatchWriter.ItemWriter<T> writer, long queuedAt) {
+            this.item = item;
+            this.writer = writer;
+            this.queuedAt = queuedAt;
+        }
+
+        void save() {
+            saved = writer.save(item);
+        }
+
+        /**
+         * Replaces the entity with a fresh copy of it as it was queued.
+         */
+        @SuppressWarnings("unchecked")
+        void restore(ObjectMapper objectMapper) {
+            try {
+                item = (T) objectMapper.treeToValue(snapshot, item.getClass());
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void rolledBack() {
+            if (saved != null) {
+                writer.rolledBack(saved);
+                saved = null;
+            }
+        }
+
+        void committed() {
+            result.complete(saved);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+/**
+ * GroupCount is the number of appointments in one group, e.g. of one type.
+ * @param key          the value the appointments are grouped by, or null for the appointments without one
+ * @param appointments the number of appointments
+ */
+public record GroupCount(String key, long appointments) {
+}
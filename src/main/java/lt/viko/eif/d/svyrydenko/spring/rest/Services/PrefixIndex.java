@@ -0,0 +1,156 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+/**
+ * An inverted index from the words of some text fields to the ids of the entities they belong to, kept in a sorted
+ * map so that every word starting with a given prefix is found with a single range scan.
+ * Words are lower-cased and stripped of diacritics, so "zemaite" finds "Žemaitė", and split at every character
+ * that is neither a letter nor a digit. A field or query made of digits and the separators of phone numbers only,
+ * such as "+370 612", is also taken as a single word of its digits, so it finds "+370 612 34567" and "+37061234567".
+ * Searches do not lock and may run concurrently with updates; updates are serialized.
+ */
+public class PrefixIndex {
+
+    private static final Pattern DIACRITICS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern PHONE_NUMBER = Pattern.compile("[+(]*\\d[\\d\\s()./-]*");
+    private static final Pattern NON_DIGITS = Pattern.compile("\\D+");
+
+    /**
+     * The ids of the entities containing each word.
+     */
+    private final NavigableMap<String, Set<Integer>> postings = new ConcurrentSkipListMap<>();
+
+    /**
+     * The words of each entity, so that they can be unlinked when it is updated or removed.
+     */
+    private final Map<Integer, Set<String>> words = new ConcurrentHashMap<>();
+
+    /**
+     * Indexes an entity under the words of its fields, replacing whatever it was indexed under before.
+     * @param id The id of the entity.
+     * @param fields The text fields of the entity; null fields are skipped.
+     */
+    public synchronized void put(int id, String... fields) {
+        Set<String> newWords = new HashSet<>();
+        for (String field : fields) {
+            newWords.addAll(tokenize(field));
+            if (isPhoneNumber(field)) {
+                newWords.add(digits(field));
+            }
+        }
+        Set<String> oldWords = words.put(id, newWords);
+        if (oldWords != null) {
+            for (String word : oldWords) {
+                if (!newWords.contains(word)) {
+                    unlink(word, id);
+                }
+            }
+        }
+        for (String word : newWords) {
+            postings.computeIfAbsent(word, w -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+    }
+
+    /**
+     * Removes an entity from the index.
+     * @param id The id of the entity.
+     */
+    public synchronized void remove(int id) {
+        Set<String> oldWords = words.remove(id);
+        if (oldWords != null) {
+            for (String word : oldWords) {
+                unlink(word, id);
+            }
+        }
+    }
+
+    /**
+     * Finds the entities that contain, for every word of the query, a word starting with it.
+     * @param query The query, e.g. "jon pet" for Jonas Petraitis.
+     * @param limit The maximum number of ids to return.
+     * @return The ids of the matching entities in ascending order; empty if the query has no words.
+     */
+    public List<Integer> search(String query, int limit) {
+        List<String> prefixes = isPhoneNumber(query) ? List.of(digits(query)) : tokenize(query);
+        if (prefixes.isEmpty()) {
+            return List.of();
+        }
+        List<Set<Integer>> matches = new ArrayList<>(prefixes.size());
+        for (String prefix : prefixes) {
+            Set<Integer> ids = new HashSet<>();
+            for (Set<Integer> posting : postings.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+                ids.addAll(posting);
+            }
+            if (ids.isEmpty()) {
+                return List.of();
+            }
+            matches.add(ids);
+        }
+        matches.sort(Comparator.comparingInt(Set::size));
+        Set<Integer> result = matches.get(0);
+        for (Set<Integer> ids : matches.subList(1, matches.size())) {
+            result.retainAll(ids);
+        }
+        return result.stream().sorted().limit(limit).toList();
+    }
+
+    /**
+     * Returns the number of entities in the index.
+     * @return The number of indexed entities.
+     */
+    public int size() {
+        return words.size();
+    }
+
+    private void unlink(String word, int id) {
+        Set<Integer> ids = postings.get(word);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                postings.remove(word);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a text is made of digits and the separators of phone numbers only.
+     */
+    static boolean isPhoneNumber(String text) {
+        return text != null && PHONE_NUMBER.matcher(text.strip()).matches();
+    }
+
+    /**
+     * Returns the digits of a text.
+     */
+    static String digits(String text) {
+        return NON_DIGITS.matcher(text).replaceAll("");
+    }
+
+    /**
+     * Splits a text into its normalized words.
+     */
+    static List<String> tokenize(String text) {
+        if (text == null || text.isBlank()) {
+            return List.of();
+        }
+        String folded = DIACRITICS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return Arrays.stream(SEPARATORS.split(folded.toLowerCase(Locale.ROOT)))
+                .filter(token -> !token.isEmpty())
+                .distinct()
+                .toList();
+    }
+}
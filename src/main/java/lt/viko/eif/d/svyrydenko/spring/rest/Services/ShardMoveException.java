@@ -0,0 +1,20 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when an appointment is saved with a patient placed on another shard than the one the appointment is on,
+ * as it would have to be moved between the shards.
+ */
+@ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+public class ShardMoveException extends RuntimeException {
+
+    /**
+     * Constructs a new ShardMoveException with the given message.
+     * @param message the description of the move
+     */
+    public ShardMoveException(String message) {
+        super(message);
+    }
+}
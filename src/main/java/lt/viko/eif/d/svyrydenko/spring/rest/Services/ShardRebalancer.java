@@ -0,0 +1,194 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import jakarta.persistence.EntityManager;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Patient;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.AppointmentRepository;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.DoctorRepository;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.PatientRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * ShardRebalancer changes the shards the patients are placed on while the application keeps serving requests,
+ * e.g. to add a shard once it is configured.
+ * The doctors are first copied to the shards joining the ring, in case some were saved before the shard was
+ * configured. Every shard is then read page by page, and every patient placed elsewhere by the new ring is moved
+ * there with its appointments: copied to its new shard, marked as moved, and deleted from its old one. A patient is
+ * moved while holding its lock, so no request works with it in the meantime, and is found on its new shard from then
+ * on. New patients are placed by the new ring as soon as the rebalancing starts. Once every patient is moved, the new
+ * ring replaces the old one.
+ * A listing read across the shards while a patient moves may miss it once.
+ * The ring being moved to and the patients already moved are kept on the home shard, so rebalancing that was
+ * interrupted, e.g. by a restart, is finished by rebalancing to the same shards again. Copies left behind on their
+ * old shard by an interrupted move are deleted when it is finished.
+ * The locks are held in memory, so only a single instance of the application may serve requests while it runs.
+ */
+@Component
+@ConditionalOnProperty(name = "app.sharding.enabled", havingValue = "true")
+public class ShardRebalancer {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardRebalancer.class);
+
+    /**
+     * The number of patients or doctors read from a shard at a time.
+     */
+    private static final int PAGE_SIZE = 500;
+
+    private final Shards shards;
+    private final PatientRepository patients;
+    private final AppointmentRepository appointments;
+    private final DoctorRepository doctors;
+    private final EntityManager entityManager;
+    private final int virtualNodes;
+
+    /**
+     * Constructor for the ShardRebalancer.
+     * @param shards The shards the patients are moved between.
+     * @param patients The repository the patients are read and deleted through.
+     * @param appointments The repository the appointments are read through.
+     * @param doctors The repository the doctors are read through.
+     * @param entityManager The entity manager the moved patients are deleted with.
+     * @param virtualNodes The number of points every shard is put on the ring at.
+     */
+    public ShardRebalancer(Shards shards, PatientRepository patients, AppointmentRepository appointments,
+                           DoctorRepository doctors, EntityManager entityManager,
+                           @Value("${app.sharding.virtual-nodes:64}") int virtualNodes) {
+        this.shards = shards;
+        this.patients = patients;
+        this.appointments = appointments;
+        this.doctors = doctors;
+        this.entityManager = entityManager;
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Places the patients on the given shards, moving every patient whose shard changes. Only one rebalancing runs
+     * at a time.
+     * @param names The names of the shards the patients are to be placed on.
+     * @return How many patients and appointments were moved.
+     * @throws IllegalArgumentException if a shard is not configured or no shard is given.
+     * @throws IllegalStateException if rebalancing to other shards was interrupted and has to be finished first.
+     */
+    public synchronized Rebalanced rebalance(Collection<String> names) {
+        for (String name : names) {
+            if (!shards.configured().contains(name)) {
+                throw new IllegalArgumentException("Shard " + name + " is not configured");
+            }
+        }
+        ShardRing target = new ShardRing(names, virtualNodes);
+        Set<String> current = shards.ring().shards();
+        shards.beginRebalance(target);
+        for (String shard : target.shards()) {
+            if (!current.contains(shard)) {
+                copyDoctorsTo(shard);
+            }
+        }
+        int movedPatients = 0;
+        int movedAppointments = 0;
+        for (String shard : shards.shards()) {
+            int after = 0;
+            List<Patient> page;
+            do {
+                int cursor = after;
+                page = shards.inNewTransaction(shard, true,
+                        () -> patients.findByIdGreaterThanOrderByIdAsc(cursor, PageRequest.of(0, PAGE_SIZE)));
+                for (Patient patient : page) {
+                    int moved = move(patient.getId(), shard, target);
+                    if (moved >= 0) {
+                        movedPatients++;
+                        movedAppointments += moved;
+                    }
+                }
+                if (!page.isEmpty()) {
+                    after = page.get(page.size() - 1).getId();
+                }
+            } while (page.size() == PAGE_SIZE);
+        }
+        shards.finishRebalance();
+        log.info("Moved {} patients and {} appointments to the shards {}", movedPatients, movedAppointments,
+                target.shards());
+        return new Rebalanced(List.copyOf(target.shards()), movedPatients, movedAppointments);
+    }
+
+    private void copyDoctorsTo(String shard) {
+        int after = 0;
+        List<Doctor> page;
+        do {
+            int cursor = after;
+            page = shards.inNewTransaction(Shards.HOME, true,
+                    () -> doctors.findByIdGreaterThanOrderByIdAsc(cursor, PageRequest.of(0, PAGE_SIZE)));
+            if (!page.isEmpty()) {
+                shards.copyTo(shard, page);
+                after = page.get(page.size() - 1).getId();
+            }
+        } while (page.size() == PAGE_SIZE);
+    }
+
+    /**
+     * Moves a patient and its appointments from a shard to its shard on the new ring, if that is another one.
+     * A copy of a patient that was already moved is deleted instead.
+     * @return The number of appointments moved, or -1 if the patient was not moved.
+     */
+    private int move(int patientId, String from, ShardRing target) {
+        Lock lock = shards.lockOf(patientId).writeLock();
+        lock.lock();
+        try {
+            boolean leftBehind = !from.equals(shards.shardOf(patientId));
+            String to = target.shardOf(patientId);
+            if (!leftBehind && to.equals(from)) {
+                return -1;
+            }
+            List<Object> copies = shards.inNewTransaction(from, true, () -> {
+                Optional<Patient> patient = patients.findById(patientId);
+                List<Object> entities = new ArrayList<>();
+                patient.ifPresent(entities::add);
+                entities.addAll(appointments.findByPatient_Id(patientId));
+                return entities;
+            });
+            if (copies.isEmpty()) {
+                return -1;
+            }
+            if (!leftBehind) {
+                shards.copyTo(to, copies);
+                shards.placed(patientId);
+            }
+            shards.inNewTransaction(from, false, () -> {
+                shards.bypassCache();
+                for (Object copy : copies) {
+                    if (copy instanceof Appointment appointment) {
+                        entityManager.remove(entityManager.getReference(Appointment.class, appointment.getId()));
+                    }
+                }
+                if (copies.get(0) instanceof Patient) {
+                    entityManager.remove(entityManager.getReference(Patient.class, patientId));
+                }
+                return null;
+            });
+            return leftBehind ? -1 : (int) copies.stream().filter(Appointment.class::isInstance).count();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The result of a rebalancing.
+     * @param shards The shards the patients are placed on now.
+     * @param patients The number of patients moved.
+     * @param appointments The number of appointments moved with them.
+     */
+    public record Rebalanced(List<String> shards, int patients, int appointments) {
+    }
+}
@@ -0,0 +1,71 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A consistent hash ring placing patients on shards by their id.
+ * Every shard is put on the ring at a number of points, its virtual nodes, and a patient is placed on the shard of
+ * the first point at or after the hash of its id. Adding a shard therefore only moves the patients that land on its
+ * points, about one in every {@code n} of them, and removing one only moves its own patients.
+ * The points depend only on the names of the shards, so every instance of the application places a patient on the
+ * same shard.
+ */
+public final class ShardRing {
+
+    private final Set<String> shards;
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+
+    /**
+     * Constructor for the ShardRing.
+     * @param shards The names of the shards on the ring.
+     * @param virtualNodes The number of points every shard is put on the ring at.
+     * @throws IllegalArgumentException if there are no shards.
+     */
+    public ShardRing(Collection<String> shards, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("The ring needs at least one shard");
+        }
+        this.shards = Collections.unmodifiableSet(new TreeSet<>(shards));
+        for (String shard : this.shards) {
+            for (int i = 0; i < virtualNodes; i++) {
+                points.putIfAbsent(hash(shard.hashCode() * 0x9E3779B97F4A7C15L + i), shard);
+            }
+        }
+    }
+
+    /**
+     * Returns the shard a patient is placed on.
+     * @param patientId The id of the patient.
+     * @return The name of the shard.
+     */
+    public String shardOf(int patientId) {
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(patientId));
+        return point != null ? point.getValue() : points.firstEntry().getValue();
+    }
+
+    /**
+     * Returns the shards on the ring.
+     * @return The names of the shards, in alphabetical order.
+     */
+    public Set<String> shards() {
+        return shards;
+    }
+
+    /**
+     * Spreads a value over the ring, with the finalizer of MurmurHash3.
+     */
+    private static long hash(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB93FE1A85EC3L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
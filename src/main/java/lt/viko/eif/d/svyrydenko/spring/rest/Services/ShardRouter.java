@@ -0,0 +1,275 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Patient;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.ShardKey;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.ShardMerge;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.ProxyMethodInvocation;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.repository.core.RepositoryMetadata;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * Routes the methods of a repository of patients, appointments or doctors to the {@link Shards}, when the
+ * application runs sharded. It is added to the repository proxy by
+ * {@link lt.viko.eif.d.svyrydenko.spring.rest.Config.ShardingConfig}, after its transaction and exception translation,
+ * so it always runs in a transaction on the home shard.
+ * <ul>
+ *     <li>Saving or deleting a patient or an appointment writes it to its shard, see {@link Shards#save}.</li>
+ *     <li>A method with a {@link ShardKey} parameter runs on the shard of that patient.</li>
+ *     <li>A method returning an {@link Optional} runs on every shard until something is found.</li>
+ *     <li>A method returning a {@link List} runs on every shard, and the lists, sorted by id as given by
+ *     {@link ShardMerge}, are merged into one, no longer than the page asked for.</li>
+ *     <li>A stream of the entities themselves is read from every shard page by page through
+ *     {@code findByIdGreaterThanOrderByIdAsc}, so that it keeps the id order. Any other stream is opened on every
+ *     shard while the method runs, and read from one shard after the other.</li>
+ *     <li>Doctors are written and read on the home shard, and copied to or deleted from every other shard once
+ *     committed.</li>
+ * </ul>
+ * Any other method writing to a repository, or returning something that cannot be merged, fails rather than run on
+ * the home shard alone. Nothing is routed while {@link Shards} works on a single shard in a transaction of its own.
+ */
+public final class ShardRouter implements MethodInterceptor {
+
+    /**
+     * The number of rows read from every shard for each page of a stream.
+     */
+    private static final int STREAM_PAGE_SIZE = 500;
+
+    /**
+     * The {@code id} accessors of the records lists of which are merged, e.g. the appointment summaries.
+     */
+    private static final ClassValue<Method> RECORD_IDS = new ClassValue<>() {
+        @Override
+        protected Method computeValue(Class<?> type) {
+            return ReflectionUtils.findMethod(type, "id");
+        }
+    };
+
+    private final Class<?> repositoryInterface;
+    private final Class<?> domainType;
+    private final ObjectProvider<Shards> shards;
+    private final Map<Method, Route> routes = new ConcurrentHashMap<>();
+
+    private ShardRouter(Class<?> repositoryInterface, Class<?> domainType, ObjectProvider<Shards> shards) {
+        this.repositoryInterface = repositoryInterface;
+        this.domainType = domainType;
+        this.shards = shards;
+    }
+
+    /**
+     * Creates the router of a repository, if it is one of patients, appointments or doctors.
+     * @param repository The repository.
+     * @param shards The shards, looked up when the repository is first used.
+     * @return The router, or empty if the repository is kept on the home shard only.
+     */
+    public static Optional<ShardRouter> of(RepositoryMetadata repository, ObjectProvider<Shards> shards) {
+        Class<?> type = repository.getDomainType();
+        if (type != Patient.class && type != Appointment.class && type != Doctor.class) {
+            return Optional.empty();
+        }
+        return Optional.of(new ShardRouter(repository.getRepositoryInterface(), type, shards));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        Shards shards = this.shards.getObject();
+        if (shards.isPinned()) {
+            return invocation.proceed();
+        }
+        Route route = routes.computeIfAbsent(invocation.getMethod(), this::route);
+        Object[] arguments = invocation.getArguments();
+        return switch (route.kind()) {
+            case HOME -> invocation.proceed();
+            case SAVE -> shards.save(arguments[0], () -> proceed(invocation));
+            case DELETE -> {
+                shards.delete(domainType, arguments[0], route.key() < 0 ? null : (Integer) arguments[0],
+                        () -> proceed(invocation));
+                yield null;
+            }
+            case SAVE_REFERENCE -> {
+                shards.writingHome();
+                Object saved = invocation.proceed();
+                shards.copyToEveryShard(saved);
+                yield saved;
+            }
+            case DELETE_REFERENCE -> {
+                shards.writingHome();
+                invocation.proceed();
+                shards.deleteFromEveryShard(domainType, arguments[0]);
+                yield null;
+            }
+            case KEYED -> shards.onPatientShard((Integer) arguments[route.key()], () -> proceed(invocation));
+            case ANY -> {
+                for (String shard : shards.shards()) {
+                    Optional<?> found = (Optional<?>) shards.onShard(shard, () -> proceed(copyOf(invocation)));
+                    if (found.isPresent()) {
+                        yield found;
+                    }
+                }
+                yield Optional.empty();
+            }
+            case MERGED -> {
+                List<List<Object>> lists = new ArrayList<>();
+                for (String shard : shards.shards()) {
+                    lists.add(shards.onShard(shard, () -> (List<Object>) proceed(copyOf(invocation))));
+                }
+                Comparator<Object> byId = Comparator.comparingInt(item -> idOf(shards, item));
+                yield Shards.merge(lists, route.direction() == Sort.Direction.DESC ? byId.reversed() : byId,
+                        limitOf(arguments));
+            }
+            case PAGED -> paged(shards, ((ProxyMethodInvocation) invocation).getProxy());
+            case CONCATENATED -> {
+                List<Stream<?>> streams = new ArrayList<>();
+                for (String shard : shards.shards()) {
+                    streams.add(shards.onShard(shard, () -> (Stream<?>) proceed(copyOf(invocation))));
+                }
+                yield streams.stream().flatMap(stream -> stream)
+                        .onClose(() -> streams.forEach(Stream::close));
+            }
+            case UNSUPPORTED -> throw new UnsupportedOperationException(repositoryInterface.getSimpleName() + "."
+                    + invocation.getMethod().getName() + " is not routed to the shards");
+        };
+    }
+
+    private Route route(Method invoked) {
+        Method method = ReflectionUtils.findMethod(repositoryInterface, invoked.getName(), invoked.getParameterTypes());
+        if (method == null) {
+            method = invoked;
+        }
+        String name = method.getName();
+        boolean writes = name.startsWith("save") || name.startsWith("delete");
+        if (domainType == Doctor.class) {
+            if (name.equals("save")) {
+                return new Route(Kind.SAVE_REFERENCE, -1, null);
+            } else if (name.equals("deleteById")) {
+                return new Route(Kind.DELETE_REFERENCE, -1, null);
+            }
+            return new Route(writes ? Kind.UNSUPPORTED : Kind.HOME, -1, null);
+        }
+        int key = shardKeyOf(method);
+        if (name.equals("save")) {
+            return new Route(Kind.SAVE, -1, null);
+        } else if (name.equals("deleteById")) {
+            return new Route(Kind.DELETE, key, null);
+        } else if (writes) {
+            return new Route(Kind.UNSUPPORTED, -1, null);
+        } else if (name.equals("getReferenceById") || name.equals("flush")) {
+            return new Route(Kind.HOME, -1, null);
+        } else if (key >= 0) {
+            return new Route(Kind.KEYED, key, null);
+        }
+        Class<?> returned = method.getReturnType();
+        if (returned == Optional.class) {
+            return new Route(Kind.ANY, -1, null);
+        } else if (returned == List.class) {
+            ShardMerge merge = AnnotatedElementUtils.findMergedAnnotation(method, ShardMerge.class);
+            return new Route(Kind.MERGED, -1, merge != null ? merge.value() : Sort.Direction.ASC);
+        } else if (returned == Stream.class) {
+            Class<?> element = ResolvableType.forMethodReturnType(method, repositoryInterface).getGeneric(0).resolve();
+            return new Route(element == domainType ? Kind.PAGED : Kind.CONCATENATED, -1, null);
+        }
+        return new Route(Kind.UNSUPPORTED, -1, null);
+    }
+
+    /**
+     * Reads the entities from every shard in id order, page by page.
+     */
+    @SuppressWarnings("unchecked")
+    private Stream<Object> paged(Shards shards, Object repository) {
+        Method forward = ReflectionUtils.findMethod(repositoryInterface, "findByIdGreaterThanOrderByIdAsc",
+                int.class, Pageable.class);
+        if (forward == null) {
+            throw new UnsupportedOperationException(repositoryInterface.getSimpleName()
+                    + " cannot be streamed from the shards without findByIdGreaterThanOrderByIdAsc");
+        }
+        Pageable page = PageRequest.of(0, STREAM_PAGE_SIZE);
+        IntFunction<List<Object>> pages = cursor -> {
+            shards.clearIfReadOnly();
+            return (List<Object>) ReflectionUtils.invokeMethod(forward, repository, cursor, page);
+        };
+        return Stream.iterate(pages.apply(0), rows -> !rows.isEmpty(),
+                        rows -> rows.size() < STREAM_PAGE_SIZE ? List.of()
+                                : pages.apply(idOf(shards, rows.get(rows.size() - 1))))
+                .flatMap(List::stream);
+    }
+
+    private static int shardKeyOf(Method method) {
+        Annotation[][] annotations = method.getParameterAnnotations();
+        for (int i = 0; i < annotations.length; i++) {
+            for (Annotation annotation : annotations[i]) {
+                if (annotation instanceof ShardKey) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int limitOf(Object[] arguments) {
+        for (Object argument : arguments) {
+            if (argument instanceof Pageable pageable && pageable.isPaged()) {
+                return pageable.getPageSize();
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the id of an entity, or of a record such as a summary by its {@code id} component.
+     */
+    private static int idOf(Shards shards, Object item) {
+        if (item instanceof Record) {
+            return (Integer) ReflectionUtils.invokeMethod(RECORD_IDS.get(item.getClass()), item);
+        }
+        return shards.idOf(item);
+    }
+
+    private static MethodInvocation copyOf(MethodInvocation invocation) {
+        return ((ProxyMethodInvocation) invocation).invocableClone();
+    }
+
+    private static Object proceed(MethodInvocation invocation) {
+        try {
+            return invocation.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new UndeclaredThrowableException(e);
+        }
+    }
+
+    private enum Kind {
+        HOME, SAVE, DELETE, SAVE_REFERENCE, DELETE_REFERENCE, KEYED, ANY, MERGED, PAGED, CONCATENATED, UNSUPPORTED
+    }
+
+    /**
+     * How a repository method is routed.
+     * @param kind the kind of route
+     * @param key the index of the {@link ShardKey} parameter, or -1 if there is none
+     * @param direction the order the lists of the shards are merged in
+     */
+    private record Route(Kind kind, int key, Sort.Direction direction) {
+    }
+}
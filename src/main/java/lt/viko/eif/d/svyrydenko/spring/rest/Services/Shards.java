@@ -0,0 +1,904 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import jakarta.persistence.CacheRetrieveMode;
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.PersistenceUnitUtil;
+import jakarta.persistence.metamodel.Attribute;
+import jakarta.persistence.metamodel.EntityType;
+import jakarta.persistence.metamodel.SingularAttribute;
+import lt.viko.eif.d.svyrydenko.spring.rest.Config.AssignableSequenceGenerator;
+import lt.viko.eif.d.svyrydenko.spring.rest.Config.ShardRoutingDataSource;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Patient;
+import org.hibernate.CacheMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.jpa.SpecHints;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Shards places every patient, together with its appointments, on one of several databases, the shards, when the
+ * application runs sharded ({@code app.sharding.enabled}, see
+ * {@link lt.viko.eif.d.svyrydenko.spring.rest.Config.ShardingConfig}).
+ * A patient is placed by its id on a {@link ShardRing}; an appointment lives with its patient, or on the home shard
+ * if it has none. The shards on the ring are kept in the {@code shard_ring} table of the home shard. It is filled
+ * from {@code app.sharding.ring}, or with every configured shard, when the application first starts, and changed
+ * online by the {@link ShardRebalancer}.
+ * The repositories are routed to the shards by the {@link ShardRouter}, so the rest of the application works with
+ * them as with a single database. Work on a shard other than the home shard is done in a shard transaction: an
+ * entity manager of its own, in a transaction on that shard, joined to the current transaction on the home shard.
+ * It is committed right before the current transaction and rolled back with it, and the patients worked with are
+ * not moved until then. A transaction may write to one shard only. If the home shard fails to commit after the
+ * shard did, the {@link ChangeLog} relays the changes recorded on the shard to the home shard.
+ * Everything that is not a patient or an appointment, such as the doctors, the change log and the sequences the ids
+ * are taken from, is kept on the home shard. The ids of new patients and appointments are therefore taken from the
+ * home shard before they are written to their shard, which keeps them unique across the shards. Doctors are
+ * reference data: they are written to the home shard and copied to every other shard once committed, so
+ * appointments can refer to them on any shard.
+ */
+@Component
+@ConditionalOnProperty(name = "app.sharding.enabled", havingValue = "true")
+public class Shards {
+
+    private static final Logger log = LoggerFactory.getLogger(Shards.class);
+
+    /**
+     * The name of the home shard.
+     */
+    public static final String HOME = ShardRoutingDataSource.HOME;
+
+    private static final int LOCK_STRIPES = 64;
+
+    private static final Integer NEW_ID = 0;
+
+    private final ShardRoutingDataSource routing;
+    private final EntityManager entityManager;
+    private final EntityManagerFactory entityManagerFactory;
+    private final PersistenceUnitUtil persistenceUnitUtil;
+    private final TransactionTemplate newTransaction;
+    private final TransactionTemplate newReadOnlyTransaction;
+    private final JdbcTemplate jdbcTemplate;
+    private final int virtualNodes;
+    private final HibernateJpaDialect dialect = new HibernateJpaDialect();
+
+    /**
+     * Set while the current thread works on one shard in a transaction of its own, where nothing is routed.
+     */
+    private final ThreadLocal<Boolean> pinned = new ThreadLocal<>();
+
+    /**
+     * The shards the patients are placed on.
+     */
+    private volatile ShardRing ring;
+
+    /**
+     * The shards the patients are being moved to while the ring is rebalanced, otherwise null.
+     */
+    private volatile ShardRing next;
+
+    /**
+     * The patients already placed by {@link #next} while the ring is rebalanced.
+     */
+    private final Set<Integer> placed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Held to work with a patient, exclusively to move it; striped by patient id.
+     */
+    private final ReadWriteLock[] locks = new ReadWriteLock[LOCK_STRIPES];
+
+    /**
+     * Held to place a new patient, exclusively to start rebalancing.
+     */
+    private final ReadWriteLock placement = new ReentrantReadWriteLock();
+
+    /**
+     * Constructor for the Shards.
+     * @param routing The data source routing to the shards.
+     * @param entityManager The entity manager the work on every shard is done with.
+     * @param entityManagerFactory The factory the shard transactions are created with.
+     * @param transactionManager The transaction manager the work on a single shard is done in.
+     * @param jdbcTemplate The template the shards on the ring are read and written with.
+     * @param virtualNodes The number of points every shard is put on the ring at.
+     * @param configured The shards the patients are placed on when the application first starts; all of them if empty.
+     */
+    public Shards(ShardRoutingDataSource routing, EntityManager entityManager,
+                  EntityManagerFactory entityManagerFactory, PlatformTransactionManager transactionManager,
+                  JdbcTemplate jdbcTemplate,
+                  @Value("${app.sharding.virtual-nodes:64}") int virtualNodes,
+                  @Value("${app.sharding.ring:}") List<String> configured) {
+        this.routing = routing;
+        this.entityManager = entityManager;
+        this.entityManagerFactory = entityManagerFactory;
+        this.persistenceUnitUtil = entityManagerFactory.getPersistenceUnitUtil();
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.newReadOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.newReadOnlyTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.newReadOnlyTransaction.setReadOnly(true);
+        this.jdbcTemplate = jdbcTemplate;
+        this.virtualNodes = virtualNodes;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
+        loadRing(configured);
+    }
+
+    /**
+     * Returns every configured shard, whether or not patients are placed on it.
+     * @return The names of the shards, the home shard first.
+     */
+    public Set<String> configured() {
+        return routing.shards();
+    }
+
+    /**
+     * Returns the shards the patients are placed on.
+     * @return The ring.
+     */
+    public ShardRing ring() {
+        return ring;
+    }
+
+    /**
+     * Returns the shards the patients are being moved to while the ring is rebalanced.
+     * @return The new ring, or empty if the ring is not being rebalanced.
+     */
+    public Optional<ShardRing> rebalancingTo() {
+        return Optional.ofNullable(next);
+    }
+
+    /**
+     * Returns the shards patients may be on, including those they are being moved to while the ring is rebalanced.
+     * @return The names of the shards, the home shard first if patients may be on it.
+     */
+    public Set<String> shards() {
+        Set<String> shards = new LinkedHashSet<>();
+        ShardRing target = next;
+        for (String shard : configured()) {
+            if (ring.shards().contains(shard) || target != null && target.shards().contains(shard)) {
+                shards.add(shard);
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Returns the shard a patient and its appointments are on.
+     * @param patientId The id of the patient, or null for appointments without a patient.
+     * @return The name of the shard.
+     */
+    public String shardOf(Integer patientId) {
+        if (patientId == null) {
+            return HOME;
+        }
+        ShardRing target = next;
+        if (target != null && placed.contains(patientId)) {
+            return target.shardOf(patientId);
+        }
+        return ring.shardOf(patientId);
+    }
+
+    /**
+     * Does some work on the shard of a patient. The patient is not moved until the current transaction completes.
+     * @param patientId The id of the patient, or null for appointments without a patient.
+     * @param work The work, reading the patient or its appointments.
+     * @return The result of the work.
+     * @param <T> The type of the result.
+     */
+    public <T> T onPatientShard(Integer patientId, Supplier<T> work) {
+        hold(patientId);
+        return onShard(shardOf(patientId), work);
+    }
+
+    /**
+     * Does some work on a shard: in the current transaction if it is on that shard, and in the shard transaction
+     * joined to it otherwise. The shard transaction is read-only if the current one is.
+     * @param shard The name of the shard.
+     * @param work The work.
+     * @return The result of the work.
+     * @param <T> The type of the result.
+     */
+    public <T> T onShard(String shard, Supplier<T> work) {
+        if (shard.equals(ShardRoutingDataSource.current())) {
+            return work.get();
+        }
+        return transactions().on(shard).call(work);
+    }
+
+    /**
+     * Tells whether the current thread works on a single shard in a transaction of its own, see
+     * {@link #inNewTransaction}, in which case the repositories are not routed.
+     */
+    boolean isPinned() {
+        return pinned.get() != null;
+    }
+
+    /**
+     * Saves a patient or an appointment on its shard, which a stored appointment must already be on.
+     * An entity without an id, or with one that is not stored, is created with a new id from the home shard, a
+     * patient being placed by it.
+     * @param entity The entity to be saved.
+     * @param save Saves the entity on the shard the work is done on, keeping its id, and returns the saved entity.
+     * @return The saved entity.
+     * @param <T> The type of the entity.
+     * @throws ShardMoveException if a stored appointment is saved with a patient on another shard.
+     */
+    <T> T save(T entity, Supplier<T> save) {
+        Class<?> type = Hibernate.getClass(entity);
+        Object id = persistenceUnitUtil.getIdentifier(entity);
+        if (!NEW_ID.equals(id)) {
+            Optional<Stored> stored = storedOn(entity, type, id);
+            if (stored.isPresent()) {
+                String shard = shardOf(patientIdOf(entity));
+                if (!stored.get().shard().equals(shard)) {
+                    throw new ShardMoveException(type.getSimpleName() + " " + id + " is on shard "
+                            + stored.get().shard() + " and cannot be moved to shard " + shard);
+                }
+                return write(patientIdOf(entity), type, id, save);
+            }
+        }
+        assignId(entity, type);
+        Object newId = persistenceUnitUtil.getIdentifier(entity);
+        if (entity instanceof Patient) {
+            transactions().hold(placement.readLock());
+            if (next != null) {
+                placed((Integer) newId);
+            }
+        }
+        return write(patientIdOf(entity), type, newId, () -> AssignableSequenceGenerator.keepingIds(save));
+    }
+
+    /**
+     * Deletes a patient or an appointment from the shard it is on.
+     * @param type The type of the entity.
+     * @param id The id of the entity.
+     * @param patientId The id of the patient whose shard the entity is on, or null to look for it on every shard.
+     * @param delete Deletes the entity on the shard the work is done on.
+     */
+    void delete(Class<?> type, Object id, Integer patientId, Runnable delete) {
+        Integer shardKey = patientId;
+        if (shardKey == null) {
+            Optional<Stored> stored = storedOn(null, type, id);
+            if (stored.isEmpty()) {
+                delete.run();
+                return;
+            }
+            shardKey = patientIdOf(stored.get().entity());
+        }
+        write(shardKey, type, id, () -> {
+            delete.run();
+            return null;
+        });
+    }
+
+    /**
+     * Notes that the current transaction writes reference data, e.g. a doctor, to the home shard.
+     */
+    void writingHome() {
+        transactions().writing(HOME);
+    }
+
+    /**
+     * Returns the shard transaction that wrote an entity in the current transaction.
+     * @param type The type of the entity.
+     * @param id The id of the entity.
+     * @return The shard transaction, or empty if the entity was not written to a shard other than the home shard.
+     */
+    Optional<ShardTransaction> wrote(Class<?> type, Object id) {
+        ShardTransactions transactions = (ShardTransactions) TransactionSynchronizationManager.getResource(this);
+        if (transactions == null || transactions.written == null) {
+            return Optional.empty();
+        }
+        return Optional.of(transactions.written).filter(written -> written.wrote(type, id));
+    }
+
+    /**
+     * Clears the shard transactions joined to the current transaction if it is read-only, e.g. between the pages of
+     * a stream, so the entities read are not all kept in memory.
+     */
+    void clearIfReadOnly() {
+        ShardTransactions transactions = (ShardTransactions) TransactionSynchronizationManager.getResource(this);
+        if (transactions != null && transactions.readOnly) {
+            transactions.byShard.values().forEach(transaction -> transaction.entityManager.clear());
+        }
+    }
+
+    /**
+     * Returns the id of an entity.
+     */
+    int idOf(Object entity) {
+        return (Integer) persistenceUnitUtil.getIdentifier(entity);
+    }
+
+    /**
+     * Copies reference data, e.g. a doctor, from the home shard to every other configured shard once the current
+     * transaction commits, replacing the copy a shard already has, so it is there before patients are placed on the
+     * shard. A shard the copy fails on is logged and skipped.
+     * @param entity The entity as saved on the home shard.
+     */
+    void copyToEveryShard(Object entity) {
+        afterCommit(() -> {
+            for (String shard : configured()) {
+                if (!HOME.equals(shard)) {
+                    try {
+                        copyTo(shard, List.of(entity));
+                    } catch (RuntimeException e) {
+                        log.warn("Could not copy {} to shard {}", entity, shard, e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes reference data, e.g. a doctor, from every configured shard other than the home shard once the current
+     * transaction commits. A shard the delete fails on, e.g. as an appointment there still refers to it, is logged
+     * and skipped.
+     * @param type The type of the entity.
+     * @param id The id of the entity.
+     */
+    void deleteFromEveryShard(Class<?> type, Object id) {
+        afterCommit(() -> {
+            for (String shard : configured()) {
+                if (!HOME.equals(shard)) {
+                    try {
+                        inNewTransaction(shard, false, () -> {
+                            bypassCache();
+                            Object copy = entityManager.find(type, id);
+                            if (copy != null) {
+                                entityManager.remove(copy);
+                            }
+                            return null;
+                        });
+                    } catch (RuntimeException e) {
+                        log.warn("Could not delete {} {} from shard {}", type.getSimpleName(), id, shard, e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Copies entities to a shard in a transaction of its own, with their ids and versions, replacing the copies it
+     * already has. The second-level cache is not filled from the copies.
+     * @param shard The name of the shard.
+     * @param entities The entities, which are not changed.
+     */
+    void copyTo(String shard, List<?> entities) {
+        inNewTransaction(shard, false, () -> {
+            bypassCache();
+            for (Object entity : entities) {
+                Object copy = entityManager.find(Hibernate.getClass(entity), persistenceUnitUtil.getIdentifier(entity));
+                if (copy == null) {
+                    AssignableSequenceGenerator.keepingIds(() -> entityManager.merge(entity));
+                } else {
+                    copyState(entity, copy);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Does some work on a shard in a transaction of its own, in which the repositories are not routed. An entity
+     * manager kept open outside of a transaction, e.g. for the view of a request, is set aside meanwhile, so the work
+     * does not see what it read on other shards.
+     */
+    <T> T inNewTransaction(String shard, boolean readOnly, Supplier<T> work) {
+        Object outside = TransactionSynchronizationManager.isActualTransactionActive() ? null
+                : TransactionSynchronizationManager.unbindResourceIfPossible(entityManagerFactory);
+        String previous = ShardRoutingDataSource.route(shard);
+        Boolean wasPinned = pinned.get();
+        pinned.set(Boolean.TRUE);
+        try {
+            return (readOnly ? newReadOnlyTransaction : newTransaction).execute(status -> work.get());
+        } finally {
+            if (wasPinned == null) {
+                pinned.remove();
+            }
+            ShardRoutingDataSource.route(previous);
+            if (outside != null) {
+                TransactionSynchronizationManager.bindResource(entityManagerFactory, outside);
+            }
+        }
+    }
+
+    /**
+     * Keeps the entity manager of the current transaction from reading or filling the second-level cache, which is
+     * shared by the shards. Finding an entity takes the cache mode from the properties of the entity manager, and
+     * merging one from the session.
+     */
+    void bypassCache() {
+        entityManager.unwrap(Session.class).setCacheMode(CacheMode.IGNORE);
+        entityManager.setProperty(SpecHints.HINT_SPEC_CACHE_RETRIEVE_MODE, CacheRetrieveMode.BYPASS);
+        entityManager.setProperty(SpecHints.HINT_SPEC_CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+    }
+
+    /**
+     * Returns the lock a patient is worked with under, and moved under exclusively.
+     */
+    ReadWriteLock lockOf(int patientId) {
+        return locks[Math.floorMod(patientId, LOCK_STRIPES)];
+    }
+
+    /**
+     * Starts moving the patients to the shards of a new ring, or resumes moving them to it. New patients are placed
+     * by it from now on.
+     * @throws IllegalStateException if the patients are still being moved to a different ring.
+     */
+    void beginRebalance(ShardRing target) {
+        Lock lock = placement.writeLock();
+        lock.lock();
+        try {
+            if (next != null) {
+                if (!next.shards().equals(target.shards())) {
+                    throw new IllegalStateException("The patients are still being moved to " + next.shards()
+                            + "; rebalance to them again to finish");
+                }
+                return;
+            }
+            inNewTransaction(HOME, false, () -> {
+                jdbcTemplate.update("delete from shard_moved");
+                for (String shard : target.shards()) {
+                    jdbcTemplate.update("insert into shard_ring (name, next) values (?, true)", shard);
+                }
+                return null;
+            });
+            next = target;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks a patient as placed by the new ring, before it is written to its shard on it.
+     */
+    void placed(int patientId) {
+        inNewTransaction(HOME, false, () ->
+                jdbcTemplate.update("merge into shard_moved (patient_id) key (patient_id) values (?)", patientId));
+        placed.add(patientId);
+    }
+
+    /**
+     * Makes the new ring the one the patients are placed by, once they were all moved.
+     */
+    void finishRebalance() {
+        Lock lock = placement.writeLock();
+        lock.lock();
+        try {
+            inNewTransaction(HOME, false, () -> {
+                jdbcTemplate.update("delete from shard_ring where not next");
+                jdbcTemplate.update("update shard_ring set next = false");
+                jdbcTemplate.update("delete from shard_moved");
+                return null;
+            });
+            ring = next;
+            next = null;
+            placed.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Merges lists each sorted in the given order into the first {@code limit} items of all of them, keeping only the
+     * first of the items that are equal in that order.
+     */
+    static <T> List<T> merge(List<List<T>> lists, Comparator<? super T> order, int limit) {
+        PriorityQueue<Head<T>> heads = new PriorityQueue<>((a, b) -> order.compare(a.item, b.item));
+        for (List<T> list : lists) {
+            Iterator<T> items = list.iterator();
+            if (items.hasNext()) {
+                heads.add(new Head<>(items.next(), items));
+            }
+        }
+        List<T> merged = new ArrayList<>(Math.min(limit, 1024));
+        while (merged.size() < limit && !heads.isEmpty()) {
+            Head<T> head = heads.poll();
+            if (merged.isEmpty() || order.compare(merged.get(merged.size() - 1), head.item) != 0) {
+                merged.add(head.item);
+            }
+            if (head.rest.hasNext()) {
+                heads.add(new Head<>(head.rest.next(), head.rest));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Writes to the shard of a patient, which the current transaction may not have written another shard than.
+     * A write to a shard other than the home shard is flushed at once, so a violated constraint fails it as it would
+     * on the home shard.
+     */
+    private <T> T write(Integer patientId, Class<?> type, Object id, Supplier<T> write) {
+        hold(patientId);
+        String shard = shardOf(patientId);
+        ShardTransactions transactions = transactions();
+        transactions.writing(shard);
+        if (HOME.equals(shard)) {
+            return onShard(shard, write);
+        }
+        ShardTransaction transaction = transactions.on(shard);
+        T written = transaction.call(() -> {
+            T result = write.get();
+            entityManager.flush();
+            return result;
+        });
+        transaction.wrote.add(new Written(type, id));
+        return written;
+    }
+
+    /**
+     * Finds the shard an entity with the given id is stored on: the shard of a patient, and for an appointment the
+     * shard of its patient first and every other shard after it.
+     */
+    private Optional<Stored> storedOn(Object entity, Class<?> type, Object id) {
+        Collection<String> candidates;
+        if (Patient.class.equals(type)) {
+            hold((Integer) id);
+            candidates = List.of(shardOf((Integer) id));
+        } else {
+            candidates = new LinkedHashSet<>();
+            if (entity != null) {
+                candidates.add(shardOf(patientIdOf(entity)));
+            }
+            candidates.addAll(shards());
+        }
+        for (String shard : candidates) {
+            Object found = onShard(shard, () -> entityManager.find(type, id));
+            if (found != null) {
+                return Optional.of(new Stored(shard, found));
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Gives a new entity the next id of its sequence on the home shard, by persisting it in an entity manager that is
+     * then closed without being flushed. The sequence is only read when the ids allocated from it last are used up.
+     */
+    private void assignId(Object entity, Class<?> type) {
+        SingularAttribute<?, ?> idAttribute = entityManagerFactory.getMetamodel().entity(type)
+                .getId(Integer.TYPE);
+        Field field = (Field) idAttribute.getJavaMember();
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, entity, NEW_ID);
+        String previous = ShardRoutingDataSource.route(HOME);
+        EntityManager home = entityManagerFactory.createEntityManager();
+        try {
+            home.persist(entity);
+        } finally {
+            home.close();
+            ShardRoutingDataSource.route(previous);
+        }
+    }
+
+    /**
+     * Copies the state of an entity, other than its id and version, into its managed copy, whose version is then
+     * incremented when it is flushed. The entities it refers to are referred to by id.
+     */
+    private void copyState(Object entity, Object copy) {
+        EntityType<?> type = entityManager.getMetamodel().entity(Hibernate.getClass(entity));
+        Object source = Hibernate.unproxy(entity);
+        for (Attribute<?, ?> attribute : type.getAttributes()) {
+            if (attribute instanceof SingularAttribute<?, ?> singular && !singular.isId() && !singular.isVersion()
+                    && attribute.getJavaMember() instanceof Field field) {
+                ReflectionUtils.makeAccessible(field);
+                Object value = ReflectionUtils.getField(field, source);
+                if (singular.isAssociation() && value != null) {
+                    value = entityManager.getReference(singular.getJavaType(),
+                            persistenceUnitUtil.getIdentifier(value));
+                }
+                ReflectionUtils.setField(field, copy, value);
+            }
+        }
+    }
+
+    /**
+     * Holds the lock of a patient until the current transaction completes.
+     */
+    private void hold(Integer patientId) {
+        if (patientId != null) {
+            transactions().hold(lockOf(patientId).readLock());
+        }
+    }
+
+    /**
+     * Returns the shard transactions joined to the current transaction, and joins them to it first if needed.
+     */
+    private ShardTransactions transactions() {
+        ShardTransactions transactions = (ShardTransactions) TransactionSynchronizationManager.getResource(this);
+        if (transactions == null) {
+            if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+                throw new IllegalStateException("The shards are only worked on within a transaction");
+            }
+            transactions = new ShardTransactions(TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+            TransactionSynchronizationManager.bindResource(this, transactions);
+            TransactionSynchronizationManager.registerSynchronization(transactions);
+        }
+        return transactions;
+    }
+
+    private RuntimeException translated(RuntimeException e) {
+        RuntimeException translated = dialect.translateExceptionIfPossible(e);
+        return translated != null ? translated : e;
+    }
+
+    private static Integer patientIdOf(Object entity) {
+        return entity instanceof Patient patient ? Integer.valueOf(patient.getId())
+                : ((Appointment) Hibernate.unproxy(entity)).getPatientId();
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Reads the ring from the home shard, creating it on the first start, together with the ring the patients are
+     * being moved to and those already moved, if the application stopped while rebalancing.
+     */
+    private void loadRing(List<String> configured) {
+        jdbcTemplate.execute("create table if not exists shard_ring "
+                + "(name varchar(255) not null, next boolean not null, primary key (name, next))");
+        jdbcTemplate.execute("create table if not exists shard_moved (patient_id int primary key)");
+        if (shardsOnRing(false).isEmpty()) {
+            Collection<String> shards = configured.isEmpty() ? routing.shards() : configured;
+            for (String shard : shards) {
+                jdbcTemplate.update("insert into shard_ring (name, next) values (?, false)", shard);
+            }
+        }
+        ring = new ShardRing(shardsOnRing(false), virtualNodes);
+        Set<String> target = shardsOnRing(true);
+        if (!target.isEmpty()) {
+            next = new ShardRing(target, virtualNodes);
+            placed.addAll(jdbcTemplate.queryForList("select patient_id from shard_moved", Integer.class));
+            log.warn("The patients are still being moved to {}; {} of them were moved", target, placed.size());
+        }
+    }
+
+    private Set<String> shardsOnRing(boolean next) {
+        Set<String> shards = new LinkedHashSet<>(
+                jdbcTemplate.queryForList("select name from shard_ring where next = ?", String.class, next));
+        for (String shard : shards) {
+            if (!routing.shards().contains(shard)) {
+                throw new IllegalStateException("Shard " + shard + " is on the ring but not configured");
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * A transaction on a shard other than the home shard, with an entity manager of its own, joined to a transaction
+     * on the home shard.
+     */
+    final class ShardTransaction {
+
+        private final String shard;
+        private final EntityManager entityManager;
+        private final EntityManagerHolder holder;
+        private final Set<Written> wrote = new HashSet<>();
+        private boolean committed;
+
+        private ShardTransaction(String shard, boolean readOnly) {
+            this.shard = shard;
+            this.entityManager = entityManagerFactory.createEntityManager();
+            String previous = ShardRoutingDataSource.route(shard);
+            try {
+                entityManager.getTransaction().begin();
+            } catch (RuntimeException e) {
+                entityManager.close();
+                throw translated(e);
+            } finally {
+                ShardRoutingDataSource.route(previous);
+            }
+            if (readOnly) {
+                Session session = entityManager.unwrap(Session.class);
+                session.setDefaultReadOnly(true);
+                session.setHibernateFlushMode(FlushMode.MANUAL);
+            }
+            this.holder = new EntityManagerHolder(entityManager);
+            this.holder.setSynchronizedWithTransaction(true);
+        }
+
+        /**
+         * Returns the name of the shard.
+         */
+        String shard() {
+            return shard;
+        }
+
+        /**
+         * Persists an entity in the transaction, e.g. the change recorded for what it wrote.
+         */
+        void persist(Object entity) {
+            entityManager.persist(entity);
+        }
+
+        /**
+         * Tells whether the transaction committed, even though the transaction it was joined to may not have.
+         */
+        boolean isCommitted() {
+            return committed;
+        }
+
+        /**
+         * Does some work with the entity manager of the transaction as the one the repositories use.
+         */
+        private <T> T call(Supplier<T> work) {
+            Object home = TransactionSynchronizationManager.unbindResourceIfPossible(entityManagerFactory);
+            TransactionSynchronizationManager.bindResource(entityManagerFactory, holder);
+            try {
+                return work.get();
+            } finally {
+                TransactionSynchronizationManager.unbindResource(entityManagerFactory);
+                if (home != null) {
+                    TransactionSynchronizationManager.bindResource(entityManagerFactory, home);
+                }
+            }
+        }
+
+        private boolean wrote(Class<?> type, Object id) {
+            return wrote.contains(new Written(type, id));
+        }
+
+        private void commit() {
+            entityManager.getTransaction().commit();
+            committed = true;
+        }
+
+        private void close() {
+            try {
+                if (entityManager.getTransaction().isActive()) {
+                    entityManager.getTransaction().rollback();
+                }
+            } catch (RuntimeException e) {
+                log.warn("Could not roll back the transaction on shard {}", shard, e);
+            } finally {
+                entityManager.close();
+            }
+        }
+    }
+
+    /**
+     * The shard transactions joined to a transaction on the home shard, committed right before it and closed once it
+     * completes, when the patient locks held for it are released as well.
+     */
+    private final class ShardTransactions implements TransactionSynchronization {
+
+        private final boolean readOnly;
+        private final Map<String, ShardTransaction> byShard = new LinkedHashMap<>();
+        private final Set<Lock> held = new LinkedHashSet<>();
+
+        /**
+         * The shard written to, if any.
+         */
+        private String writing;
+
+        /**
+         * The shard transaction written in, if the shard written to is not the home shard.
+         */
+        private ShardTransaction written;
+
+        ShardTransactions(boolean readOnly) {
+            this.readOnly = readOnly;
+        }
+
+        ShardTransaction on(String shard) {
+            return byShard.computeIfAbsent(shard, name -> new ShardTransaction(name, readOnly));
+        }
+
+        void hold(Lock lock) {
+            if (held.add(lock)) {
+                lock.lock();
+            }
+        }
+
+        void writing(String shard) {
+            if (writing != null && !writing.equals(shard)) {
+                throw new IllegalStateException("A transaction may only write to one shard, but writes to "
+                        + writing + " and " + shard);
+            }
+            if (!HOME.equals(shard)) {
+                if (readOnly) {
+                    throw new IllegalStateException("A read-only transaction cannot write to shard " + shard);
+                }
+                written = on(shard);
+            }
+            writing = shard;
+        }
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(Shards.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(Shards.this, this);
+        }
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            if (written == null) {
+                return;
+            }
+            try {
+                entityManager.flush();
+                written.commit();
+            } catch (RuntimeException e) {
+                throw translated(e);
+            }
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(Shards.this);
+            for (ShardTransaction transaction : byShard.values()) {
+                transaction.close();
+            }
+            held.forEach(Lock::unlock);
+        }
+    }
+
+    /**
+     * An entity found on a shard.
+     */
+    private record Stored(String shard, Object entity) {
+    }
+
+    /**
+     * An entity written in a shard transaction.
+     */
+    private record Written(Class<?> type, Object id) {
+    }
+
+    /**
+     * The next item of one of the merged lists, with the rest of that list.
+     */
+    private record Head<T>(T item, Iterator<T> rest) {
+    }
+}
@@ -0,0 +1,19 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when an appointment is booked at a time its doctor already has another appointment.
+ */
+@ResponseStatus(HttpStatus.CONFLICT)
+public class SlotTakenException extends RuntimeException {
+
+    /**
+     * Constructs a new SlotTakenException with the given message.
+     * @param message the description of the clash
+     */
+    public SlotTakenException(String message) {
+        super(message);
+    }
+}
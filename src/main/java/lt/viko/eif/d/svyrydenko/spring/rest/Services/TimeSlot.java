@@ -0,0 +1,11 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import java.time.Instant;
+
+/**
+ * TimeSlot is a span of time in a doctor's schedule.
+ * @param start the start of the slot, inclusive
+ * @param end   the end of the slot, exclusive
+ */
+public record TimeSlot(Instant start, Instant end) {
+}
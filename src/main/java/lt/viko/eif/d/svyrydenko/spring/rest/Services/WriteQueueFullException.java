@@ -0,0 +1,19 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * Thrown when a write cannot be queued for the next group commit because the queue is full.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class WriteQueueFullException extends RuntimeException {
+
+    /**
+     * Constructs a new WriteQueueFullException with the given message.
+     * @param message the description of the rejected write
+     */
+    public WriteQueueFullException(String message) {
+        super(message);
+    }
+}
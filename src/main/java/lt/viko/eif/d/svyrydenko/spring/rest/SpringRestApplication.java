@@ -2,12 +2,46 @@ package lt.viko.eif.d.svyrydenko.spring.rest;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 
 @SpringBootApplication
 public class SpringRestApplication {
 
-	public static void main(String[] args) {
-		SpringApplication.run(SpringRestApplication.class, args);
+	/**
+	 * The system property that makes the application exit once it has started and served one request.
+	 * The fast-startup build runs the application like this to record the classes it loads in its CDS archive.
+	 */
+	static final String TRAINING_RUN = "app.training-run";
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		ConfigurableApplicationContext context = SpringApplication.run(SpringRestApplication.class, args);
+		if (Boolean.getBoolean(TRAINING_RUN)) {
+			train(context);
+			System.exit(SpringApplication.exit(context));
+		}
+	}
+
+	/**
+	 * Sends one request to the started application, so the classes loaded to serve it are archived as well.
+	 * @param context The started application.
+	 * @throws IllegalStateException if the request is not answered with 200 OK, as the archive would then miss
+	 * the classes that serve a successful request.
+	 */
+	static void train(ConfigurableApplicationContext context) throws IOException, InterruptedException {
+		int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+		HttpResponse<Void> response = HttpClient.newHttpClient().send(
+				HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/doctors")).build(),
+				HttpResponse.BodyHandlers.discarding());
+		if (response.statusCode() != 200) {
+			throw new IllegalStateException("The training request was answered with " + response.statusCode());
+		}
 	}
 
 }
@@ -0,0 +1,41 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionAutoConfiguration;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Serves every request on a virtual thread of its own instead of the Tomcat worker pool, so requests
+ * blocked on JDBC no longer tie up a limited number of platform threads. The asynchronous part of the
+ * streaming responses runs on virtual threads as well.
+ * Only built with the java21 profile and enabled with {@code app.virtual-threads.enabled=true};
+ * the number of requests in flight is then bounded by {@link ConnectionPermitFilter}.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    /**
+     * Replaces the executor of the Tomcat connector with one that starts a virtual thread per task.
+     * @return The customizer of the protocol handler.
+     */
+    @Bean
+    TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandler() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * Creates the executor Spring MVC runs the streaming responses on.
+     * @return The executor, starting a virtual thread per task.
+     */
+    @Bean(TaskExecutionAutoConfiguration.APPLICATION_TASK_EXECUTOR_BEAN_NAME)
+    AsyncTaskExecutor applicationTaskExecutor() {
+        return new TaskExecutorAdapter(Executors.newVirtualThreadPerTaskExecutor());
+    }
+}
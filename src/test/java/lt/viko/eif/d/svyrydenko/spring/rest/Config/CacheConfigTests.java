@@ -0,0 +1,64 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.DoctorRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.cache.CacheManager;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class CacheConfigTests {
+
+	@Autowired
+	private DoctorRepository repository;
+
+	@Autowired
+	private CacheManager cacheManager;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void readCommittingAfterAConcurrentWriteDoesNotCacheTheOutdatedRow() {
+		int id = repository.save(new Doctor("Jonas", "Original", "+37060000000", "Cardiology")).getId();
+		TransactionTemplate read = new TransactionTemplate(transactionManager);
+		read.setReadOnly(true);
+		TransactionTemplate write = new TransactionTemplate(transactionManager);
+		write.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+		read.executeWithoutResult(status -> {
+			assertThat(repository.findCachedById(id).orElseThrow().getSurname()).isEqualTo("Original");
+			write.executeWithoutResult(nested -> {
+				Doctor doctor = repository.findById(id).orElseThrow();
+				doctor.setSurname("Replaced");
+				repository.save(doctor);
+			});
+		});
+
+		assertThat(cacheManager.getCache(CacheConfig.DOCTORS).get(id)).isNull();
+		assertThat(repository.findCachedById(id).orElseThrow().getSurname()).isEqualTo("Replaced");
+		assertThat(cacheManager.getCache(CacheConfig.DOCTORS).get(id)).isNotNull();
+	}
+
+	@Test
+	void readCommittingAfterAClearDoesNotCacheTheOutdatedRow() {
+		int id = repository.save(new Doctor("Jonas", "Cleared", "+37060000001", "Cardiology")).getId();
+		TransactionTemplate read = new TransactionTemplate(transactionManager);
+		read.setReadOnly(true);
+		TransactionTemplate write = new TransactionTemplate(transactionManager);
+		write.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+		read.executeWithoutResult(status -> {
+			repository.findCachedById(id);
+			write.executeWithoutResult(nested -> cacheManager.getCache(CacheConfig.DOCTORS).clear());
+		});
+
+		assertThat(cacheManager.getCache(CacheConfig.DOCTORS).get(id)).isNull();
+	}
+}
@@ -0,0 +1,53 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.ChangeLog;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Runs the application with two connection permits, which the event stream subscriptions and the long polls for
+ * changes must not hold.
+ */
+@SpringBootTest(properties = {
+		"app.virtual-threads.enabled=true",
+		"app.virtual-threads.permit-timeout=100ms",
+		"spring.datasource.hikari.maximum-pool-size=2"
+})
+@AutoConfigureMockMvc
+class ConnectionPermitFilterTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private ChangeLog changeLog;
+
+	@Test
+	void eventStreamSubscriptionsDoNotHoldAPermit() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			MvcResult subscription = mvc.perform(get("/appointments/stream").accept(MediaType.ALL)).andReturn();
+			assertThat(subscription.getRequest().isAsyncStarted()).isTrue();
+		}
+
+		assertThat(mvc.perform(get("/doctors?size=1")).andReturn().getResponse().getStatus()).isEqualTo(200);
+	}
+
+	@Test
+	void waitingChangePollsDoNotHoldAPermit() throws Exception {
+		long since = changeLog.watermark();
+		for (int i = 0; i < 10; i++) {
+			MvcResult polling = mvc.perform(get("/changes?since=" + since)).andReturn();
+			assertThat(polling.getRequest().isAsyncStarted()).isTrue();
+		}
+
+		assertThat(mvc.perform(get("/doctors?size=1")).andReturn().getResponse().getStatus()).isEqualTo(200);
+	}
+}
@@ -0,0 +1,99 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lt.viko.eif.d.svyrydenko.spring.rest.JsonRequests;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class ListResponseCacheFilterTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private JsonRequests requests;
+
+	@BeforeEach
+	void setUp() {
+		requests = new JsonRequests(mvc, objectMapper);
+	}
+
+	@Test
+	void writesAreListedOnceTheyAreCommitted() throws Exception {
+		int first = requests.created("/patients", patient("Listed"));
+		String page = "/patients?after=" + (first - 1) + "&size=100";
+		String doctors = "/doctors?size=1";
+		MockHttpServletResponse listed = list(page);
+		String eTag = listed.getHeader(HttpHeaders.ETAG);
+		String doctorsETag = list(doctors).getHeader(HttpHeaders.ETAG);
+		assertThat(surnames(listed)).containsExactly("Listed");
+		assertThat(mvc.perform(get(page).header(HttpHeaders.IF_NONE_MATCH, eTag)).andReturn()
+				.getResponse().getStatus()).isEqualTo(304);
+
+		int second = requests.created("/patients", patient("Added"));
+
+		MockHttpServletResponse added = list(page);
+		assertThat(surnames(added)).containsExactly("Listed", "Added");
+		assertThat(added.getHeader(HttpHeaders.ETAG)).isNotEqualTo(eTag);
+		assertThat(list(doctors).getHeader(HttpHeaders.ETAG)).isEqualTo(doctorsETag);
+
+		requests.perform(patch("/patients/" + second), "{\"surname\":\"Patched\"}");
+
+		assertThat(surnames(list(page))).containsExactly("Listed", "Patched");
+	}
+
+	@Test
+	void storedPageIsCompressedForClientsAcceptingGzip() throws Exception {
+		int first = requests.created("/patients", patient("Compressed"));
+		for (int i = 0; i < 20; i++) {
+			requests.created("/patients", patient("Compressed"));
+		}
+		String page = "/patients?after=" + (first - 1) + "&size=21";
+		MockHttpServletResponse plain = list(page);
+
+		MvcResult result = mvc.perform(get(page).header(HttpHeaders.ACCEPT_ENCODING, "gzip")).andReturn();
+
+		assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+		try (GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray()))) {
+			assertThat(gzip.readAllBytes()).isEqualTo(plain.getContentAsByteArray());
+		}
+	}
+
+	private String patient(String surname) {
+		return "{\"firstName\":\"Ona\",\"surname\":\"" + surname + "\",\"age\":40}";
+	}
+
+	private MockHttpServletResponse list(String uri) throws Exception {
+		MockHttpServletResponse response = mvc.perform(get(uri)).andReturn().getResponse();
+		assertThat(response.getStatus()).isEqualTo(200);
+		return response;
+	}
+
+	private List<String> surnames(MockHttpServletResponse response) throws Exception {
+		JsonNode page = objectMapper.readTree(response.getContentAsString());
+		return StreamSupport.stream(page.get("_embedded").get("patientList").spliterator(), false)
+				.map(patient -> patient.get("surname").asText())
+				.toList();
+	}
+}
@@ -0,0 +1,162 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lt.viko.eif.d.svyrydenko.spring.rest.JsonRequests;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+/**
+ * Runs the application on a primary H2 database with a second in-memory H2 database as its read replica,
+ * fed by a copy job that replaces the replica with a script of the primary.
+ */
+@SpringBootTest(properties = {
+		"app.read-replica.enabled=true",
+		"app.read-replica.max-staleness=1m",
+		"app.read-replica.check-interval=PT1H",
+		"spring.datasource.url=jdbc:h2:mem:read-replica-primary;DB_CLOSE_DELAY=-1",
+		"app.read-replica.datasource.jdbc-url=" + ReadReplicaTests.REPLICA_URL,
+		"app.read-replica.datasource.username=sa"
+})
+@AutoConfigureMockMvc
+class ReadReplicaTests {
+
+	static final String REPLICA_URL = "jdbc:h2:mem:read-replica-replica;DB_CLOSE_DELAY=-1";
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private ReplicaStatus status;
+
+	@Autowired
+	@Qualifier("primaryDataSource")
+	private DataSource primary;
+
+	private JsonRequests requests;
+
+	private int doctorId;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		requests = new JsonRequests(mvc, objectMapper);
+		doctorId = requests.created("/doctors",
+				"{\"firstName\":\"Jonas\",\"surname\":\"Original\",\"specialty\":\"Cardiology\"}");
+		status.check();
+		copyToReplica();
+		status.check();
+	}
+
+	@Test
+	void readsComeFromTheReplicaUntilTheyMustSeeAWrite() throws Exception {
+		MvcResult replaced = mvc.perform(put("/doctors/" + doctorId).contentType(MediaType.APPLICATION_JSON)
+				.content("{\"firstName\":\"Jonas\",\"surname\":\"Replaced\",\"specialty\":\"Cardiology\"}")).andReturn();
+		assertThat(replaced.getResponse().getStatus()).isEqualTo(200);
+		String changeSeq = replaced.getResponse().getHeader(ReadConsistency.CHANGE_SEQ_HEADER);
+		assertThat(changeSeq).isNotNull();
+
+		assertThat(surname(get("/doctors/" + doctorId))).isEqualTo("Original");
+		assertThat(listedSurname(get("/doctors"))).isEqualTo("Original");
+		assertThat(surname(get("/doctors/" + doctorId).header(ReadConsistency.HEADER, "min-seq=" + changeSeq)))
+				.isEqualTo("Replaced");
+		assertThat(surname(get("/doctors/" + doctorId).header(ReadConsistency.HEADER, "primary")))
+				.isEqualTo("Replaced");
+		assertThat(listedSurname(get("/doctors").header(ReadConsistency.HEADER, "primary"))).isEqualTo("Replaced");
+
+		status.check();
+		copyToReplica();
+		status.check();
+		assertThat(surname(get("/doctors/" + doctorId).header(ReadConsistency.HEADER, "min-seq=" + changeSeq)))
+				.isEqualTo("Replaced");
+	}
+
+	@Test
+	void replicaReadsAreNotCached() throws Exception {
+		mvc.perform(put("/doctors/" + doctorId).contentType(MediaType.APPLICATION_JSON)
+				.content("{\"firstName\":\"Jonas\",\"surname\":\"Replaced\",\"specialty\":\"Cardiology\"}")).andReturn();
+
+		assertThat(surname(get("/doctors/" + doctorId))).isEqualTo("Original");
+		assertThat(listedSurname(get("/doctors"))).isEqualTo("Original");
+		assertThat(surname(get("/doctors/" + doctorId).header(ReadConsistency.HEADER, "primary")))
+				.isEqualTo("Replaced");
+		assertThat(listedSurname(get("/doctors").header(ReadConsistency.HEADER, "primary"))).isEqualTo("Replaced");
+	}
+
+	@Test
+	void staleReplicaIsNotRead() throws Exception {
+		mvc.perform(put("/doctors/" + doctorId).contentType(MediaType.APPLICATION_JSON)
+				.content("{\"firstName\":\"Jonas\",\"surname\":\"Replaced\",\"specialty\":\"Cardiology\"}")).andReturn();
+		Thread.sleep(1100);
+
+		assertThat(surname(get("/doctors/" + doctorId).header(ReadConsistency.HEADER, "max-staleness=1")))
+				.isEqualTo("Replaced");
+	}
+
+	@Test
+	void unreadableReplicaIsNotRead() throws Exception {
+		try (Connection connection = DriverManager.getConnection(REPLICA_URL, "sa", "");
+			 Statement statement = connection.createStatement()) {
+			statement.execute("drop all objects");
+		}
+		status.check();
+
+		assertThat(listedSurname(get("/doctors"))).isEqualTo("Original");
+	}
+
+	@Test
+	void malformedConsistencyIsRejected() throws Exception {
+		assertThat(mvc.perform(get("/doctors").header(ReadConsistency.HEADER, "max-staleness=soon"))
+				.andReturn().getResponse().getStatus()).isEqualTo(400);
+	}
+
+	/**
+	 * Replaces the replica with a copy of the primary, as a copy job would.
+	 */
+	private void copyToReplica() throws SQLException {
+		List<String> script = new JdbcTemplate(primary).queryForList("script nopasswords nosettings", String.class);
+		try (Connection connection = DriverManager.getConnection(REPLICA_URL, "sa", "");
+			 Statement statement = connection.createStatement()) {
+			statement.execute("drop all objects");
+			for (String sql : script) {
+				statement.execute(sql);
+			}
+		}
+	}
+
+	private String surname(MockHttpServletRequestBuilder request) throws Exception {
+		return requests.json(mvc.perform(request).andReturn()).get("surname").asText();
+	}
+
+	private String listedSurname(MockHttpServletRequestBuilder request) throws Exception {
+		JsonNode doctors = requests.json(mvc.perform(request).andReturn()).get("_embedded").get("doctorList");
+		for (JsonNode doctor : doctors) {
+			if (doctor.get("id").asInt() == doctorId) {
+				return doctor.get("surname").asText();
+			}
+		}
+		throw new AssertionError("Doctor " + doctorId + " is not listed");
+	}
+}
@@ -0,0 +1,104 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestCoalescingFilterTests {
+
+	private final RequestCoalescingFilter filter = new RequestCoalescingFilter(new String[] {"/doctors/{id:\\d+}"});
+
+	private final AtomicInteger computations = new AtomicInteger();
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@Test
+	void requestArrivingDuringAComputationSharesIt() throws Exception {
+		Request leader = Request.start(this);
+		awaitComputations(1);
+		Request follower = Request.start(this);
+		awaitWaiting(follower);
+
+		release.countDown();
+
+		assertThat(leader.body()).isEqualTo("computation 1");
+		assertThat(follower.body()).isEqualTo("computation 1");
+		assertThat(computations).hasValue(1);
+	}
+
+	@Test
+	void requestArrivingAfterACommittedWriteDoesNotShareAComputationStartedBeforeIt() throws Exception {
+		Request leader = Request.start(this);
+		awaitComputations(1);
+
+		filter.onChange(null);
+		Request afterWrite = Request.start(this);
+		awaitComputations(2);
+		release.countDown();
+
+		assertThat(leader.body()).isEqualTo("computation 1");
+		assertThat(afterWrite.body()).isEqualTo("computation 2");
+	}
+
+	private void awaitComputations(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (computations.get() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertThat(computations).hasValue(count);
+	}
+
+	private static void awaitWaiting(Request request) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (request.thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertThat(request.thread.getState()).isEqualTo(Thread.State.WAITING);
+	}
+
+	/**
+	 * A GET of a doctor made through the filter on a thread of its own, answered by a chain that blocks until released.
+	 */
+	private static final class Request {
+
+		private final MockHttpServletResponse response = new MockHttpServletResponse();
+		private final Thread thread;
+
+		private Request(RequestCoalescingFilterTests test) {
+			MockHttpServletRequest request = new MockHttpServletRequest("GET", "/doctors/1");
+			thread = new Thread(() -> {
+				try {
+					test.filter.doFilter(request, response, (req, res) -> {
+						String body = "computation " + test.computations.incrementAndGet();
+						try {
+							test.release.await(5, TimeUnit.SECONDS);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+						res.getOutputStream().write(body.getBytes(StandardCharsets.UTF_8));
+					});
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+		}
+
+		static Request start(RequestCoalescingFilterTests test) {
+			Request request = new Request(test);
+			request.thread.start();
+			return request;
+		}
+
+		String body() throws Exception {
+			thread.join(5_000);
+			return response.getContentAsString();
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lt.viko.eif.d.svyrydenko.spring.rest.JsonRequests;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.ChangeEvent;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Patient;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.PatientRepository;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.ChangeLog;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.Shards;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+/**
+ * Runs the application sharded over three in-memory H2 databases, of which only two are on the ring at first.
+ */
+@SpringBootTest(properties = {
+		"app.sharding.enabled=true",
+		"app.sharding.ring=home,s1",
+		"spring.datasource.url=" + ShardingTests.HOME_URL,
+		"app.sharding.shards.s1.jdbc-url=" + ShardingTests.S1_URL,
+		"app.sharding.shards.s1.username=sa",
+		"app.sharding.shards.s2.jdbc-url=" + ShardingTests.S2_URL,
+		"app.sharding.shards.s2.username=sa"
+})
+@AutoConfigureMockMvc
+class ShardingTests {
+
+	static final String HOME_URL = "jdbc:h2:mem:sharding-home;DB_CLOSE_DELAY=-1";
+	static final String S1_URL = "jdbc:h2:mem:sharding-s1;DB_CLOSE_DELAY=-1";
+	static final String S2_URL = "jdbc:h2:mem:sharding-s2;DB_CLOSE_DELAY=-1";
+
+	private static final AtomicInteger hours = new AtomicInteger();
+
+	private final Map<String, JdbcTemplate> databases = Map.of(
+			"home", database(HOME_URL), "s1", database(S1_URL), "s2", database(S2_URL));
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private Shards shards;
+
+	@Autowired
+	private PatientRepository patients;
+
+	@Autowired
+	private ChangeLog changeLog;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private JsonRequests requests;
+
+	@BeforeEach
+	void setUp() {
+		requests = new JsonRequests(mvc, objectMapper);
+	}
+
+	@Test
+	void patientsAndTheirAppointmentsAreSpreadOverTheShards() throws Exception {
+		int doctorId = newDoctor();
+		List<Integer> patientIds = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			int patientId = newPatient("Spread" + i);
+			patientIds.add(patientId);
+			int appointmentId = newAppointment(patientId, doctorId);
+
+			String shard = shards.shardOf(patientId);
+			assertThat(shardsHolding("patient", patientId)).containsExactly(shard);
+			assertThat(shardsHolding("appointment", appointmentId)).containsExactly(shard);
+			assertThat(requests.json(mvc.perform(get("/appointments/" + appointmentId)).andReturn())
+					.get("patient").get("id").asInt()).isEqualTo(patientId);
+			assertThat(requests.json(mvc.perform(get("/appointments?patientId=" + patientId))
+					.andReturn()).get("_embedded").get("appointmentList")).hasSize(1);
+		}
+		assertThat(shardsHolding("doctor", doctorId)).containsExactlyInAnyOrder("home", "s1", "s2");
+		assertThat(patientIds.stream().map(shards::shardOf).distinct()).hasSizeGreaterThan(1);
+
+		for (int patientId : patientIds) {
+			assertThat(requests.json(mvc.perform(get("/patients/" + patientId)).andReturn()).get("id").asInt())
+					.isEqualTo(patientId);
+		}
+		List<Integer> listed = listedPatientIds();
+		assertThat(listed).isSorted().doesNotHaveDuplicates().containsAll(patientIds);
+	}
+
+	@Test
+	void rebalancingMovesThePatientsWithTheirAppointments() throws Exception {
+		int doctorId = newDoctor();
+		List<Integer> patientIds = new ArrayList<>();
+		List<Integer> appointmentIds = new ArrayList<>();
+		for (int i = 0; i < 30; i++) {
+			int patientId = newPatient("Moved" + i);
+			patientIds.add(patientId);
+			appointmentIds.add(newAppointment(patientId, doctorId));
+		}
+
+		for (List<String> ring : List.of(List.of("home", "s1", "s2"), List.of("home", "s1"))) {
+			JsonNode rebalanced = requests.json(mvc.perform(put("/shards").contentType(MediaType.APPLICATION_JSON)
+					.content(objectMapper.writeValueAsString(ring))).andReturn());
+			assertThat(rebalanced.get("patients").asInt()).isPositive();
+			assertThat(requests.json(mvc.perform(get("/shards")).andReturn()).get("rebalancingTo").isNull()).isTrue();
+
+			for (int i = 0; i < patientIds.size(); i++) {
+				String shard = shards.shardOf(patientIds.get(i));
+				assertThat(ring).contains(shard);
+				assertThat(shardsHolding("patient", patientIds.get(i))).containsExactly(shard);
+				assertThat(shardsHolding("appointment", appointmentIds.get(i))).containsExactly(shard);
+				assertThat(requests.json(mvc.perform(get("/appointments/" + appointmentIds.get(i))).andReturn())
+						.get("patient").get("id").asInt()).isEqualTo(patientIds.get(i));
+			}
+			assertThat(listedPatientIds()).containsAll(patientIds);
+		}
+	}
+
+	@Test
+	void updatedDoctorOverwritesItsCopyOnEveryShard() throws Exception {
+		int doctorId = newDoctor();
+		assertThat(mvc.perform(put("/doctors/" + doctorId).contentType(MediaType.APPLICATION_JSON)
+				.content("{\"firstName\":\"Jonas\",\"surname\":\"Replaced\",\"specialty\":\"Surgery\"}"))
+				.andReturn().getResponse().getStatus()).isEqualTo(200);
+
+		Map<String, Object> home = databases.get("home")
+				.queryForMap("select surname, specialty, version from doctor where id = ?", doctorId);
+		assertThat(home.get("SURNAME")).isEqualTo("Replaced");
+		for (JdbcTemplate database : databases.values()) {
+			assertThat(database.queryForMap("select surname, specialty, version from doctor where id = ?", doctorId))
+					.isEqualTo(home);
+		}
+	}
+
+	@Test
+	void appointmentIsNotMovedToAPatientOnAnotherShard() throws Exception {
+		int doctorId = newDoctor();
+		int first = newPatient("First");
+		int other = newPatient("Other");
+		while (shards.shardOf(other).equals(shards.shardOf(first))) {
+			other = newPatient("Other");
+		}
+		int appointmentId = newAppointment(first, doctorId);
+
+		assertThat(mvc.perform(patch("/appointments/" + appointmentId).contentType(MediaType.APPLICATION_JSON)
+				.content("{\"patientId\":" + other + "}")).andReturn().getResponse().getStatus()).isEqualTo(422);
+	}
+
+	@Test
+	void changeCommittedOnAShardIsRelayedWhenTheHomeShardFails() throws Exception {
+		int patientId = newPatient("Relayed");
+		while (shards.shardOf(patientId).equals(Shards.HOME)) {
+			patientId = newPatient("Relayed");
+		}
+		int id = patientId;
+		String shard = shards.shardOf(id);
+
+		assertThatThrownBy(() -> new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			Patient patient = patients.findById(id).orElseThrow();
+			patient.setSurname("Committed on its shard");
+			changeLog.record(ChangeEvent.EntityType.PATIENT, id, ChangeEvent.Operation.UPDATED, patients.save(patient));
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void beforeCommit(boolean readOnly) {
+					throw new IllegalStateException("The home shard fails to commit");
+				}
+			});
+		})).hasMessage("The home shard fails to commit");
+
+		assertThat(databases.get(shard).queryForObject("select surname from patient where id = ?", String.class, id))
+				.isEqualTo("Committed on its shard");
+		Long seq = databases.get("home").queryForObject("select max(seq) from change_event "
+				+ "where entity_type = 'PATIENT' and entity_id = ? and operation = 'UPDATED'", Long.class, id);
+		assertThat(seq).isNotNull();
+		assertThat(changeLog.watermark()).isGreaterThanOrEqualTo(seq);
+
+		changeLog.relay();
+		assertThat(databases.get(shard).queryForObject("select count(*) from change_event where seq <= ?",
+				Integer.class, seq)).isZero();
+	}
+
+	@Test
+	void unknownShardIsRejected() throws Exception {
+		assertThat(mvc.perform(put("/shards").contentType(MediaType.APPLICATION_JSON).content("[\"nowhere\"]"))
+				.andReturn().getResponse().getStatus()).isEqualTo(400);
+	}
+
+	private int newDoctor() throws Exception {
+		return requests.json(mvc.perform(post("/doctors").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"firstName\":\"Jonas\",\"surname\":\"Sharded\",\"specialty\":\"Cardiology\"}")).andReturn())
+				.get("id").asInt();
+	}
+
+	private int newPatient(String surname) throws Exception {
+		return requests.json(mvc.perform(post("/patients").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"firstName\":\"Ona\",\"surname\":\"" + surname + "\",\"age\":40}")).andReturn())
+				.get("id").asInt();
+	}
+
+	private int newAppointment(int patientId, int doctorId) throws Exception {
+		long date = 1_700_000_000_000L + hours.incrementAndGet() * 3_600_000L;
+		MvcResult result = mvc.perform(post("/appointments").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"type\":\"Checkup\",\"date\":" + date + ",\"patientId\":" + patientId
+						+ ",\"doctorId\":" + doctorId + "}")).andReturn();
+		assertThat(result.getResponse().getStatus()).isEqualTo(200);
+		return requests.json(result).get("id").asInt();
+	}
+
+	private List<Integer> listedPatientIds() throws Exception {
+		List<Integer> ids = new ArrayList<>();
+		int after = 0;
+		while (true) {
+			JsonNode page = requests.json(mvc.perform(get("/patients?after=" + after + "&size=7")).andReturn())
+					.get("_embedded");
+			if (page == null || page.get("patientList").isEmpty()) {
+				return ids;
+			}
+			for (JsonNode patient : page.get("patientList")) {
+				ids.add(patient.get("id").asInt());
+			}
+			after = ids.get(ids.size() - 1);
+		}
+	}
+
+	private Set<String> shardsHolding(String table, int id) {
+		Set<String> holding = new HashSet<>();
+		databases.forEach((shard, database) -> {
+			if (database.queryForObject("select count(*) from " + table + " where id = ?", Integer.class, id) > 0) {
+				holding.add(shard);
+			}
+		});
+		return holding;
+	}
+
+	private static JdbcTemplate database(String url) {
+		return new JdbcTemplate(new DriverManagerDataSource(url, "sa", ""));
+	}
+}
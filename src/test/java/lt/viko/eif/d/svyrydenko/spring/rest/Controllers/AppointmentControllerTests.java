@@ -0,0 +1,170 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lt.viko.eif.d.svyrydenko.spring.rest.JsonRequests;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.StreamSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class AppointmentControllerTests {
+
+	private static final long MINUTE = 60_000L;
+
+	/**
+	 * Every test books its appointments on a day of its own, so the tests never clash with each other.
+	 */
+	private static final AtomicLong days = new AtomicLong();
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private JsonRequests requests;
+
+	private int doctorId;
+
+	private int patientId;
+
+	private long morning;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		requests = new JsonRequests(mvc, objectMapper);
+		doctorId = requests.created("/doctors",
+				"{\"firstName\":\"Jonas\",\"surname\":\"Booked\",\"specialty\":\"Cardiology\"}");
+		patientId = requests.created("/patients", "{\"firstName\":\"Ona\",\"surname\":\"Booking\",\"age\":40}");
+		morning = 1_800_000_000_000L + days.incrementAndGet() * 24 * 60 * MINUTE;
+	}
+
+	@Test
+	void failedUpdateKeepsTheBookingOfTheAppointment() throws Exception {
+		int appointmentId = requests.created("/appointments", appointment(morning, patientId));
+
+		requests.perform(put("/appointments/" + appointmentId), appointment(morning, Integer.MAX_VALUE), 422);
+
+		requests.perform(post("/appointments"), appointment(morning + 10 * MINUTE, patientId), 409);
+	}
+
+	@Test
+	void failedMoveKeepsTheBookingAtTheOldTime() throws Exception {
+		int appointmentId = requests.created("/appointments", appointment(morning, patientId));
+
+		requests.perform(put("/appointments/" + appointmentId), appointment(morning + 60 * MINUTE, Integer.MAX_VALUE), 422);
+
+		requests.perform(post("/appointments"), appointment(morning + 10 * MINUTE, patientId), 409);
+		requests.perform(post("/appointments"), appointment(morning + 60 * MINUTE, patientId), 200);
+	}
+
+	@Test
+	void failedBatchMoveKeepsTheBookingAtTheOldTime() throws Exception {
+		int appointmentId = requests.created("/appointments", appointment(morning, patientId));
+
+		JsonNode results = requests.json(requests.perform(post("/appointments/batch"),
+				"[{\"id\":" + appointmentId + ",\"version\":0,"
+				+ appointment(morning + 60 * MINUTE, Integer.MAX_VALUE).substring(1) + "]", 200));
+		assertThat(results.get(0).get("status").asText()).isEqualTo("FAILED");
+
+		requests.perform(post("/appointments"), appointment(morning + 10 * MINUTE, patientId), 409);
+		requests.perform(post("/appointments"), appointment(morning + 60 * MINUTE, patientId), 200);
+	}
+
+	@Test
+	void writeRefersToThePatientAndDoctorByIdAndReadLoadsThem() throws Exception {
+		JsonNode created = requests.json(requests.perform(post("/appointments"), appointment(morning, patientId), 200));
+		assertThat(created.get("patientId").asInt()).isEqualTo(patientId);
+		assertThat(created.get("doctorId").asInt()).isEqualTo(doctorId);
+		assertThat(created.has("patient")).isFalse();
+		assertThat(created.has("doctor")).isFalse();
+
+		JsonNode read = requests.json(mvc.perform(get("/appointments/" + created.get("id").asInt())).andReturn());
+		assertThat(read.get("patientId").asInt()).isEqualTo(patientId);
+		assertThat(read.get("patient").get("surname").asText()).isEqualTo("Booking");
+		assertThat(read.get("patient").get("age").asInt()).isEqualTo(40);
+		assertThat(read.get("doctor").get("surname").asText()).isEqualTo("Booked");
+	}
+
+	@Test
+	void listIsFilteredByDoctorPatientAndDateRange() throws Exception {
+		int otherPatientId = requests.created("/patients", "{\"firstName\":\"Petras\",\"surname\":\"Filtered\"}");
+		int early = requests.created("/appointments", appointment(morning, patientId));
+		int other = requests.created("/appointments", appointment(morning + 60 * MINUTE, otherPatientId));
+		int late = requests.created("/appointments", appointment(morning + 120 * MINUTE, patientId));
+		String from = "&from=" + Instant.ofEpochMilli(morning);
+		String to = "&to=" + Instant.ofEpochMilli(morning + 60 * MINUTE);
+
+		assertThat(listed("doctorId=" + doctorId)).containsExactly(early, other, late);
+		assertThat(listed("doctorId=" + doctorId + from + to)).containsExactly(early, other);
+		assertThat(listed("patientId=" + patientId)).containsExactly(early, late);
+		assertThat(listed("patientId=" + patientId + "&doctorId=" + doctorId + from + to)).containsExactly(early);
+		assertThat(listed("from=" + Instant.ofEpochMilli(morning + 90 * MINUTE)
+				+ "&to=" + Instant.ofEpochMilli(morning + 150 * MINUTE))).containsExactly(late);
+
+		JsonNode first = requests.json(mvc.perform(get(URI.create("/appointments?doctorId=" + doctorId + "&size=1")))
+				.andReturn());
+		assertThat(first.get("_links").get("next").get("href").asText()).contains("doctorId=" + doctorId);
+	}
+
+	@Test
+	void invalidDateRangeIsRejected() throws Exception {
+		String from = "from=" + Instant.ofEpochMilli(morning + 60 * MINUTE);
+		String to = "to=" + Instant.ofEpochMilli(morning);
+
+		assertThat(mvc.perform(get(URI.create("/appointments?" + from + "&" + to))).andReturn()
+				.getResponse().getStatus()).isEqualTo(400);
+		assertThat(mvc.perform(get(URI.create("/appointments?from=yesterday"))).andReturn()
+				.getResponse().getStatus()).isEqualTo(400);
+	}
+
+	@Test
+	void entityTagOfAnAppointmentChangesWithItsPatient() throws Exception {
+		int appointmentId = requests.created("/appointments", appointment(morning, patientId));
+		String eTag = mvc.perform(get("/appointments/" + appointmentId)).andReturn().getResponse()
+				.getHeader(HttpHeaders.ETAG);
+		assertThat(mvc.perform(get("/appointments/" + appointmentId).header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andReturn().getResponse().getStatus()).isEqualTo(304);
+
+		requests.perform(put("/patients/" + patientId), "{\"firstName\":\"Ona\",\"surname\":\"Booking\",\"age\":41}", 200);
+
+		MvcResult changed = mvc.perform(get("/appointments/" + appointmentId).header(HttpHeaders.IF_NONE_MATCH, eTag))
+				.andReturn();
+		assertThat(changed.getResponse().getStatus()).isEqualTo(200);
+		assertThat(changed.getResponse().getHeader(HttpHeaders.ETAG)).isNotEqualTo(eTag);
+		assertThat(requests.json(changed).get("patient").get("age").asInt()).isEqualTo(41);
+		requests.perform(put("/appointments/" + appointmentId).header(HttpHeaders.IF_MATCH, eTag),
+				appointment(morning + 30 * MINUTE, patientId), 412);
+	}
+
+	private List<Integer> listed(String query) throws Exception {
+		JsonNode page = requests.json(mvc.perform(get(URI.create("/appointments?" + query))).andReturn());
+		assertThat(page.has("_embedded")).isTrue();
+		return StreamSupport.stream(page.get("_embedded").get("appointmentList").spliterator(), false)
+				.map(appointment -> appointment.get("id").asInt())
+				.toList();
+	}
+
+	private String appointment(long date, int patient) {
+		return "{\"type\":\"Checkup\",\"date\":" + date + ",\"patientId\":" + patient
+				+ ",\"doctorId\":" + doctorId + "}";
+	}
+}
@@ -0,0 +1,114 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lt.viko.eif.d.svyrydenko.spring.rest.JsonRequests;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class AppointmentFeedTests {
+
+	private static final Pattern EVENT = Pattern.compile("id:(\\d+)\nevent:(\\w+)\ndata:(.*)\n\n");
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private AppointmentFeed feed;
+
+	private JsonRequests requests;
+
+	@BeforeEach
+	void setUp() {
+		requests = new JsonRequests(mvc, objectMapper);
+	}
+
+	@Test
+	void committedChangesAreSentToEverySubscriberOnce() throws Exception {
+		int doctorId = requests.created("/doctors",
+				"{\"firstName\":\"Jonas\",\"surname\":\"Fed\",\"specialty\":\"Cardiology\"}");
+		int patientId = requests.created("/patients", "{\"firstName\":\"Ona\",\"surname\":\"Fed\",\"age\":40}");
+		List<MockHttpServletResponse> streams = List.of(subscribe(), subscribe(), subscribe());
+
+		int appointmentId = requests.created("/appointments",
+				"{\"type\":\"Checkup\",\"date\":1900000000000,\"patientId\":"
+				+ patientId + ",\"doctorId\":" + doctorId + "}");
+		mvc.perform(delete("/appointments/" + appointmentId));
+
+		for (MockHttpServletResponse stream : streams) {
+			List<Event> events = awaitEvents(stream, 2);
+			assertThat(events).extracting(Event::name).containsExactly("created", "deleted");
+			assertThat(events.get(0).id()).isLessThan(events.get(1).id());
+			assertThat(events.get(0).data().get("id").asInt()).isEqualTo(appointmentId);
+			assertThat(events.get(0).data().get("patientId").asInt()).isEqualTo(patientId);
+			assertThat(events.get(1).data().get("id").asInt()).isEqualTo(appointmentId);
+			assertThat(stream.getContentAsString()).isEqualTo(streams.get(0).getContentAsString());
+		}
+	}
+
+	@Test
+	void rolledBackWritesAreNotSent() throws Exception {
+		MockHttpServletResponse stream = subscribe();
+
+		MvcResult failed = mvc.perform(post("/appointments").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"type\":\"Checkup\",\"patientId\":" + Integer.MAX_VALUE + "}")).andReturn();
+		assertThat(failed.getResponse().getStatus()).isEqualTo(422);
+		int appointmentId = requests.created("/appointments", "{\"type\":\"Checkup\"}");
+
+		List<Event> events = awaitEvents(stream, 1);
+		assertThat(events).hasSize(1);
+		assertThat(events.get(0).data().get("id").asInt()).isEqualTo(appointmentId);
+	}
+
+	/**
+	 * Subscribes to the feed the way clients that accept anything do.
+	 */
+	private MockHttpServletResponse subscribe() throws Exception {
+		int subscribers = feed.subscribers();
+		MvcResult result = mvc.perform(get("/appointments/stream").accept(MediaType.ALL)).andReturn();
+		assertThat(result.getRequest().isAsyncStarted()).isTrue();
+		assertThat(feed.subscribers()).isEqualTo(subscribers + 1);
+		return result.getResponse();
+	}
+
+	/**
+	 * Waits until a stream holds the given number of events, and a little longer to catch any extra ones.
+	 */
+	private List<Event> awaitEvents(MockHttpServletResponse stream, int count) throws Exception {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (events(stream).size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+		return events(stream);
+	}
+
+	private List<Event> events(MockHttpServletResponse stream) throws Exception {
+		return EVENT.matcher(stream.getContentAsString()).results()
+				.map(match -> new Event(Long.parseLong(match.group(1)), match.group(2), requests.json(match.group(3))))
+				.toList();
+	}
+
+	private record Event(long id, String name, JsonNode data) {
+	}
+}
@@ -0,0 +1,60 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lt.viko.eif.d.svyrydenko.spring.rest.Services.ChangeLog;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class ChangeControllerTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Autowired
+	private ChangeLog changeLog;
+
+	@Test
+	void waitingConsumerIsWokenByTheNextCommittedChange() throws Exception {
+		long since = changeLog.watermark();
+		MvcResult polling = mvc.perform(get("/changes?since=" + since)).andReturn();
+		assertThat(polling.getRequest().isAsyncStarted()).isTrue();
+
+		MvcResult failed = mvc.perform(post("/appointments").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"type\":\"Checkup\",\"patientId\":" + Integer.MAX_VALUE + "}")).andReturn();
+		assertThat(failed.getResponse().getStatus()).isEqualTo(422);
+		Thread.sleep(100);
+		assertThat(polling.getResponse().getContentAsString()).isEmpty();
+
+		MvcResult created = mvc.perform(post("/doctors").contentType(MediaType.APPLICATION_JSON)
+				.content("{\"firstName\":\"Jonas\",\"surname\":\"Polled\",\"specialty\":\"Cardiology\"}")).andReturn();
+		int doctorId = objectMapper.readTree(created.getResponse().getContentAsString()).get("id").asInt();
+
+		polling.getAsyncResult(5_000);
+		JsonNode changes = objectMapper.readTree(mvc.perform(asyncDispatch(polling)).andReturn()
+				.getResponse().getContentAsString());
+		JsonNode events = changes.get("_embedded").get("changeEventList");
+		assertThat(events).hasSize(1);
+		assertThat(events.get(0).get("entityType").asText()).isEqualTo("DOCTOR");
+		assertThat(events.get(0).get("entityId").asInt()).isEqualTo(doctorId);
+		assertThat(events.get(0).get("operation").asText()).isEqualTo("CREATED");
+		assertThat(events.get(0).get("_links").get("doctor").get("href").asText()).endsWith("/doctors/" + doctorId);
+		assertThat(changes.get("_links").get("next").get("href").asText())
+				.contains("since=" + events.get(0).get("seq").asLong());
+	}
+}
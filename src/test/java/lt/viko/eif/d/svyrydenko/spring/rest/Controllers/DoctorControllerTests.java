@@ -0,0 +1,167 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.StreamSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class DoctorControllerTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Test
+	void listIsPagedForwardAndBackwardByIdCursors() throws Exception {
+		List<Integer> ids = newDoctors("Paged", 5);
+
+		JsonNode first = page("/doctors?after=" + (ids.get(0) - 1) + "&size=2");
+		assertThat(ids(first)).containsExactly(ids.get(0), ids.get(1));
+
+		JsonNode second = page(first.get("_links").get("next").get("href").asText());
+		assertThat(ids(second)).containsExactly(ids.get(2), ids.get(3));
+		assertThat(second.get("_links").get("self").get("href").asText()).contains("after=" + ids.get(1));
+
+		JsonNode back = page(second.get("_links").get("prev").get("href").asText());
+		assertThat(ids(back)).containsExactly(ids.get(0), ids.get(1));
+		assertThat(back.get("_links").has("next")).isTrue();
+	}
+
+	@Test
+	void listIsStreamedAsNewlineDelimitedJsonInIdOrder() throws Exception {
+		List<Integer> ids = newDoctors("Streamed", 3);
+
+		MvcResult started = mvc.perform(get("/doctors").accept(EntityStreamer.NDJSON_VALUE)).andReturn();
+		MvcResult streamed = mvc.perform(asyncDispatch(started)).andReturn();
+		assertThat(streamed.getResponse().getContentType()).startsWith(EntityStreamer.NDJSON_VALUE);
+
+		List<JsonNode> lines = new ArrayList<>();
+		for (String line : streamed.getResponse().getContentAsString().split("\n")) {
+			lines.add(objectMapper.readTree(line));
+		}
+		assertThat(lines).extracting(line -> line.get("id").asInt()).isSorted().containsSubsequence(ids);
+		assertThat(lines).filteredOn(line -> line.get("id").asInt() == ids.get(0))
+				.singleElement().satisfies(line -> assertThat(line.get("surname").asText()).isEqualTo("Streamed"));
+	}
+
+	@Test
+	void failedItemsOfABatchDoNotFailTheOthers() throws Exception {
+		int stale = newDoctors("Original", 1).get(0);
+		assertThat(mvc.perform(put("/doctors/" + stale).contentType(MediaType.APPLICATION_JSON)
+				.content(doctor("Replaced"))).andReturn().getResponse().getStatus()).isEqualTo(200);
+
+		JsonNode results = batch(MediaType.APPLICATION_JSON_VALUE, "[" + doctor("BatchA") + ","
+				+ "{\"id\":" + stale + ",\"version\":0," + doctor("Stale").substring(1) + ","
+				+ doctor("Long".repeat(100)) + "," + "{\"firstName\":[\"Jonas\"]}," + doctor("BatchB") + "]");
+
+		assertThat(results).extracting(result -> result.get("index").asInt()).containsExactly(0, 1, 2, 3, 4);
+		assertThat(results).extracting(result -> result.get("status").asText())
+				.containsExactly("CREATED", "FAILED", "FAILED", "FAILED", "CREATED");
+		assertThat(results).filteredOn(result -> result.get("status").asText().equals("FAILED"))
+				.allSatisfy(result -> assertThat(result.get("error").asText()).isNotEmpty());
+		assertThat(surname(results.get(0).get("id").asInt())).isEqualTo("BatchA");
+		assertThat(surname(results.get(4).get("id").asInt())).isEqualTo("BatchB");
+		assertThat(surname(stale)).isEqualTo("Replaced");
+	}
+
+	@Test
+	void batchIsReadFromNewlineDelimitedJson() throws Exception {
+		int updated = newDoctors("Original", 1).get(0);
+
+		JsonNode results = batch(EntityStreamer.NDJSON_VALUE, doctor("Lined") + "\n"
+				+ "{\"id\":" + updated + ",\"version\":0," + doctor("Updated").substring(1) + "\n");
+
+		assertThat(results).extracting(result -> result.get("status").asText()).containsExactly("CREATED", "UPDATED");
+		assertThat(results.get(1).get("id").asInt()).isEqualTo(updated);
+		assertThat(surname(results.get(0).get("id").asInt())).isEqualTo("Lined");
+		assertThat(surname(updated)).isEqualTo("Updated");
+	}
+
+	@Test
+	void writesWithAStaleIfMatchAreRejected() throws Exception {
+		int id = newDoctors("Tagged", 1).get(0);
+		MvcResult read = mvc.perform(get("/doctors/" + id)).andReturn();
+		String eTag = read.getResponse().getHeader(HttpHeaders.ETAG);
+		assertThat(eTag).isEqualTo("\"0\"");
+		assertThat(mvc.perform(get("/doctors/" + id).header(HttpHeaders.IF_NONE_MATCH, eTag)).andReturn()
+				.getResponse().getStatus()).isEqualTo(304);
+
+		assertThat(mvc.perform(put("/doctors/" + id).header(HttpHeaders.IF_MATCH, eTag)
+				.contentType(MediaType.APPLICATION_JSON).content(doctor("First"))).andReturn()
+				.getResponse().getStatus()).isEqualTo(200);
+		assertThat(mvc.perform(put("/doctors/" + id).header(HttpHeaders.IF_MATCH, eTag)
+				.contentType(MediaType.APPLICATION_JSON).content(doctor("Second"))).andReturn()
+				.getResponse().getStatus()).isEqualTo(412);
+		assertThat(mvc.perform(patch("/doctors/" + id).header(HttpHeaders.IF_MATCH, eTag)
+				.contentType(MergePatch.MEDIA_TYPE_VALUE).content("{\"surname\":\"Third\"}")).andReturn()
+				.getResponse().getStatus()).isEqualTo(412);
+		assertThat(mvc.perform(put("/doctors/" + Integer.MAX_VALUE).header(HttpHeaders.IF_MATCH, eTag)
+				.contentType(MediaType.APPLICATION_JSON).content(doctor("Missing"))).andReturn()
+				.getResponse().getStatus()).isEqualTo(412);
+
+		MvcResult changed = mvc.perform(get("/doctors/" + id).header(HttpHeaders.IF_NONE_MATCH, eTag)).andReturn();
+		assertThat(changed.getResponse().getStatus()).isEqualTo(200);
+		assertThat(changed.getResponse().getHeader(HttpHeaders.ETAG)).isEqualTo("\"1\"");
+		assertThat(surname(id)).isEqualTo("First");
+	}
+
+	private String doctor(String surname) {
+		return "{\"firstName\":\"Jonas\",\"surname\":\"" + surname + "\",\"specialty\":\"Cardiology\"}";
+	}
+
+	private JsonNode batch(String contentType, String body) throws Exception {
+		MvcResult result = mvc.perform(post("/doctors/batch").contentType(contentType).content(body)).andReturn();
+		assertThat(result.getResponse().getStatus()).isEqualTo(200);
+		return objectMapper.readTree(result.getResponse().getContentAsString());
+	}
+
+	private String surname(int id) throws Exception {
+		MvcResult result = mvc.perform(get("/doctors/" + id)).andReturn();
+		assertThat(result.getResponse().getStatus()).isEqualTo(200);
+		return objectMapper.readTree(result.getResponse().getContentAsString()).get("surname").asText();
+	}
+
+	private List<Integer> newDoctors(String surname, int count) throws Exception {
+		List<Integer> ids = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			MvcResult result = mvc.perform(post("/doctors").contentType(MediaType.APPLICATION_JSON)
+					.content(doctor(surname))).andReturn();
+			ids.add(objectMapper.readTree(result.getResponse().getContentAsString()).get("id").asInt());
+		}
+		return ids;
+	}
+
+	private JsonNode page(String uri) throws Exception {
+		MvcResult result = mvc.perform(get(URI.create(uri))).andReturn();
+		assertThat(result.getResponse().getStatus()).isEqualTo(200);
+		return objectMapper.readTree(result.getResponse().getContentAsString());
+	}
+
+	private List<Integer> ids(JsonNode page) {
+		return StreamSupport.stream(page.get("_embedded").get("doctorList").spliterator(), false)
+				.map(doctor -> doctor.get("id").asInt())
+				.toList();
+	}
+}
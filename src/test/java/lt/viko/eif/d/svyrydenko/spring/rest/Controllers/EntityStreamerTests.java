@@ -0,0 +1,65 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import jakarta.persistence.EntityManager;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Patient;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.AppointmentRepository;
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class EntityStreamerTests {
+
+	private static final int APPOINTMENTS = 5 * EntityStreamer.ROWS_PER_CLEAR;
+
+	@Autowired
+	private EntityStreamer streamer;
+
+	@Autowired
+	private AppointmentRepository appointments;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void streamingKeepsTheNumberOfManagedEntitiesBounded() throws Exception {
+		new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+			Doctor doctor = new Doctor("Jonas", "Streamed", "+37060000020", "Cardiology");
+			entityManager.persist(doctor);
+			for (int i = 0; i < APPOINTMENTS; i++) {
+				Patient patient = new Patient("Ona", "Streamed" + i, 40, null, null);
+				entityManager.persist(patient);
+				entityManager.persist(new Appointment("Checkup", new Date(), patient, doctor));
+			}
+		});
+		AtomicInteger rows = new AtomicInteger();
+		AtomicInteger mostEntities = new AtomicInteger();
+
+		streamer.stream(appointments::streamAllByOrderByIdAsc, appointment -> {
+			Hibernate.initialize(appointment.getPatient());
+			Hibernate.initialize(appointment.getDoctor());
+			rows.incrementAndGet();
+			mostEntities.accumulateAndGet(entityManager.unwrap(Session.class).getStatistics().getEntityCount(),
+					Math::max);
+			return appointment.getId();
+		}).getBody().writeTo(new ByteArrayOutputStream());
+
+		assertThat(rows.get()).isGreaterThanOrEqualTo(APPOINTMENTS);
+		assertThat(mostEntities.get()).isLessThanOrEqualTo(3 * EntityStreamer.ROWS_PER_CLEAR);
+	}
+}
@@ -0,0 +1,126 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lt.viko.eif.d.svyrydenko.spring.rest.JsonRequests;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.net.URI;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Compares whole HAL documents with the ones written while the links were built with {@code linkTo(methodOn(...))}
+ * and the lists were Spring HATEOAS collection models, so that the hrefs, the relation names and the names of the
+ * embedded lists stay the same.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class HalDocumentTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private JsonRequests requests;
+
+	@BeforeEach
+	void setUp() {
+		requests = new JsonRequests(mvc, objectMapper);
+	}
+
+	@Test
+	void doctorsAreWrittenAsBefore() throws Exception {
+		String body = "{\"firstName\":\"Jonas\",\"surname\":\"Golden\",\"phoneNumber\":\"+37060000000\","
+				+ "\"specialty\":\"Cardiology\"}";
+		int first = requests.created("/doctors", body);
+		int second = requests.created("/doctors", body);
+		requests.created("/doctors", body);
+
+		assertDocument("/doctors/" + second, doctor(second));
+		assertDocument("/doctors?after=" + first + "&size=1", """
+				{"_embedded":{"doctorList":[%s]},
+				 "_links":{"self":{"href":"http://localhost/doctors?after=%d&size=1"},
+				           "next":{"href":"http://localhost/doctors?after=%d&size=1"},
+				           "prev":{"href":"http://localhost/doctors?before=%d&size=1"}}}"""
+				.formatted(doctor(second), first, second, second));
+	}
+
+	@Test
+	void patientsAreWrittenAsBefore() throws Exception {
+		String body = "{\"firstName\":\"Ona\",\"surname\":\"Golden\",\"age\":40,\"phoneNumber\":\"+37060000001\","
+				+ "\"email\":\"ona@mail.lt\"}";
+		int first = requests.created("/patients", body);
+		int second = requests.created("/patients", body);
+		requests.created("/patients", body);
+
+		assertDocument("/patients/" + second, patient(second));
+		assertDocument("/patients?after=" + first + "&size=1", """
+				{"_embedded":{"patientList":[%s]},
+				 "_links":{"self":{"href":"http://localhost/patients?after=%d&size=1"},
+				           "next":{"href":"http://localhost/patients?after=%d&size=1"},
+				           "prev":{"href":"http://localhost/patients?before=%d&size=1"}}}"""
+				.formatted(patient(second), first, second, second));
+	}
+
+	@Test
+	void appointmentsAreWrittenAsBefore() throws Exception {
+		int patientId = requests.created("/patients", "{\"firstName\":\"Ona\",\"surname\":\"Golden\",\"age\":40}");
+		int doctorId = requests.created("/doctors",
+				"{\"firstName\":\"Jonas\",\"surname\":\"Golden\",\"specialty\":\"Cardiology\"}");
+		String body = "{\"type\":\"Checkup\",\"date\":1900000000000,\"patientId\":" + patientId
+				+ ",\"doctorId\":" + doctorId + "}";
+		int first = requests.created("/appointments", body);
+		int second = requests.created("/appointments", body.replace("1900000000000", "1900001800000"));
+		requests.created("/appointments", body.replace("1900000000000", "1900003600000"));
+
+		assertDocument("/appointments/" + second, appointment(second, patientId, doctorId));
+		assertDocument("/appointments?after=" + first + "&size=1", """
+				{"_embedded":{"appointmentList":[%s]},
+				 "_links":{"self":{"href":"http://localhost/appointments?after=%d&size=1"},
+				           "next":{"href":"http://localhost/appointments?after=%d&size=1"},
+				           "prev":{"href":"http://localhost/appointments?before=%d&size=1"}}}"""
+				.formatted(appointment(second, patientId, doctorId), first, second, second));
+	}
+
+	private String doctor(int id) {
+		return """
+				{"id":%1$d,"version":0,"firstName":"Jonas","surname":"Golden","phoneNumber":"+37060000000","specialty":"Cardiology",
+				 "_links":{"self":{"href":"http://localhost/doctors/%1$d"},"doctors":{"href":"http://localhost/doctors"}}}"""
+				.formatted(id);
+	}
+
+	private String patient(int id) {
+		return """
+				{"id":%1$d,"version":0,"firstName":"Ona","surname":"Golden","age":40,"phoneNumber":"+37060000001","email":"ona@mail.lt",
+				 "_links":{"self":{"href":"http://localhost/patients/%1$d"},"patients":{"href":"http://localhost/patients"}}}"""
+				.formatted(id);
+	}
+
+	private String appointment(int id, int patientId, int doctorId) {
+		return """
+				{"id":%1$d,"version":0,"type":"Checkup","date":"2030-03-17T18:16:40.000+00:00",
+				 "patientId":%2$d,"doctorId":%3$d,
+				 "patient":{"id":%2$d,"version":0,"firstName":"Ona","surname":"Golden","age":40,"phoneNumber":null,
+				            "email":null},
+				 "doctor":{"id":%3$d,"version":0,"firstName":"Jonas","surname":"Golden","phoneNumber":null,
+				           "specialty":"Cardiology"},
+				 "_links":{"self":{"href":"http://localhost/appointments/%1$d"},
+				           "appointments":{"href":"http://localhost/appointments"}}}"""
+				.formatted(id, patientId, doctorId);
+	}
+
+	private void assertDocument(String uri, String expected) throws Exception {
+		MvcResult result = mvc.perform(get(URI.create(uri))).andReturn();
+		assertThat(result.getResponse().getStatus()).isEqualTo(200);
+		assertThat(requests.json(result)).isEqualTo(requests.json(expected));
+	}
+}
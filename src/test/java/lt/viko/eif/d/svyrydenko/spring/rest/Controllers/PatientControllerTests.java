@@ -0,0 +1,109 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lt.viko.eif.d.svyrydenko.spring.rest.JsonRequests;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class PatientControllerTests {
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private JsonRequests requests;
+
+	@BeforeEach
+	void setUp() {
+		requests = new JsonRequests(mvc, objectMapper);
+	}
+
+	@Test
+	void patientsAreSearchedByNameAndPhoneNumber() throws Exception {
+		int id = requests.created("/patients", "{\"firstName\":\"Rūta\",\"surname\":\"Searchable\",\"age\":33,"
+				+ "\"phoneNumber\":\"+37065512121\",\"email\":\"ruta@mail.lt\"}");
+
+		assertThat(searched("ruta%20search")).containsExactly(id);
+		assertThat(searched("%2B370%20655%2012")).containsExactly(id);
+		assertThat(searched("370-655-121")).containsExactly(id);
+
+		requests.perform(put("/patients/" + id), "{\"firstName\":\"Rūta\",\"surname\":\"Renamed\",\"age\":33}", 200);
+		assertThat(searched("searchable")).isEmpty();
+		assertThat(searched("%2B370%20655%2012")).isEmpty();
+		assertThat(searched("ruta%20renamed")).containsExactly(id);
+
+		mvc.perform(delete("/patients/" + id));
+		assertThat(searched("ruta%20renamed")).isEmpty();
+	}
+
+	@Test
+	void mergePatchClearsNullMembersAndKeepsMissingOnes() throws Exception {
+		int id = requests.created("/patients", "{\"firstName\":\"Ruta\",\"surname\":\"Patchable\",\"age\":33,"
+				+ "\"phoneNumber\":\"+37065512122\",\"email\":\"ruta@mail.lt\"}");
+
+		JsonNode patched = requests.json(patched(id, "{\"surname\":\"Patched\",\"phoneNumber\":null,\"id\":"
+				+ Integer.MAX_VALUE + ",\"version\":7}", 200));
+		assertThat(patched.get("id").asInt()).isEqualTo(id);
+		assertThat(patched.get("surname").asText()).isEqualTo("Patched");
+		assertThat(patched.get("phoneNumber").isNull()).isTrue();
+		assertThat(patched.get("firstName").asText()).isEqualTo("Ruta");
+		assertThat(patched.get("age").asInt()).isEqualTo(33);
+		assertThat(patched.get("email").asText()).isEqualTo("ruta@mail.lt");
+
+		JsonNode read = requests.json(mvc.perform(get("/patients/" + id)).andReturn());
+		assertThat(read.get("version").asLong()).isEqualTo(1);
+		assertThat(read.get("phoneNumber").isNull()).isTrue();
+		assertThat(read.get("surname").asText()).isEqualTo("Patched");
+		assertThat(read.get("email").asText()).isEqualTo("ruta@mail.lt");
+	}
+
+	@Test
+	void mergePatchThatIsNotAnObjectOrHasAWrongMemberIsRejected() throws Exception {
+		int id = requests.created("/patients", "{\"firstName\":\"Ruta\",\"surname\":\"Unpatched\",\"age\":33}");
+
+		patched(id, "[{\"surname\":\"Listed\"}]", 400);
+		patched(id, "{\"age\":\"old\"}", 400);
+		patched(Integer.MAX_VALUE, "{\"surname\":\"Missing\"}", 404);
+
+		JsonNode read = requests.json(mvc.perform(get("/patients/" + id)).andReturn());
+		assertThat(read.get("surname").asText()).isEqualTo("Unpatched");
+		assertThat(read.get("version").asLong()).isZero();
+	}
+
+	private List<Integer> searched(String query) throws Exception {
+		JsonNode page = requests.json(mvc.perform(get(URI.create("/patients/search?q=" + query)))
+				.andReturn()).get("_embedded");
+		List<Integer> ids = new ArrayList<>();
+		if (page != null) {
+			page.get("patientList").forEach(patient -> ids.add(patient.get("id").asInt()));
+		}
+		return ids;
+	}
+
+	private MvcResult patched(int id, String body, int status) throws Exception {
+		MvcResult result = mvc.perform(patch("/patients/" + id).contentType(MergePatch.MEDIA_TYPE_VALUE).content(body))
+				.andReturn();
+		assertThat(result.getResponse().getStatus()).isEqualTo(status);
+		return result;
+	}
+}
@@ -0,0 +1,107 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lt.viko.eif.d.svyrydenko.spring.rest.JsonRequests;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class ReportControllerTests {
+
+	private static final LocalDate FIRST_DAY = LocalDate.of(2031, 3, 3);
+
+	private static final LocalDate SECOND_DAY = FIRST_DAY.plusDays(1);
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private JsonRequests requests;
+
+	@BeforeEach
+	void setUp() {
+		requests = new JsonRequests(mvc, objectMapper);
+	}
+
+	@Test
+	void countersFollowUpdatesAndDeletes() throws Exception {
+		int doctorId = requests.created("/doctors",
+				"{\"firstName\":\"Jonas\",\"surname\":\"Counted\",\"specialty\":\"Before\"}");
+		int patientId = requests.created("/patients", "{\"firstName\":\"Ona\",\"surname\":\"Counted\",\"age\":40}");
+		String moved = "Moved" + doctorId;
+		String kept = "Kept" + doctorId;
+		String after = "After" + doctorId;
+		int first = requests.created("/appointments", appointment(kept, FIRST_DAY, 8, patientId, doctorId));
+		int second = requests.created("/appointments", appointment(kept, FIRST_DAY, 9, patientId, doctorId));
+		assertThat(doctorDays(doctorId)).containsExactly(Map.entry(FIRST_DAY.toString(), 2L));
+		assertThat(counts("/reports/types")).containsEntry(kept, 2L);
+
+		requests.perform(put("/appointments/" + first), appointment(moved, SECOND_DAY, 8, patientId, doctorId));
+		requests.perform(patch("/doctors/" + doctorId), "{\"specialty\":\"" + after + "\"}");
+
+		assertThat(doctorDays(doctorId))
+				.containsExactly(Map.entry(FIRST_DAY.toString(), 1L), Map.entry(SECOND_DAY.toString(), 1L));
+		assertThat(counts("/reports/types")).containsEntry(kept, 1L).containsEntry(moved, 1L);
+		assertThat(counts("/reports/specialties")).containsEntry(after, 2L).doesNotContainKey("Before");
+
+		requests.perform(delete("/appointments/" + second), "");
+
+		assertThat(doctorDays(doctorId)).containsExactly(Map.entry(SECOND_DAY.toString(), 1L));
+		assertThat(counts("/reports/types")).doesNotContainKey(kept).containsEntry(moved, 1L);
+		assertThat(counts("/reports/specialties")).containsEntry(after, 1L);
+
+		Map<String, Long> types = counts("/reports/types");
+		Map<String, Long> specialties = counts("/reports/specialties");
+		requests.perform(post("/reports/rebuild"), "");
+		assertThat(doctorDays(doctorId)).containsExactly(Map.entry(SECOND_DAY.toString(), 1L));
+		assertThat(counts("/reports/types")).isEqualTo(types);
+		assertThat(counts("/reports/specialties")).isEqualTo(specialties);
+	}
+
+	private String appointment(String type, LocalDate day, int hour, int patientId, int doctorId) {
+		long date = day.atTime(hour, 0).toInstant(ZoneOffset.UTC).toEpochMilli();
+		return "{\"type\":\"" + type + "\",\"date\":" + date + ",\"patientId\":" + patientId
+				+ ",\"doctorId\":" + doctorId + "}";
+	}
+
+	private Map<String, Long> doctorDays(int doctorId) throws Exception {
+		JsonNode report = requests.json(mvc.perform(get("/reports/doctor-days?from=" + FIRST_DAY + "&to=" + SECOND_DAY
+				+ "&doctorId=" + doctorId)).andReturn());
+		Map<String, Long> counts = new TreeMap<>();
+		if (report.has("_embedded")) {
+			report.get("_embedded").get("doctorDayCountList").forEach(count ->
+					counts.put(count.get("date").asText(), count.get("appointments").asLong()));
+		}
+		return counts;
+	}
+
+	private Map<String, Long> counts(String report) throws Exception {
+		JsonNode counts = requests.json(mvc.perform(get(report)).andReturn());
+		Map<String, Long> groups = new TreeMap<>();
+		if (counts.has("_embedded")) {
+			counts.get("_embedded").get("groupCountList").forEach(count ->
+					groups.put(count.get("key").asText(), count.get("appointments").asLong()));
+		}
+		return groups;
+	}
+}
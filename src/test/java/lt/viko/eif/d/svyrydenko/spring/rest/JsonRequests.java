@@ -0,0 +1,74 @@
+package lt.viko.eif.d.svyrydenko.spring.rest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Sends requests with a JSON body through {@link MockMvc} and reads the JSON of the responses, for the tests of the
+ * endpoints.
+ */
+public final class JsonRequests {
+
+	private final MockMvc mvc;
+
+	private final ObjectMapper objectMapper;
+
+	public JsonRequests(MockMvc mvc, ObjectMapper objectMapper) {
+		this.mvc = mvc;
+		this.objectMapper = objectMapper;
+	}
+
+	/**
+	 * Sends a request with a JSON body and checks the status of the response.
+	 */
+	public MvcResult perform(MockHttpServletRequestBuilder request, String body, int status) throws Exception {
+		MvcResult result = mvc.perform(request.contentType(MediaType.APPLICATION_JSON).content(body)).andReturn();
+		assertThat(result.getResponse().getStatus()).isEqualTo(status);
+		return result;
+	}
+
+	/**
+	 * Sends a request with a JSON body that is expected to succeed.
+	 */
+	public MvcResult perform(MockHttpServletRequestBuilder request, String body) throws Exception {
+		return perform(request, body, 200);
+	}
+
+	/**
+	 * Creates a patient, doctor or appointment and returns its id.
+	 */
+	public int created(String path, String body) throws Exception {
+		return json(perform(post(path), body)).get("id").asInt();
+	}
+
+	/**
+	 * Reads the body of a response as JSON.
+	 */
+	public JsonNode json(MvcResult result) {
+		try {
+			return json(result.getResponse().getContentAsString());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Reads a JSON document, e.g. the data of a server-sent event.
+	 */
+	public JsonNode json(String content) {
+		try {
+			return objectMapper.readTree(content);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import lt.viko.eif.d.svyrydenko.spring.rest.Config.HibernateCacheConfig;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Appointment;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.AppointmentSummary;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Patient;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.transaction.TestTransaction;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Import(HibernateCacheConfig.class)
+class AppointmentRepositoryTests {
+
+	private static final int PAGE_SIZE = 25;
+
+	@Autowired
+	private AppointmentRepository repository;
+
+	@Autowired
+	private PatientRepository patientRepository;
+
+	@Autowired
+	private DoctorRepository doctorRepository;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private Statistics statistics;
+
+	@BeforeEach
+	void setUp() {
+		for (int i = 0; i < PAGE_SIZE; i++) {
+			Patient patient = new Patient("Patient" + i, "Surname" + i, 30, "+370600000" + i, "patient" + i + "@mail.lt");
+			Doctor doctor = new Doctor("Doctor" + i, "Surname" + i, "+370611111" + i, "Cardiology");
+			entityManager.persist(patient);
+			entityManager.persist(doctor);
+			repository.save(new Appointment("Routine Check", new Date(), patient, doctor));
+		}
+		entityManager.flush();
+		entityManager.clear();
+
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.clear();
+	}
+
+	@Test
+	void pageOfAppointmentsLoadsPatientsInOneStatementAndUncachedDoctorsInOneBatch() {
+		List<Appointment> page = repository.findByIdGreaterThanOrderByIdAsc(0, PageRequest.of(0, PAGE_SIZE));
+
+		assertThat(page).hasSize(PAGE_SIZE);
+		page.forEach(appointment -> {
+			assertThat(appointment.getPatient().getFirstName()).isNotNull();
+			assertThat(appointment.getDoctor().getSpecialty()).isNotNull();
+		});
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+	}
+
+	@Test
+	void pageOfAppointmentsTakesCommittedDoctorsFromTheSecondLevelCache() {
+		TestTransaction.flagForCommit();
+		TestTransaction.end();
+		try {
+			statistics.clear();
+
+			new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+				List<Appointment> page = repository.findByIdGreaterThanOrderByIdAsc(0, PageRequest.of(0, PAGE_SIZE));
+
+				assertThat(page).allSatisfy(appointment ->
+						assertThat(appointment.getDoctor().getSpecialty()).isEqualTo("Cardiology"));
+			});
+			assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+			assertThat(statistics.getSecondLevelCacheHitCount()).isEqualTo(PAGE_SIZE);
+		} finally {
+			repository.deleteAll();
+			patientRepository.deleteAll();
+			doctorRepository.deleteAll();
+		}
+	}
+
+	@Test
+	void appointmentsAreFilteredByPatientAndDoctor() {
+		Appointment appointment = repository.findByIdGreaterThanOrderByIdAsc(0, PageRequest.of(0, 1)).get(0);
+		int patientId = appointment.getPatientId();
+		int doctorId = appointment.getDoctorId();
+		Date from = new Date(0);
+		Date to = new Date(Long.MAX_VALUE);
+
+		assertThat(repository.findByPatient_IdAndDateBetweenAndIdGreaterThanOrderByIdAsc(
+				patientId, from, to, 0, PageRequest.of(0, PAGE_SIZE))).extracting(Appointment::getId)
+				.containsExactly(appointment.getId());
+		assertThat(repository.findByDoctor_IdAndDateBetweenAndIdGreaterThanOrderByIdAsc(
+				doctorId, from, to, 0, PageRequest.of(0, PAGE_SIZE))).extracting(Appointment::getId)
+				.containsExactly(appointment.getId());
+		assertThat(repository.findByDoctor_IdAndPatient_IdAndDateBetweenAndIdGreaterThanOrderByIdAsc(
+				doctorId, patientId, from, to, 0, PageRequest.of(0, PAGE_SIZE))).extracting(Appointment::getId)
+				.containsExactly(appointment.getId());
+	}
+
+	@Test
+	void pageOfSummariesIsReadInOneStatement() {
+		List<AppointmentSummary> page = repository.findSummariesAfter(0, PageRequest.of(0, PAGE_SIZE));
+
+		assertThat(page).hasSize(PAGE_SIZE);
+		assertThat(page).allSatisfy(summary -> assertThat(summary.doctorSpecialty()).isEqualTo("Cardiology"));
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+	}
+}
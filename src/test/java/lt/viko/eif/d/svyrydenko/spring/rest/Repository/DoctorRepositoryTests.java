@@ -0,0 +1,85 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Repository;
+
+import jakarta.persistence.EntityManagerFactory;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs against the whole application, as only committed doctors are put into the second-level cache.
+ */
+@SpringBootTest
+class DoctorRepositoryTests {
+
+	@Autowired
+	private DoctorRepository repository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private Statistics statistics;
+
+	@BeforeEach
+	void setUp() {
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+	}
+
+	@Test
+	void repeatedLookupByIdIsServedFromTheSecondLevelCache() {
+		int id = repository.save(new Doctor("Jonas", "Cached", "+37060000010", "Cardiology")).getId();
+		entityManagerFactory.getCache().evict(Doctor.class, id);
+		statistics.clear();
+
+		assertThat(repository.findById(id)).hasValueSatisfying(doctor ->
+				assertThat(doctor.getSurname()).isEqualTo("Cached"));
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(repository.findById(id)).hasValueSatisfying(doctor ->
+				assertThat(doctor.getSurname()).isEqualTo("Cached"));
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(statistics.getSecondLevelCacheHitCount()).isEqualTo(1);
+
+		Doctor doctor = repository.findById(id).orElseThrow();
+		doctor.setSurname("Recached");
+		repository.save(doctor);
+		statistics.clear();
+
+		assertThat(repository.findById(id)).hasValueSatisfying(read ->
+				assertThat(read.getSurname()).isEqualTo("Recached"));
+		assertThat(statistics.getSecondLevelCacheHitCount()).isEqualTo(1);
+	}
+
+	@Test
+	void repeatedLookupBySpecialtyIsServedFromTheQueryCacheUntilADoctorIsWritten() {
+		String specialty = "Queried" + System.nanoTime();
+		int first = repository.save(new Doctor("Jonas", "Queried", "+37060000011", specialty)).getId();
+		statistics.clear();
+
+		assertThat(ids(specialty.toLowerCase())).containsExactly(first);
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(ids(specialty.toLowerCase())).containsExactly(first);
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+		assertThat(statistics.getQueryCacheHitCount()).isEqualTo(1);
+
+		int second = repository.save(new Doctor("Petras", "Queried", "+37060000012", specialty)).getId();
+		statistics.clear();
+
+		assertThat(ids(specialty.toLowerCase())).containsExactly(first, second);
+		assertThat(statistics.getQueryCacheHitCount()).isZero();
+		assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+	}
+
+	private List<Integer> ids(String specialty) {
+		return repository.findBySpecialtyIgnoreCaseOrderByIdAsc(specialty, PageRequest.of(0, 10)).stream()
+				.map(Doctor::getId)
+				.toList();
+	}
+}
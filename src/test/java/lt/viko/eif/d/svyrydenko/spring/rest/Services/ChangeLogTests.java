@@ -0,0 +1,94 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.ChangeEvent;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.DoctorRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class ChangeLogTests {
+
+	@Autowired
+	private ChangeLog changeLog;
+
+	@Autowired
+	private DoctorRepository doctors;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	void eventsAreReadableOnlyOnceEveryEarlierTransactionCommitted() throws Exception {
+		Doctor doctor = doctors.save(new Doctor("Jonas", "Logged", "+37060000002", "Cardiology"));
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		CountDownLatch recorded = new CountDownLatch(1);
+		CountDownLatch commit = new CountDownLatch(1);
+		long start = changeLog.watermark();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<Long> slow = executor.submit(() -> transaction.execute(status -> {
+				long seq = record(doctor).getSeq();
+				recorded.countDown();
+				await(commit);
+				return seq;
+			}));
+			assertThat(recorded.await(5, TimeUnit.SECONDS)).isTrue();
+			long fast = transaction.execute(status -> record(doctor).getSeq());
+			CompletableFuture<Void> moved = changeLog.awaitAfter(start);
+
+			assertThat(changeLog.watermark()).isEqualTo(start);
+			assertThat(changeLog.since(start, 10).events()).isEmpty();
+			assertThat(moved).isNotDone();
+
+			commit.countDown();
+			long first = slow.get(5, TimeUnit.SECONDS);
+			moved.get(5, TimeUnit.SECONDS);
+			assertThat(first).isLessThan(fast);
+			assertThat(changeLog.since(start, 10).events()).extracting(ChangeEvent::getSeq).containsExactly(first, fast);
+			assertThat(changeLog.since(first, 10).events()).extracting(ChangeEvent::getSeq).containsExactly(fast);
+		} finally {
+			commit.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void rolledBackEventsAreNeverRead() {
+		Doctor doctor = doctors.save(new Doctor("Jonas", "Unlogged", "+37060000003", "Cardiology"));
+		TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+		long start = changeLog.watermark();
+
+		transaction.executeWithoutResult(status -> {
+			record(doctor);
+			status.setRollbackOnly();
+		});
+		long kept = transaction.execute(status -> record(doctor).getSeq());
+
+		assertThat(changeLog.since(start, 10).events()).extracting(ChangeEvent::getSeq).containsExactly(kept);
+	}
+
+	private ChangeEvent record(Doctor doctor) {
+		return changeLog.record(ChangeEvent.EntityType.DOCTOR, doctor.getId(), ChangeEvent.Operation.UPDATED, doctor);
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lt.viko.eif.d.svyrydenko.spring.rest.Models.Doctor;
+import lt.viko.eif.d.svyrydenko.spring.rest.Repository.DoctorRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Runs the application with group commit enabled, committing every three concurrent writes together.
+ */
+@SpringBootTest(properties = {
+		"app.group-commit.enabled=true",
+		"app.group-commit.max-batch-size=3",
+		"app.group-commit.max-delay=5s"
+})
+class GroupCommitterTests {
+
+	@Autowired
+	private GroupCommitter groupCommitter;
+
+	@Autowired
+	private DoctorRepository doctors;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	private ExecutorService executor;
+
+	private DistributionSummary batchSizes;
+
+	@BeforeEach
+	void setUp() {
+		executor = Executors.newFixedThreadPool(3);
+		batchSizes = meterRegistry.get("app.group-commit.batch.size").summary();
+	}
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	void rejectedWriteFailsAloneAndTheOthersAreCommittedTogether() throws Exception {
+		long batches = batchSizes.count();
+		double committed = batchSizes.totalAmount();
+
+		List<Future<Doctor>> writes = writeConcurrently(doctor("Grouped"), doctor("Rejected"), doctor("Grouped"));
+
+		assertThat(doctors.findById(writes.get(0).get(5, TimeUnit.SECONDS).getId())).isPresent();
+		assertThat(doctors.findById(writes.get(2).get(5, TimeUnit.SECONDS).getId())).isPresent();
+		assertThatThrownBy(() -> writes.get(1).get(5, TimeUnit.SECONDS))
+				.isInstanceOf(ExecutionException.class).hasCauseInstanceOf(IllegalArgumentException.class);
+		assertThat(batchSizes.count()).isEqualTo(batches + 1);
+		assertThat(batchSizes.totalAmount()).isEqualTo(committed + 2);
+	}
+
+	@Test
+	void writeSpoilingItsBatchFailsAloneAndTheOthersAreWrittenAgain() throws Exception {
+		Doctor stored = doctors.save(doctor("Stored"));
+		stored.setSurname("Changed");
+		doctors.save(stored);
+		Doctor stale = doctor("Stale");
+		stale.setId(stored.getId());
+		long batches = batchSizes.count();
+
+		List<Future<Doctor>> writes = writeConcurrently(doctor("Retried"), stale, doctor("Retried"));
+
+		for (int i : new int[] {0, 2}) {
+			Doctor saved = writes.get(i).get(5, TimeUnit.SECONDS);
+			assertThat(doctors.findById(saved.getId())).hasValueSatisfying(doctor ->
+					assertThat(doctor.getSurname()).isEqualTo("Retried"));
+		}
+		assertThatThrownBy(() -> writes.get(1).get(5, TimeUnit.SECONDS))
+				.isInstanceOf(ExecutionException.class).hasCauseInstanceOf(ObjectOptimisticLockingFailureException.class);
+		assertThat(doctors.findById(stored.getId())).hasValueSatisfying(doctor ->
+				assertThat(doctor.getSurname()).isEqualTo("Changed"));
+		assertThat(batchSizes.count()).isEqualTo(batches);
+	}
+
+	private List<Future<Doctor>> writeConcurrently(Doctor... items) {
+		return List.of(items).stream()
+				.map(item -> executor.submit(() -> groupCommitter.write(item, this::save)))
+				.toList();
+	}
+
+	private Doctor save(Doctor doctor) {
+		if (doctor.getSurname().equals("Rejected")) {
+			throw new IllegalArgumentException("The doctor is rejected");
+		}
+		return doctors.save(doctor);
+	}
+
+	private static Doctor doctor(String surname) {
+		return new Doctor("Jonas", surname, "+37060000004", "Cardiology");
+	}
+}
@@ -0,0 +1,58 @@
+package lt.viko.eif.d.svyrydenko.spring.rest.Services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PrefixIndexTests {
+
+	private final PrefixIndex index = new PrefixIndex();
+
+	@BeforeEach
+	void setUp() {
+		index.put(1, "Jonas", "Petraitis", "+37061234567", "jonas@mail.lt");
+		index.put(2, "Ona", "Žemaitė", "+370 612 99999", "ona.zemaite@mail.lt");
+		index.put(3, "Jonas", "Jonaitis", "8 (686) 55-555", null);
+	}
+
+	@Test
+	void everyWordOfTheQueryMustStartAWordOfTheEntity() {
+		assertThat(index.search("jon", 10)).containsExactly(1, 3);
+		assertThat(index.search("jon pet", 10)).containsExactly(1);
+		assertThat(index.search("JONAS jonai", 10)).containsExactly(3);
+		assertThat(index.search("jon zem", 10)).isEmpty();
+		assertThat(index.search("  ", 10)).isEmpty();
+	}
+
+	@Test
+	void diacriticsAreIgnored() {
+		assertThat(index.search("zemaite", 10)).containsExactly(2);
+		assertThat(index.search("Žem", 10)).containsExactly(2);
+	}
+
+	@Test
+	void phoneNumbersAreFoundByTheirDigitsWhateverTheSeparators() {
+		assertThat(index.search("+370 612", 10)).containsExactly(1, 2);
+		assertThat(index.search("+370-612-345", 10)).containsExactly(1);
+		assertThat(index.search("37061299", 10)).containsExactly(2);
+		assertThat(index.search("8 686 55", 10)).containsExactly(3);
+		assertThat(index.search("(686)", 10)).containsExactly(3);
+	}
+
+	@Test
+	void updatedAndRemovedEntitiesAreNoLongerFoundByTheirOldWords() {
+		index.put(1, "Jonas", "Kazlauskas", "+37069000000", null);
+		index.remove(3);
+
+		assertThat(index.search("petraitis", 10)).isEmpty();
+		assertThat(index.search("+370 612", 10)).containsExactly(2);
+		assertThat(index.search("jon", 10)).containsExactly(1);
+		assertThat(index.size()).isEqualTo(2);
+	}
+
+	@Test
+	void resultsAreLimitedInIdOrder() {
+		assertThat(index.search("mail", 1)).containsExactly(1);
+	}
+}
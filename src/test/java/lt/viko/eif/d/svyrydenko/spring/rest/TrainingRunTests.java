@@ -0,0 +1,23 @@
+package lt.viko.eif.d.svyrydenko.spring.rest;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import static org.assertj.core.api.Assertions.assertThatCode;
+
+/**
+ * Runs the application on a real port, the way the fast-startup build starts it to record its CDS archive.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class TrainingRunTests {
+
+	@Autowired
+	private ConfigurableApplicationContext context;
+
+	@Test
+	void trainingRequestIsServed() {
+		assertThatCode(() -> SpringRestApplication.train(context)).doesNotThrowAnyException();
+	}
+}